@@ -0,0 +1,475 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table implementation for objects in a 3-dimensional cartesian coordinate
+ * system, which can be read from any thread.
+ * <p>
+ * Lookups are wait-free: they never take a lock and never retry, they read the
+ * current backing table once and probe at most the whole table. Removed entries
+ * are replaced by a tombstone instead of shifting the following entries, so an
+ * entry never moves while a reader may be looking for it. When the table fills
+ * up (including tombstones), a new table is built and published, readers still
+ * probing the old one see the map as it was before the resize.
+ * <p>
+ * Modifications are serialized on the map itself. A value returned from another
+ * thread is guaranteed to be seen at least in the state it had when it was
+ * added, later changes to it need their own synchronization.
+ * <p>
+ * Iterators are weakly consistent, they never throw
+ * {@link java.util.ConcurrentModificationException} and may or may not reflect
+ * modifications made after they were created.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ * @see XYZMap
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ConcurrentXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    /**
+     * A larger prime number used as seed for hash calculation.
+     */
+    private static final int HASH_SEED = 1183822147;
+
+    /**
+     * Marker for a bucket whose entry has been removed. Lookups continue
+     * probing past it, insertions may reuse it.
+     */
+    private static final XYZAddressable TOMBSTONE = new XYZAddressable() {
+        @Override public int getX() {
+            return 0;
+        }
+
+        @Override public int getY() {
+            return 0;
+        }
+
+        @Override public int getZ() {
+            return 0;
+        }
+    };
+
+    /**
+     * the maximum permissible load of the backing array, after reaching it the
+     * array will be rebuilt
+     */
+    private final float loadFactor;
+
+    /**
+     * The current backing table. Replaced as a whole on resize and clear.
+     */
+    private volatile Table table;
+
+    /**
+     * the current number of elements in this map
+     */
+    private volatile int size = 0;
+
+    /**
+     * the number of buckets that are not {@code null}, including tombstones.
+     * Only accessed while holding the lock on this map.
+     */
+    private int usedBuckets = 0;
+
+    /**
+     * Creates a new ConcurrentXYZMap with the given load factor and initial
+     * capacity. The map will automatically grow if the specified load is
+     * surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public ConcurrentXYZMap(float loadFactor, int capacity) {
+        if (loadFactor > 1.0) {
+            throw new IllegalArgumentException("You really dont want to be using a " + loadFactor + " load loadFactor with this hash table!");
+        }
+        this.loadFactor = loadFactor;
+
+        // there must always be at least one null bucket, so the smallest usable table has 2 buckets
+        int tCapacity = 2;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        this.table = new Table(tCapacity, loadFactor);
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Computes a 32b hash based on the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return a 32b hash based on the given coordinates
+     */
+    private static int hash(int x, int y, int z) {
+        int hash = HASH_SEED;
+        hash += x;
+        hash *= HASH_SEED;
+        hash += y;
+        hash *= HASH_SEED;
+        hash += z;
+        hash *= HASH_SEED;
+        return hash;
+    }
+
+    private static boolean isAt(XYZAddressable bucket, int x, int y, int z) {
+        return bucket != TOMBSTONE && bucket.getX() == x && bucket.getY() == y && bucket.getZ() == z;
+    }
+
+    /**
+     * Removes all elements from the map. The capacity of the map is kept.
+     */
+    public synchronized void clear() {
+        this.table = new Table(this.table.buckets.length(), loadFactor);
+        this.usedBuckets = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map
+     * previously contained a mapping for these coordinates, the old value is
+     * replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates
+     *         or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized T put(T value) {
+        Table table = this.table;
+        AtomicReferenceArray<XYZAddressable> buckets = table.buckets;
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        int index = hash(x, y, z) & table.mask;
+        int freeIndex = -1;
+
+        XYZAddressable bucket;
+        while ((bucket = buckets.get(index)) != null) {
+            if (bucket == TOMBSTONE) {
+                if (freeIndex < 0) {
+                    freeIndex = index;
+                }
+            } else if (bucket.getX() == x && bucket.getY() == y && bucket.getZ() == z) {
+                buckets.set(index, value);
+                return (T) bucket;
+            }
+            index = (index + 1) & table.mask;
+        }
+        // reuse the first tombstone on the way, otherwise take the null bucket that ended the search
+        if (freeIndex < 0) {
+            freeIndex = index;
+            this.usedBuckets++;
+        }
+        buckets.set(freeIndex, value);
+        this.size++;
+
+        if (this.usedBuckets > table.threshold) {
+            rebuild();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such entry exists
+     */
+    @Nullable
+    public T remove(int x, int y, int z) {
+        return removeInternal(x, y, z, null);
+    }
+
+    /**
+     * Removes and returns the given value from this map. More specifically,
+     * removes the entry whose xyz-coordinates equal the given value's
+     * coordinates.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the given value's coordinates or null
+     *         if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Removes the entry at the given coordinates, if {@code expected} is not
+     * null only removes it if it's that exact object.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private synchronized T removeInternal(int x, int y, int z, @Nullable XYZAddressable expected) {
+        Table table = this.table;
+        AtomicReferenceArray<XYZAddressable> buckets = table.buckets;
+        int index = hash(x, y, z) & table.mask;
+
+        XYZAddressable bucket;
+        while ((bucket = buckets.get(index)) != null) {
+            if (isAt(bucket, x, y, z)) {
+                if (expected != null && bucket != expected) {
+                    return null;
+                }
+                // if the probe sequence ends right after this bucket, nothing can be found past it
+                // and it can be freed completely, otherwise leave a tombstone so that probing continues
+                if (buckets.get((index + 1) & table.mask) == null) {
+                    buckets.set(index, null);
+                    this.usedBuckets--;
+                } else {
+                    buckets.set(index, TOMBSTONE);
+                }
+                this.size--;
+                return (T) bucket;
+            }
+            index = (index + 1) & table.mask;
+        }
+
+        // nothing was removed
+        return null;
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no
+     * such value exists. Can be called from any thread.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        Table table = this.table;
+        AtomicReferenceArray<XYZAddressable> buckets = table.buckets;
+        int mask = table.mask;
+        int index = hash(x, y, z) & mask;
+        // bounded by the table length so that concurrent writes can't keep a reader probing forever
+        for (int i = 0; i <= mask; i++) {
+            XYZAddressable bucket = buckets.get(index);
+            if (bucket == null) {
+                return null;
+            }
+            if (isAt(bucket, x, y, z)) {
+                return (T) bucket;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // nothing was found
+        return null;
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given
+     * xyz-coordinates in this map. Can be called from any thread.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given
+     *         coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return get(x, y, z) != null;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map. More
+     * specifically, returns true if there exists an entry in this map whose
+     * xyz-coordinates equal the given value's coordinates.
+     *
+     * @param value the value
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Builds a new backing table without tombstones and publishes it. The
+     * table is doubled in size if live entries alone take more than half of
+     * the load threshold, otherwise only the tombstones are dropped.
+     */
+    private void rebuild() {
+        Table oldTable = this.table;
+        int newLength = oldTable.buckets.length();
+        if (this.size > oldTable.threshold / 2) {
+            newLength <<= 1;
+        }
+        Table newTable = new Table(newLength, loadFactor);
+        AtomicReferenceArray<XYZAddressable> oldBuckets = oldTable.buckets;
+        AtomicReferenceArray<XYZAddressable> newBuckets = newTable.buckets;
+        for (int i = 0; i < oldBuckets.length(); i++) {
+            XYZAddressable bucket = oldBuckets.get(i);
+            if (bucket == null || bucket == TOMBSTONE) {
+                continue;
+            }
+            int index = hash(bucket.getX(), bucket.getY(), bucket.getZ()) & newTable.mask;
+            while (newBuckets.get(index) != null) {
+                index = (index + 1) & newTable.mask;
+            }
+            newBuckets.lazySet(index, bucket);
+        }
+        // the volatile write publishes the fully built table
+        this.table = newTable;
+        this.usedBuckets = this.size;
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    public Iterator<T> iterator() {
+        return new TableIterator(this.table, 0);
+    }
+
+    /**
+     * Return iterator over elements started from random position defined by
+     * seed
+     *
+     * @param seed defines start position
+     * @return An iterator that starts at randomized position based on seed
+     **/
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new TableIterator(this.table, seed);
+    }
+
+    private static final class Table {
+
+        final AtomicReferenceArray<XYZAddressable> buckets;
+        /**
+         * binary mask used to wrap indices
+         */
+        final int mask;
+        /**
+         * the number of used buckets after which the table will be rebuilt.
+         * Keeps at least one bucket null, so that probing always terminates.
+         */
+        final int threshold;
+
+        Table(int length, float loadFactor) {
+            this.buckets = new AtomicReferenceArray<>(length);
+            this.mask = length - 1;
+            this.threshold = Math.min((int) (length * loadFactor), length - 1) - 1;
+        }
+    }
+
+    /**
+     * Iterates over all buckets of one table exactly once, starting at the
+     * given index and wrapping around.
+     */
+    private final class TableIterator implements Iterator<T> {
+
+        private final AtomicReferenceArray<XYZAddressable> buckets;
+        private final int mask;
+        private int index;
+        private int remaining;
+        @Nullable private XYZAddressable next;
+        @Nullable private XYZAddressable last;
+
+        TableIterator(Table table, int start) {
+            this.buckets = table.buckets;
+            this.mask = table.mask;
+            this.index = start & mask;
+            this.remaining = buckets.length();
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (remaining > 0) {
+                XYZAddressable bucket = buckets.get(index);
+                index = (index + 1) & mask;
+                remaining--;
+                if (bucket != null && bucket != TOMBSTONE) {
+                    next = bucket;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return (T) last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            // the table may have been rebuilt since, so remove by coordinates, but never remove a replacement value
+            removeInternal(last.getX(), last.getY(), last.getZ(), last);
+            last = null;
+        }
+    }
+}
@@ -57,7 +57,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class CubePos {
+public class CubePos implements XYZAddressable {
 
     public static final CubePos ZERO = new CubePos(0, 0, 0);
 
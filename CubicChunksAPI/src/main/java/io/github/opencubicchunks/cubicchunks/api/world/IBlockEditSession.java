@@ -0,0 +1,71 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.world;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sets many blocks at once, for world editing and pasting structures. Obtained from
+ * {@link ICubicWorld#startBlockEditSession()}.
+ * <p>
+ * Blocks are written into cube block storage immediately, so {@link net.minecraft.world.World#getBlockState(BlockPos)}
+ * sees them right away. Everything derived from them is deferred until {@link #close()}: heightmaps are updated once
+ * per block column, light is updated once per affected cube, and each changed cube is sent to players once, either as
+ * a block change packet or as the whole cube.
+ * <p>
+ * Unlike {@link net.minecraft.world.World#setBlockState(BlockPos, IBlockState)}, no block callbacks
+ * ({@code breakBlock}, {@code onBlockAdded}) are called and no neighbor notifications are sent. Tile entities are
+ * removed and created the same way as in vanilla.
+ * <p>
+ * A session is not thread safe and must be used on the thread owning the world.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public interface IBlockEditSession extends AutoCloseable {
+
+    /**
+     * Sets the block state at the given position.
+     *
+     * @param pos block position
+     * @param state the new block state
+     * @return true if the block was changed, false if it already had that state or the cube isn't loaded
+     */
+    boolean setBlockState(BlockPos pos, IBlockState state);
+
+    /**
+     * @return number of blocks changed so far in this session
+     */
+    int getChangedBlockCount();
+
+    /**
+     * Updates heightmaps and light and sends all changes to players. The session can't be used after this.
+     */
+    @Override
+    void close();
+}
@@ -227,6 +227,16 @@ public interface ICubicWorld extends IMinMaxHeight {
 
     int getMaxGenerationHeight();
 
+    /**
+     * Starts a bulk block edit. Heightmap, light and network updates of all blocks set through the session are done
+     * together when the session is closed. Use it with try-with-resources.
+     * <p>
+     * Throws {@link NotCubicChunksWorldException} if this is not a CubicChunks world.
+     *
+     * @return a new block edit session
+     */
+    IBlockEditSession startBlockEditSession();
+
     enum SurfaceType {
         SOLID, BLOCKING_MOVEMENT, OPAQUE
     }
@@ -132,6 +132,28 @@ public class CubePrimer {
         return iblockstate == null ? DEFAULT_STATE : iblockstate;
     }
 
+    /**
+     * Get the raw block state id, as used by {@link Block#BLOCK_STATE_IDS}, at the given index. Used to copy all blocks
+     * of the primer without looking up each block state.
+     * <p>
+     * Subclasses may override {@link #getBlockState(int, int, int)} to use a different storage, so for them this goes
+     * through that method, unless they override this one too.
+     *
+     * @param index block index, {@code y << 8 | z << 4 | x}
+     * @return the block state id
+     */
+    @SuppressWarnings("deprecation")
+    public int getBlockStateId(int index) {
+        if (getClass() != CubePrimer.class) {
+            return Block.BLOCK_STATE_IDS.get(getBlockState(index & 15, index >> 8 & 15, index >> 4 & 15));
+        }
+        int block = this.data[index];
+        if (extData != null) {
+            block |= extData[index] << 16;
+        }
+        return block;
+    }
+
     /**
      * Set the block state at the given location
      *
@@ -0,0 +1,160 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Compares {@link XYZMap} and {@link ConcurrentXYZMap} on the access patterns of the cube providers:
+ * lookups of loaded and unloaded cubes, iteration, and loading/unloading cubes at the edge of the loaded area.
+ * The {@code concurrentReadWrite} group measures lookups from worker threads while the main thread keeps
+ * loading and unloading cubes, which only the concurrent map supports.
+ */
+@State(Scope.Benchmark)
+public class XYZMapBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    /**
+     * Edge length of the loaded area, in cubes. 20 is roughly a server with a few players.
+     */
+    @Param({"8", "20", "40"})
+    public int size;
+
+    private XYZMap<CubePos> xyzMap;
+    private ConcurrentXYZMap<CubePos> concurrentMap;
+
+    // half of the queries hit loaded cubes, the other half are just outside of the loaded area
+    private int[] queries;
+
+    private CubePos[] churn;
+    private int churnIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        xyzMap = new XYZMap<>(0.7f, 8000);
+        concurrentMap = new ConcurrentXYZMap<>(0.7f, 8000);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    CubePos pos = new CubePos(x, y, z);
+                    xyzMap.put(pos);
+                    concurrentMap.put(pos);
+                }
+            }
+        }
+
+        Random rand = new Random(42);
+        queries = new int[QUERIES * 3];
+        for (int i = 0; i < QUERIES; i++) {
+            int offset = (i & 1) == 0 ? 0 : size;
+            queries[i * 3] = rand.nextInt(size) + offset;
+            queries[i * 3 + 1] = rand.nextInt(size);
+            queries[i * 3 + 2] = rand.nextInt(size);
+        }
+
+        // a layer of cubes just above the loaded area, loaded and unloaded over and over
+        churn = new CubePos[size * size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                churn[x * size + z] = new CubePos(x, size, z);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getXYZMap(Blackhole bh) {
+        int[] queries = this.queries;
+        for (int i = 0; i < queries.length; i += 3) {
+            bh.consume(xyzMap.get(queries[i], queries[i + 1], queries[i + 2]));
+        }
+    }
+
+    @Benchmark
+    public void getConcurrentXYZMap(Blackhole bh) {
+        int[] queries = this.queries;
+        for (int i = 0; i < queries.length; i += 3) {
+            bh.consume(concurrentMap.get(queries[i], queries[i + 1], queries[i + 2]));
+        }
+    }
+
+    @Benchmark
+    public void iterateXYZMap(Blackhole bh) {
+        for (CubePos pos : xyzMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    public void iterateConcurrentXYZMap(Blackhole bh) {
+        for (CubePos pos : concurrentMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    public Object putRemoveXYZMap() {
+        CubePos pos = nextChurn();
+        xyzMap.put(pos);
+        return xyzMap.remove(pos);
+    }
+
+    @Benchmark
+    public Object putRemoveConcurrentXYZMap() {
+        CubePos pos = nextChurn();
+        concurrentMap.put(pos);
+        return concurrentMap.remove(pos);
+    }
+
+    @Benchmark
+    @Group("concurrentReadWrite")
+    @GroupThreads(3)
+    public void concurrentReadWriteGet(Blackhole bh) {
+        getConcurrentXYZMap(bh);
+    }
+
+    @Benchmark
+    @Group("concurrentReadWrite")
+    @GroupThreads(1)
+    public Object concurrentReadWritePutRemove() {
+        return putRemoveConcurrentXYZMap();
+    }
+
+    private CubePos nextChurn() {
+        CubePos pos = churn[churnIndex];
+        churnIndex = (churnIndex + 1) % churn.length;
+        return pos;
+    }
+}
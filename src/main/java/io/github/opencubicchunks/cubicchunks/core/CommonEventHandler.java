@@ -30,8 +30,10 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorldType;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldSettings;
+import io.github.opencubicchunks.cubicchunks.core.network.CubeDataFormat;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubicWorldData;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.server.MemoryFootprint;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
 import io.github.opencubicchunks.cubicchunks.core.server.VanillaNetworkHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.ReflectionUtil;
@@ -49,6 +51,7 @@ import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
 import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
@@ -143,6 +146,22 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent evt) {
+        int interval = CubicChunksConfig.memoryFootprintLogInterval * 60 * 20;
+        if (evt.phase != TickEvent.Phase.END || interval <= 0
+                || FMLCommonHandler.instance().getMinecraftServerInstance().getTickCounter() % interval != 0) {
+            return;
+        }
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            if (((ICubicWorld) world).isCubicWorld()) {
+                for (String line : MemoryFootprint.measure(world).format()) {
+                    CubicChunks.LOGGER.info(line);
+                }
+            }
+        }
+    }
+
     @SubscribeEvent
     public void onPlayerJoinWorld(EntityJoinWorldEvent evt) {
         if (evt.getEntity() instanceof EntityPlayerMP && ((ICubicWorld) evt.getWorld()).isCubicWorld()) {
@@ -153,6 +172,7 @@ public class CommonEventHandler {
     @SubscribeEvent
     public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
         VanillaNetworkHandler.removeBedrockPlayer((EntityPlayerMP) event.player);
+        CubeDataFormat.removePlayer((EntityPlayerMP) event.player);
     }
 
     @SuppressWarnings("unchecked")
@@ -48,10 +48,30 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @Config(modid = CubicChunks.MODID, category = "general")
 public class CubicChunksConfig {
 
-    @Config.Comment("Chunk garbage collector update interval. Lower value will increase CPU usage, but can reduce memory usage.")
+    @Config.Comment("Minimum time in ticks an unused cube or column stays loaded before the chunk garbage collector unloads it."
+            + " Lower value can reduce memory usage, but cubes that are used again soon will have to be loaded again.")
     @Config.LangKey("cubicchunks.config.chunk_gc_interval")
     public static int chunkGCInterval = 20 * 10;
 
+    @Config.Comment("Maximum time in microseconds the chunk garbage collector can spend unloading cubes and columns each tick."
+            + " Whatever doesn't fit is unloaded in the following ticks.")
+    @Config.LangKey("cubicchunks.config.chunk_gc_time_per_tick")
+    @Config.RangeInt(min = 1)
+    public static int chunkGCTimePerTick = 2000;
+
+    @Config.Comment("Size in megabytes of the cache of recently unloaded cubes. Only cubes saved when they are unloaded are kept."
+            + " Cubes loaded again from it skip the disk read and data fixers, which helps when players keep moving back and forth."
+            + " 0 disables the cache.")
+    @Config.LangKey("cubicchunks.config.unloaded_cube_cache_size")
+    @Config.RangeInt(min = 0)
+    public static int unloadedCubeCacheSize = 32;
+
+    @Config.Comment("Interval in minutes between logging the estimated memory used by loaded cubes and columns of each"
+            + " dimension, the same output as the /cubicmemory command. 0 disables the log.")
+    @Config.LangKey("cubicchunks.config.memory_footprint_log_interval")
+    @Config.RangeInt(min = 0)
+    public static int memoryFootprintLogInterval = 0;
+
     @Config.Comment("Eliminates a few data copies in compatibility generator. May break some mods." +
             " Disable if you experience issues in modded dimensions or world types")
     @Config.LangKey("cubicchunks.config.optimized_compatibility_generator")
@@ -86,6 +106,16 @@ public class CubicChunksConfig {
             + " client. Does not affect rendering, only what chunks are sent to client.")
     public static int verticalCubeLoadDistance = 8;
 
+    @Config.LangKey("cubicchunks.config.adaptive_vert_view_distance")
+    @Config.Comment("Reduces vertical view distance for players whose connection can't keep up with the data sent to them, "
+            + "and increases it back up to the normal vertical view distance when it can.")
+    public static boolean adaptiveVerticalViewDistance = false;
+
+    @Config.LangKey("cubicchunks.config.min_adaptive_vert_view_distance")
+    @Config.Comment("The lowest vertical view distance adaptive vertical view distance can reduce it to.")
+    @Config.RangeInt(min = 3, max = 64)
+    public static int minAdaptiveVerticalViewDistance = 4;
+
     @Config.LangKey("cubicchunks.config.dimension_blacklist")
     @Config.Comment("The specified dimension ID ranges won't be created as cubic chunks world for new worlds, and worlds created before this option"
             + " has been added, unless forceDimensionExcludes is set to true. IDs can be specified either as range in format min:max, or as single "
@@ -192,6 +222,45 @@ public class CubicChunksConfig {
     @Config.Comment("Max amount of cubes sent to client per tick to players")
     public static int cubesToSendPerTick = 81 * 8 + 1;
 
+    @Config.LangKey("cubicchunks.config.compact_cube_packets")
+    @Config.Comment("Offers clients a more compact cube data format, where uniform block and light data is sent as a single value. "
+            + "Clients that don't support it keep using the old format.")
+    public static boolean compactCubePackets = true;
+
+    @Config.LangKey("cubicchunks.config.cube_packet_compression_level")
+    @Config.Comment("Deflate compression level for cube data sent in the compact format. 0 disables it. "
+            + "This is applied in addition to network compression, and is mostly useful when network compression is disabled.")
+    @Config.RangeInt(min = 0, max = 9)
+    public static int cubePacketCompressionLevel = 0;
+
+    @Config.LangKey("cubicchunks.config.cube_packet_encoding_threads")
+    @Config.Comment("Amount of threads used to encode cubes sent to players. 0 encodes them on the server thread.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int cubePacketEncodingThreads = 2;
+
+    @Config.LangKey("cubicchunks.config.cube_packet_decoding_threads")
+    @Config.Comment("Amount of threads used to decode cubes received from the server. 0 decodes them on the client thread.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int cubePacketDecodingThreads = 2;
+
+    @Config.LangKey("cubicchunks.config.allow_client_cube_cache")
+    @Config.Comment("Allows clients to keep cubes they received in a cache on disk. Such clients first get content hashes of cubes, "
+            + "and only cubes they don't have cached are sent in full.")
+    public static boolean allowClientCubeCache = false;
+
+    @Config.LangKey("cubicchunks.config.client_cube_cache")
+    @Config.Comment("Keeps cubes received from servers in the clientCache/cubeCache directory, so that they don't have to be downloaded again "
+            + "when they haven't changed. Only used on servers that allow it.")
+    public static boolean clientCubeCache = false;
+
+    @Config.LangKey("cubicchunks.config.client_cube_cache_max_size")
+    @Config.Comment("Maximum size of the clientCache/cubeCache directory, in megabytes. When the cache is closed and it's bigger than that, the "
+            + "least recently written region files are deleted.")
+    @Config.RangeInt(min = 0)
+    public static int clientCubeCacheMaxSize = 1024;
+
     @Config.LangKey("cubicchunks.config.vanilla_clients")
     @Config.Comment("Options relating to support for vanilla clients.")
     public static VanillaClients vanillaClients = new VanillaClients();
@@ -202,6 +271,12 @@ public class CubicChunksConfig {
     @Config.RequiresWorldRestart
     public static boolean useShadowPagingIO = true;
 
+    @Config.LangKey("cubicchunks.config.local_mob_caps")
+    @Config.Comment("Applies mob caps to the area around each player instead of the whole world, using entity counts kept per cube. "
+            + "This avoids counting all entities in the world every spawn cycle. Like the world mob cap, mobs that don't despawn "
+            + "are not counted.")
+    public static boolean localMobCaps = false;
+
     public static final class VanillaClients {
         @Config.LangKey("cubicchunks.config.vanilla_clients.horizontal_slices")
         @Config.Comment("Enables horizontal slices for vanilla clients. "
@@ -44,6 +44,7 @@ import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.util.math.BlockPos;
@@ -79,6 +80,14 @@ public interface ICubicWorldInternal extends ICubicWorld {
      */
     LightingManager getLightingManager();
 
+    /**
+     * Returns the {@link CubeChangeJournal} for this world, or throws {@link NotCubicChunksWorldException}
+     * if this is not a CubicChunks world.
+     *
+     * @return cube change journal for this world
+     */
+    CubeChangeJournal getCubeChangeJournal();
+
     @Override
     Cube getCubeFromCubeCoords(int cubeX, int cubeY, int cubeZ);
 
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.client;
 
 import io.github.opencubicchunks.cubicchunks.core.world.EntityContainer;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
@@ -131,7 +132,8 @@ public class MixinRenderGlobal {
         }
 
         ICube cube = ((IColumn) chunk).getCube(Coords.blockToCube(position.getY()));
-        if (cube instanceof BlankCube) {
+        // don't make cubes without entities allocate their entity map
+        if (cube instanceof BlankCube || (cube instanceof Cube && ((Cube) cube).getEntityContainer().size() == 0)) {
             return EntityContainer.EMPTY_ARR;
         }
 
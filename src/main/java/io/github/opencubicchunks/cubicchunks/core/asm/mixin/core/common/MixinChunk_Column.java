@@ -115,6 +115,18 @@ public abstract class MixinChunk_Column implements IColumn, IColumnInternal {
         stagingHeightMap.addStagedCube(cube);
     }
 
+    @Override
+    public void onCubeTickStateChanged() {
+        if (cubeMap != null) {
+            cubeMap.invalidateStoragesToTick();
+        }
+    }
+
+    @Override
+    public IHeightMap getStagingHeightMap() {
+        return stagingHeightMap;
+    }
+
     @Override
     public int getHeightWithStaging(int localX, int localZ) {
         if (!isColumn) {
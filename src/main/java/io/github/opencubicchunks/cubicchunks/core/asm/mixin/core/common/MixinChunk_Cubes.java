@@ -44,6 +44,7 @@ import io.github.opencubicchunks.cubicchunks.core.world.column.ColumnTileEntityM
 import io.github.opencubicchunks.cubicchunks.core.world.column.CubeMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
@@ -397,7 +398,9 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         if (!isColumn) {
             return;
         }
-        if (getCube(blockToCube(pos.getY())).isSurfaceTracked()) {
+        Cube cube = getCube(blockToCube(pos.getY()));
+        cube.getRandomTickIndex().onBlockSet(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()), state);
+        if (cube.isSurfaceTracked()) {
             opacityIndex.onOpacityChange(blockToLocal(pos.getX()), pos.getY(), blockToLocal(pos.getZ()), state.getLightOpacity(world, pos));
             getWorld().getLightingManager().sendHeightMapUpdate(pos);
         } else {
@@ -438,7 +441,9 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
     @Redirect(method = "setBlockState", at = @At(value = "FIELD", target = "Lnet/minecraft/world/chunk/Chunk;dirty:Z"))
     private void setIsModifiedFromSetBlockState_Field(Chunk chunk, boolean isModifiedIn, BlockPos pos, IBlockState state) {
         if (isColumn) {
-            getWorld().getCubeFromBlockCoords(pos).markDirty();
+            Cube cube = getWorld().getCubeFromBlockCoords(pos);
+            cube.markDirty();
+            cube.markChanged(CubeChangeJournal.Change.BLOCKS);
         } else {
             dirty = isModifiedIn;
         }
@@ -482,7 +487,9 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
     @Redirect(method = "setLightFor", at = @At(value = "FIELD", target = "Lnet/minecraft/world/chunk/Chunk;dirty:Z"))
     private void setIsModifiedFromSetLightFor_Field(Chunk chunk, boolean isModifiedIn, EnumSkyBlock type, BlockPos pos, int value) {
         if (isColumn) {
-            getWorld().getCubeFromBlockCoords(pos).markDirty();
+            Cube cube = getWorld().getCubeFromBlockCoords(pos);
+            cube.markDirty();
+            cube.markChanged(CubeChangeJournal.Change.LIGHT);
         } else {
             dirty = isModifiedIn;
         }
@@ -644,6 +651,17 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
     //              removeTileEntity
     // ==============================================
 
+    @Inject(method = "removeTileEntity", at = @At("HEAD"))
+    private void removeTileEntity_markCubeChanged(BlockPos pos, CallbackInfo cbi) {
+        if (!isColumn) {
+            return;
+        }
+        Cube cube = getWorld().getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
+        if (cube != null && cube.getTileEntityMap().containsKey(pos)) {
+            cube.markChanged(CubeChangeJournal.Change.TILE_ENTITIES);
+        }
+    }
+
     @Redirect(method = "removeTileEntity", at = @At(value = "FIELD", target = "Lnet/minecraft/world/chunk/Chunk;loaded:Z"))
     private boolean removeTileEntity_isChunkLoadedCubeRedirect(Chunk chunk, BlockPos pos) {
         if (!isColumn) {
@@ -710,10 +728,10 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
                 blockToCube(getWorld().getMaxHeight()));
 
         for (Cube cube : cubeMap.cubes(minY, maxY)) {
-            if (cube.getEntityContainer().getEntitySet().isEmpty()) {
+            if (cube.getEntityContainer().size() == 0) {
                 continue;
             }
-            for (Entity entity : cube.getEntityContainer().getEntitySet()) {
+            for (Entity entity : cube.getEntityContainer().getEntities()) {
                 if (!entity.getEntityBoundingBox().intersects(aabb) || entity == entityIn) {
                     continue;
                 }
@@ -757,7 +775,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
                 blockToCube(getWorld().getMaxHeight()));
 
         for (Cube cube : cubeMap.cubes(minY, maxY)) {
-            for (T t : cube.getEntityContainer().getEntitySet().getByClass(entityClass)) {
+            for (T t : cube.getEntityContainer().getByClass(entityClass)) {
                 if (t.getEntityBoundingBox().intersects(aabb) && (filter == null || filter.apply(t))) {
                     listToFill.add(t);
                 }
@@ -31,14 +31,17 @@ import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.IntRange;
 import io.github.opencubicchunks.cubicchunks.api.util.NotCubicChunksWorldException;
+import io.github.opencubicchunks.cubicchunks.api.world.IBlockEditSession;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldSettings;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.world.BlockEditSession;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
@@ -103,6 +106,7 @@ public abstract class MixinWorld implements ICubicWorldInternal {
     @Shadow protected abstract boolean isChunkLoaded(int i, int i1, boolean allowEmpty);
 
     @Nullable private LightingManager lightingManager;
+    @Nullable private CubeChangeJournal cubeChangeJournal;
     protected boolean isCubicWorld;
     protected int minHeight = 0, maxHeight = 256, fakedMaxHeight = 0;
     private int minGenerationHeight = 0, maxGenerationHeight = 256;
@@ -155,6 +159,7 @@ public abstract class MixinWorld implements ICubicWorldInternal {
 
         //has to be created early so that creating BlankCube won't crash
         this.lightingManager = new LightingManager((World) (Object) this);
+        this.cubeChangeJournal = new CubeChangeJournal((World) (Object) this);
     }
 
     @Override public boolean isCubicWorld() {
@@ -192,6 +197,21 @@ public abstract class MixinWorld implements ICubicWorldInternal {
         return this.lightingManager;
     }
 
+    @Override public CubeChangeJournal getCubeChangeJournal() {
+        if (!this.isCubicWorld()) {
+            throw new NotCubicChunksWorldException();
+        }
+        assert this.cubeChangeJournal != null;
+        return this.cubeChangeJournal;
+    }
+
+    @Override public IBlockEditSession startBlockEditSession() {
+        if (!this.isCubicWorld()) {
+            throw new NotCubicChunksWorldException();
+        }
+        return new BlockEditSession((World) (Object) this);
+    }
+
     @Override
     public boolean testForCubes(CubePos start, CubePos end, Predicate<? super ICube> cubeAllowed) {
         // convert block bounds to chunk bounds
@@ -295,6 +315,7 @@ public abstract class MixinWorld implements ICubicWorldInternal {
             Cube cube = this.getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
             if (cube != null) {
                 cube.markDirty();
+                cube.markChanged(CubeChangeJournal.Change.TILE_ENTITIES);
             }
             ci.cancel();
         }
@@ -41,17 +41,19 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.FirstLightProcessor;
-import io.github.opencubicchunks.cubicchunks.core.server.ChunkGc;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
 import io.github.opencubicchunks.cubicchunks.core.server.VanillaNetworkHandler;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.CubeWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.IWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.CubicChunkManager;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.RandomTickIndex;
 import io.github.opencubicchunks.cubicchunks.core.world.provider.ICubicWorldProvider;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -110,7 +112,6 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     private XYZMap<ICube> forcedCubes;
     private XZMap<IColumn> forcedColumns;
 
-    private ChunkGc worldChunkGc;
     private SpawnCubes spawnArea;
     private boolean runningCompatibilityGenerator;
     private VanillaNetworkHandler vanillaNetworkHandler;
@@ -149,7 +150,6 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 
         this.pendingTickListEntriesHashSet = new CubeSplitTickSet();
         this.pendingTickListEntriesThisTick = new CubeSplitTickList();
-        this.worldChunkGc = new ChunkGc(getCubeCache());
     }
 
     @Override public VanillaNetworkHandler getVanillaNetworkHandler() {
@@ -180,6 +180,9 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         if (this.spawnArea != null) {
             this.spawnArea.update((World) (Object) this);
         }
+        // the one flush point of the tick: after cubes, block changes and light updates have been queued, and before the
+        // entity tracker sends entity packets that may need them
+        PacketDispatcher.flushAll();
     }
 
     @Override public CubeProviderServer getCubeCache() {
@@ -229,7 +232,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     }
 
     @Override public void unloadOldCubes() {
-        worldChunkGc.chunkGc();
+        getCubeCache().getChunkGc().chunkGc();
     }
 
 
@@ -328,19 +331,26 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         this.profiler.startSection("tickBlocks");
         ExtendedBlockStorage ebs = cube.getStorage();
         if (ebs != Chunk.NULL_BLOCK_STORAGE && ebs.needsRandomTick()) {
+            RandomTickIndex index = ((Cube) cube).getRandomTickIndex();
+            index.ensureValid(ebs);
             for (int i = 0; i < tickSpeed; ++i) {
-                tickNextBlock(chunkBlockX, chunkBlockZ, ebs);
+                tickNextBlock(chunkBlockX, chunkBlockZ, ebs, index);
             }
         }
         this.profiler.endSection();
     }
 
-    private void tickNextBlock(int chunkBlockX, int chunkBlockZ, ExtendedBlockStorage ebs) {
+    // Draws the same 12 random bits vanilla uses as x/z/y, but as an index into the list of ticking blocks instead of as a position.
+    // A position is hit with probability 1/4096 either way, but misses don't need a block state lookup.
+    private void tickNextBlock(int chunkBlockX, int chunkBlockZ, ExtendedBlockStorage ebs, RandomTickIndex index) {
         this.updateLCG = this.updateLCG * 3 + 1013904223;
-        int rand = this.updateLCG >> 2;
-        int localX = rand & 15;
-        int localZ = rand >> 8 & 15;
-        int localY = rand >> 16 & 15;
+        int localAddress = index.pick(this.updateLCG >> 2);
+        if (localAddress < 0) {
+            return;
+        }
+        int localX = AddressTools.getLocalX(localAddress);
+        int localY = AddressTools.getLocalY(localAddress);
+        int localZ = AddressTools.getLocalZ(localAddress);
         IBlockState state = ebs.get(localX, localY, localZ);
         Block block = state.getBlock();
         this.profiler.startSection("randomTick");
@@ -424,7 +434,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         }
         AxisAlignedBB aabb = (new AxisAlignedBB(strikeTarget)).grow(3.0D);
 
-        Iterable<EntityLivingBase> setOfLiving = cube.getEntityContainer().getEntitySet().getByClass(EntityLivingBase.class);
+        Iterable<EntityLivingBase> setOfLiving = cube.getEntityContainer().getByClass(EntityLivingBase.class);
         for (EntityLivingBase entity : setOfLiving) {
             if (!entity.isEntityAlive()) {
                 continue;
@@ -30,10 +30,8 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.api.world.IMinMaxHeight;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import net.minecraft.entity.Entity;
-import net.minecraft.tileentity.TileEntity;
-import net.minecraft.util.ClassInheritanceMultiMap;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
@@ -46,8 +44,7 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.Collection;
 
 @Pseudo
 @Mixin(targets = "net.optifine.render.ChunkVisibility")
@@ -139,21 +136,15 @@ public class MixinChunkVisibility {
                         // it's sorted, in reverse, so can break when the first one is found
                         break;
                     }
-                    ClassInheritanceMultiMap<Entity> cimm = cube.getEntitySet();
-                    if (!cimm.isEmpty() && (chunk != playerChunk || cimm.size() != 1)) {
+                    // read-only view, getEntitySet() would allocate the entity map of every empty cube
+                    Collection<Entity> entities = cube instanceof Cube ? ((Cube) cube).getEntityContainer().getEntities() : cube.getEntitySet();
+                    if (!entities.isEmpty() && (chunk != playerChunk || entities.size() != 1)) {
                         iMax = Math.max(iMax, cube.getY());
                         break;
                     }
-                    Map<BlockPos, TileEntity> mapTileEntities = cube.getTileEntityMap();
-                    if (!mapTileEntities.isEmpty()) {
-                        Set<BlockPos> keys = mapTileEntities.keySet();
-
-                        for (BlockPos pos : keys) {
-                            int i = pos.getY() >> 4;
-                            if (i > iMax) {
-                                iMax = i;
-                            }
-                        }
+                    // all tile entities of a cube are in that cube, no need to look at each of them
+                    if (!cube.getTileEntityMap().isEmpty()) {
+                        iMax = Math.max(iMax, cube.getY());
                     }
                 }
             }
@@ -28,9 +28,11 @@ import io.github.opencubicchunks.cubicchunks.api.world.CubeEvent;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.client.IChunkProviderClient;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.core.network.ClientCubeCache;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -53,7 +55,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nonnull private ICubicWorldInternal.Client world;
     @Nonnull private Cube blankCube;
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private ConcurrentXYZMap<Cube> cubeMap = new ConcurrentXYZMap<>(0.7f, 8000);
 
     public CubeProviderClient(ICubicWorldInternal.Client world) {
         super((World) world);
@@ -149,11 +151,32 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         if (cube == null) {
             return;
         }
+        ClientCubeCache.cacheCube(cube);
         cube.onUnload();
         cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
         cube.getColumn().removeCube(pos.getY());
     }
 
+    @Override
+    public void unloadChunk(int x, int z) {
+        Chunk column = getLoadedChunk(x, z);
+        if (column != null) {
+            for (ICube cube : ((IColumn) column).getLoadedCubes()) {
+                ClientCubeCache.cacheCube((Cube) cube);
+            }
+        }
+        super.unloadChunk(x, z);
+    }
+
+    /**
+     * Saves all loaded cubes to {@link ClientCubeCache}, used when the world is unloaded.
+     */
+    public void cacheLoadedCubes() {
+        for (Cube cube : cubeMap) {
+            ClientCubeCache.cacheCube(cube);
+        }
+    }
+
     @Override
     public Cube getCube(int cubeX, int cubeY, int cubeZ) {
         Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
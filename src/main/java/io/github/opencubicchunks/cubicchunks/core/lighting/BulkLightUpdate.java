@@ -0,0 +1,140 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.TIntSet;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortIterator;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects light updates for many block changes and applies them with one light propagation per cube and light type,
+ * instead of one per changed block.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class BulkLightUpdate {
+
+    private final LightingManager lightingManager;
+    private final Reference2ObjectOpenHashMap<Cube, CubeUpdate> cubes = new Reference2ObjectOpenHashMap<>();
+
+    public BulkLightUpdate(LightingManager lightingManager) {
+        this.lightingManager = lightingManager;
+    }
+
+    private CubeUpdate getUpdate(Cube cube) {
+        CubeUpdate update = cubes.get(cube);
+        if (update == null) {
+            update = new CubeUpdate();
+            cubes.put(cube, update);
+        }
+        return update;
+    }
+
+    /**
+     * Queues both light types to be updated at a changed block.
+     *
+     * @param cube the cube containing the block
+     * @param localAddress local address of the block within the cube, see {@link AddressTools#getLocalAddress(int, int, int)}
+     */
+    public void onBlockChanged(Cube cube, int localAddress) {
+        CubeUpdate update = getUpdate(cube);
+        update.blockLight.add((short) localAddress);
+        update.skyLight.add((short) localAddress);
+    }
+
+    /**
+     * Queues sky light to be updated after the height of a block column changed. Must be called after the column
+     * heightmap has been updated.
+     *
+     * @param column the column
+     * @param localX local x coordinate of the block column
+     * @param localZ local z coordinate of the block column
+     * @param minBlockY lowest block y that may need sky light update
+     * @param maxBlockY highest block y that may need sky light update
+     */
+    public void onHeightChanged(Chunk column, int localX, int localZ, int minBlockY, int maxBlockY) {
+        TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minBlockY, maxBlockY);
+        TIntIterator it = toDiffuse.iterator();
+        while (it.hasNext()) {
+            Cube cube = (Cube) ((IColumn) column).getLoadedCube(it.next());
+            if (cube == null) {
+                continue;
+            }
+            int minY = MathHelper.clamp(minBlockY, cube.getCoords().getMinBlockY(), cube.getCoords().getMaxBlockY());
+            int maxY = MathHelper.clamp(maxBlockY, cube.getCoords().getMinBlockY(), cube.getCoords().getMaxBlockY());
+            ShortOpenHashSet skyLight = getUpdate(cube).skyLight;
+            for (int y = minY; y <= maxY; y++) {
+                skyLight.add((short) AddressTools.getLocalAddress(localX, y & 15, localZ));
+            }
+        }
+    }
+
+    /**
+     * Runs all queued light updates. Cubes that were unloaded or haven't had their initial lighting done yet are
+     * skipped, they will be lit from scratch anyway.
+     */
+    public void apply() {
+        for (Reference2ObjectMap.Entry<Cube, CubeUpdate> entry : cubes.reference2ObjectEntrySet()) {
+            Cube cube = entry.getKey();
+            if (!cube.isCubeLoaded() || !cube.isInitialLightingDone()) {
+                continue;
+            }
+            lightingManager.relightCube(cube, toBlockPositions(cube, entry.getValue().skyLight), EnumSkyBlock.SKY);
+            lightingManager.relightCube(cube, toBlockPositions(cube, entry.getValue().blockLight), EnumSkyBlock.BLOCK);
+        }
+        cubes.clear();
+    }
+
+    private static List<BlockPos> toBlockPositions(Cube cube, ShortOpenHashSet localAddresses) {
+        List<BlockPos> positions = new ArrayList<>(localAddresses.size());
+        ShortIterator it = localAddresses.iterator();
+        while (it.hasNext()) {
+            positions.add(cube.localAddressToBlockPos(it.nextShort()));
+        }
+        return positions;
+    }
+
+    private static final class CubeUpdate {
+
+        final ShortOpenHashSet blockLight = new ShortOpenHashSet();
+        final ShortOpenHashSet skyLight = new ShortOpenHashSet();
+    }
+}
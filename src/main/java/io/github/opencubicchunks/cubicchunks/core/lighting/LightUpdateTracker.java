@@ -26,23 +26,30 @@ package io.github.opencubicchunks.cubicchunks.core.lighting;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.math.BlockPos;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
- * Tracks FirstLightProcessor lighting updates and sends them to client
+ * Tracks FirstLightProcessor lighting updates and sends them to client. All updates sent to a player in one tick are sent in one
+ * packet.
  */
 class LightUpdateTracker {
 
+    // large batches are split to avoid huge packets
+    private static final int MAX_PACKET_SIZE = 1 << 20;
+
     private final PlayerCubeMap cubeMap;
     private XYZMap<CubeUpdateList> cubes = new XYZMap<>(0.5f, 100);
 
@@ -64,39 +71,42 @@ class LightUpdateTracker {
     }
 
     void sendAll() {
-        cubes.forEach(CubeUpdateList::send);
+        Map<EntityPlayerMP, PacketCubeSkyLightUpdates> packets = new HashMap<>();
+        cubes.forEach(list -> list.send(packets));
+        packets.forEach((player, packet) -> PacketDispatcher.sendBatched(packet, player));
         cubes = new XYZMap<>(0.5f, 100);
     }
 
     private class CubeUpdateList implements XYZAddressable {
 
-        private static final int MAX_COUNT = 64;
         private final CubePos pos;
-        private final TShortList updates = new TShortArrayList(MAX_COUNT);
+        // bitset of changed local addresses
+        private final long[] changed = new long[Cube.SIZE * Cube.SIZE * Cube.SIZE / Long.SIZE];
 
         CubeUpdateList(CubePos pos) {
             this.pos = pos;
         }
 
         void add(BlockPos pos) {
-            if (updates.size() >= MAX_COUNT) {
-                return;
-            }
-            updates.add((short) AddressTools.getLocalAddress(pos));
+            int localAddress = AddressTools.getLocalAddress(pos);
+            changed[localAddress >>> 6] |= 1L << localAddress;
         }
 
-        void send() {
+        void send(Map<EntityPlayerMP, PacketCubeSkyLightUpdates> packets) {
             CubeWatcher watcher = cubeMap.getCubeWatcher(this.pos);
             if (watcher != null && watcher.isSentToPlayers()) {
                 Cube cube = watcher.getCube();
                 assert cube != null;
-                if (updates.size() >= MAX_COUNT) {
-                    watcher.sendPacketToAllPlayers(new PacketCubeSkyLightUpdates(cube));
-                } else {
-                    watcher.sendPacketToAllPlayers(new PacketCubeSkyLightUpdates(cube, this.updates));
-                }
+                PacketCubeSkyLightUpdates.CubeUpdates updates = PacketCubeSkyLightUpdates.encode(cube, changed);
+                watcher.forEachPlayer(player -> {
+                    PacketCubeSkyLightUpdates packet = packets.computeIfAbsent(player, p -> new PacketCubeSkyLightUpdates());
+                    if (packet.getSize() >= MAX_PACKET_SIZE) {
+                        PacketDispatcher.sendBatched(packet, player);
+                        packets.put(player, packet = new PacketCubeSkyLightUpdates());
+                    }
+                    packet.add(updates);
+                });
             }
-            updates.clear();
         }
 
         @Override public int getX() {
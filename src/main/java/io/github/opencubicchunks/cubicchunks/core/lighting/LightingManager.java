@@ -50,6 +50,7 @@ import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -200,7 +201,7 @@ public class LightingManager implements ILightingManager {
 
     //TODO: make it private
     @Override public void markCubeBlockColumnForUpdate(ICube cube, int blockX, int blockZ) {
-        CubeLightUpdateInfo data = ((Cube) cube).getCubeLightUpdateInfo();
+        CubeLightUpdateInfo data = ((Cube) cube).getOrCreateCubeLightUpdateInfo();
         if (data != null) {
             data.markBlockColumnForUpdate(Coords.blockToLocal(blockX), Coords.blockToLocal(blockZ));
         }
@@ -254,6 +255,34 @@ public class LightingManager implements ILightingManager {
         return true;
     }
 
+    /**
+     * Updates light at the given positions in a single propagation pass. All positions must be within the given cube.
+     *
+     * @param cube the cube containing all the positions
+     * @param positions positions to update
+     * @param type the light type to update
+     */
+    void relightCube(ICube cube, Collection<BlockPos> positions, EnumSkyBlock type) {
+        if (positions.isEmpty()) {
+            return;
+        }
+        if (type == EnumSkyBlock.SKY && (NO_SUNLIGHT_PROPAGATION || !world.provider.hasSkyLight())) {
+            return;
+        }
+        final int LOAD_RADIUS = 17;
+        CubePos cubePos = cube.getCoords();
+        ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion((ICubeProviderInternal) world.getChunkProvider(),
+                cubePos.getMinBlockPos().add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS),
+                cubePos.getMaxBlockPos().add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS));
+        LightUpdateTracker tracker = getTracker();
+        lightPropagator.propagateLight(cubePos.getCenterBlockPos(), positions, blocks, type, (updated) -> {
+            world.notifyLightSet(updated);
+            if (tracker != null) {
+                tracker.onUpdate(updated);
+            }
+        });
+    }
+
     public void sendHeightMapUpdate(BlockPos pos) {
         int size = heightUpdateListeners.size();
         for (int i = 0; i < size; i++) {
@@ -0,0 +1,334 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cubes received from a server, saved on disk when the client unloads them. When the server sends {@link PacketCubeHashes}, cubes
+ * that are cached with the same content hash are loaded from here instead of being downloaded again.
+ * <p>
+ * Each server has its own directory in clientCache/cubeCache, with a region save for each dimension. An entry is the content hash from
+ * {@link WorldEncoder#hashCube(WorldEncoder.EncodedCube)} followed by data from
+ * {@link WorldEncoder#encodeCubeForCache(WorldEncoder.EncodedCube)}. Entries can be read and written from any thread, the region
+ * files are only accessed outside of the lock that guards opening and closing the cache.
+ * <p>
+ * The cache is opened when joining a server that allows it, and closed when the client world is unloaded. Once closed, the
+ * least recently written region files are deleted until the whole cache fits in {@link CubicChunksConfig#clientCubeCacheMaxSize}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class ClientCubeCache {
+
+    private static final Path ROOT = Paths.get(".").toAbsolutePath().resolve("clientCache").resolve("cubeCache");
+
+    private static final Object lock = new Object();
+    @Nullable private static volatile Path directory;
+    private static volatile boolean closing;
+    // guarded by lock
+    private static final Int2ObjectMap<SaveCubeColumns> saves = new Int2ObjectOpenHashMap<>();
+    // saves, loads and closing of region files still in progress on the decoding threads, guarded by lock. Region files are closed
+    // only once there are none, so that cubes cached on world unload are kept
+    private static int pendingOperations;
+
+    private ClientCubeCache() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Starts using the cache for the given server. Does nothing if it's already used for that server. If it was used for a different
+     * server, waits until cubes of that server are written.
+     */
+    static void open(String serverName) {
+        Path path = ROOT.resolve(serverName.replaceAll("[^a-zA-Z0-9._-]", "_"));
+        synchronized (lock) {
+            if (path.equals(directory)) {
+                closing = false;
+                return;
+            }
+            if (directory != null) {
+                closing = true;
+                if (pendingOperations == 0) {
+                    closeNow();
+                }
+            }
+            while (pendingOperations > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            directory = path;
+            closing = false;
+        }
+    }
+
+    /**
+     * Stops caching cubes. Region files are closed once cubes that are already being written are saved, cubes unloaded after
+     * this aren't cached until the cache is opened again.
+     */
+    public static void close() {
+        synchronized (lock) {
+            if (directory == null) {
+                return;
+            }
+            closing = true;
+            if (pendingOperations == 0) {
+                closeNow();
+            }
+        }
+    }
+
+    /**
+     * Closes the region files and evicts old ones on the decoding threads. Must be called with the lock held.
+     */
+    private static void closeNow() {
+        assert Thread.holdsLock(lock);
+        SaveCubeColumns[] toClose = saves.values().toArray(new SaveCubeColumns[0]);
+        saves.clear();
+        directory = null;
+        closing = false;
+        pendingOperations++;
+        CubePacketDecoder.execute(() -> {
+            try {
+                for (SaveCubeColumns save : toClose) {
+                    try {
+                        save.close();
+                    } catch (IOException e) {
+                        CubicChunks.LOGGER.error("Error closing client cube cache", e);
+                    }
+                }
+                evictOldRegions();
+            } finally {
+                release();
+            }
+        });
+    }
+
+    public static boolean isOpen() {
+        return directory != null && !closing;
+    }
+
+    /**
+     * Saves the current state of a cube. Must be called from the client thread, the cube is encoded and written on the decoding
+     * threads, so it must not be modified after this. That's the case for cubes that are being unloaded.
+     */
+    public static void cacheCube(Cube cube) {
+        if (!isOpen()) {
+            return;
+        }
+        Path dir = acquire();
+        if (dir == null) {
+            return;
+        }
+        int dimension = cube.getWorld().provider.getDimension();
+        CubePacketDecoder.execute(() -> save(dir, dimension, cube));
+    }
+
+    /**
+     * Returns cached data of the cube if the cache has it with the given content hash.
+     */
+    @Nullable
+    static byte[] load(int dimension, CubePos pos, long hash) {
+        Path dir = acquire();
+        if (dir == null) {
+            return null;
+        }
+        try {
+            SaveCubeColumns save = getSave(dir, dimension);
+            if (save == null) {
+                return null;
+            }
+            Optional<ByteBuffer> entry = save.load(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), true);
+            if (!entry.isPresent()) {
+                return null;
+            }
+            ByteBuffer buf = entry.get();
+            if (buf.remaining() < Long.BYTES || buf.getLong() != hash) {
+                return null;
+            }
+            byte[] data = new byte[buf.remaining()];
+            buf.get(data);
+            return data;
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Error loading cube " + pos + " from client cube cache", e);
+            return null;
+        } finally {
+            release();
+        }
+    }
+
+    private static void save(Path dir, int dimension, Cube cube) {
+        CubePos pos = cube.getCoords();
+        try {
+            SaveCubeColumns save = getSave(dir, dimension);
+            if (save == null) {
+                return;
+            }
+            WorldEncoder.EncodedCube encoded = WorldEncoder.encodeCube(cube, CubeDataFormat.COMPACT);
+            long hash = WorldEncoder.hashCube(encoded);
+            byte[] data = WorldEncoder.encodeCubeForCache(encoded);
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES + data.length);
+            buf.putLong(hash);
+            buf.put(data);
+            buf.flip();
+            save.save3d(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), buf);
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Error saving cube " + pos + " to client cube cache", e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Registers an operation on the region files, which keeps them open until {@link #release()} is called.
+     *
+     * @return the directory of the cache, or null if it's not open
+     */
+    @Nullable
+    private static Path acquire() {
+        synchronized (lock) {
+            if (!isOpen()) {
+                return null;
+            }
+            pendingOperations++;
+            return directory;
+        }
+    }
+
+    private static void release() {
+        synchronized (lock) {
+            pendingOperations--;
+            if (pendingOperations == 0) {
+                if (closing) {
+                    closeNow();
+                } else {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private static SaveCubeColumns getSave(Path dir, int dimension) {
+        synchronized (lock) {
+            // acquire() keeps the directory from changing until the operation is done
+            assert dir.equals(directory);
+            SaveCubeColumns save = saves.get(dimension);
+            if (save == null) {
+                try {
+                    save = SaveCubeColumns.create(dir.resolve("DIM" + dimension));
+                } catch (IOException e) {
+                    CubicChunks.LOGGER.error("Error opening client cube cache, disabling it", e);
+                    close();
+                    return null;
+                }
+                saves.put(dimension, save);
+            }
+            return save;
+        }
+    }
+
+    /**
+     * Deletes the least recently written files in the cache, until it's no bigger than the configured maximum size. Must only be
+     * called when no region files are open. Only files in dimension directories of servers are counted and deleted.
+     */
+    private static void evictOldRegions() {
+        long maxSize = CubicChunksConfig.clientCubeCacheMaxSize * 1024L * 1024L;
+        if (!Files.isDirectory(ROOT)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(ROOT)) {
+            files = stream.filter(Files::isRegularFile).filter(ClientCubeCache::isCacheFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            CubicChunks.LOGGER.error("Error listing client cube cache files", e);
+            return;
+        }
+        Object2LongMap<Path> sizes = new Object2LongOpenHashMap<>();
+        Object2LongMap<Path> lastModified = new Object2LongOpenHashMap<>();
+        long totalSize = 0;
+        for (Path file : files) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                sizes.put(file, attributes.size());
+                lastModified.put(file, attributes.lastModifiedTime().toMillis());
+                totalSize += attributes.size();
+            } catch (IOException e) {
+                CubicChunks.LOGGER.error("Error reading client cube cache file " + file, e);
+            }
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        files.removeIf(file -> !sizes.containsKey(file));
+        files.sort(Comparator.comparingLong(lastModified::getLong));
+        for (Path file : files) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            try {
+                Files.delete(file);
+                totalSize -= sizes.getLong(file);
+            } catch (IOException e) {
+                CubicChunks.LOGGER.error("Error deleting client cube cache file " + file, e);
+            }
+        }
+    }
+
+    // <server>/DIM<dimension>/<region save files>
+    private static boolean isCacheFile(Path file) {
+        Path relative = ROOT.relativize(file);
+        return relative.getNameCount() > 2 && relative.getName(1).toString().startsWith("DIM");
+    }
+}
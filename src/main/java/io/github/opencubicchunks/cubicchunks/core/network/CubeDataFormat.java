@@ -0,0 +1,100 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube data formats used by {@link PacketCubes}, and the format negotiated with each player.
+ * <p>
+ * The server offers a format in {@link PacketCubicWorldData}, the client answers with {@link PacketCubeDataFormat}.
+ * Until the answer arrives, {@link #RAW} is used. Each {@link PacketCubes} also carries the format it was encoded with.
+ * <p>
+ * The same packets negotiate whether the client uses {@link ClientCubeCache}. Such players get {@link PacketCubeHashes} instead of
+ * {@link PacketCubes}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class CubeDataFormat {
+
+    /**
+     * Raw block, light, heightmap and biome data for each cube
+     */
+    public static final int RAW = 0;
+    /**
+     * Like {@link #RAW}, but uniform block and light data is sent as a single value, heightmaps are sent once per column and the
+     * payload can be deflated
+     */
+    public static final int COMPACT = 1;
+
+    public static final int LATEST = COMPACT;
+
+    private static final Map<UUID, Integer> playerFormats = new HashMap<>();
+    private static final Set<UUID> cubeCachePlayers = new HashSet<>();
+
+    private CubeDataFormat() {
+        throw new Error();
+    }
+
+    static int getOfferedFormat() {
+        return CubicChunksConfig.compactCubePackets ? LATEST : RAW;
+    }
+
+    static void setFormat(EntityPlayerMP player, int format) {
+        playerFormats.put(player.getUniqueID(), Math.max(RAW, Math.min(format, getOfferedFormat())));
+    }
+
+    public static int getFormat(EntityPlayerMP player) {
+        return playerFormats.getOrDefault(player.getUniqueID(), RAW);
+    }
+
+    static void setUsesCubeCache(EntityPlayerMP player, boolean useCache) {
+        // there is nothing to save for players on the integrated server
+        if (useCache && CubicChunksConfig.allowClientCubeCache && !player.connection.getNetworkManager().isLocalChannel()) {
+            cubeCachePlayers.add(player.getUniqueID());
+        } else {
+            cubeCachePlayers.remove(player.getUniqueID());
+        }
+    }
+
+    public static boolean usesCubeCache(EntityPlayerMP player) {
+        return cubeCachePlayers.contains(player.getUniqueID());
+    }
+
+    public static void removePlayer(EntityPlayerMP player) {
+        playerFormats.remove(player.getUniqueID());
+        cubeCachePlayers.remove(player.getUniqueID());
+    }
+}
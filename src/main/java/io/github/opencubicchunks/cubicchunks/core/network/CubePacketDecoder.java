@@ -0,0 +1,108 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decodes received {@link PacketCubes} on worker threads, as soon as they are read from the network. By the time the client thread
+ * handles the packet, block data, light, ref counts and heightmaps are usually ready and only have to be put into the cubes.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubePacketDecoder {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    @Nullable private static Executor executor;
+
+    private CubePacketDecoder() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Starts decoding cube data. Can be called from any thread.
+     *
+     * @return future for the decoded cubes, or null if decoding threads are disabled and the data should be decoded on the client thread
+     */
+    @Nullable
+    static CompletableFuture<WorldEncoder.DecodedCubes> decode(CubePos[] cubePos, int format, byte[] data, boolean hasSkyLight) {
+        return submit(() -> WorldEncoder.decodeCubes(cubePos, format, data, hasSkyLight));
+    }
+
+    /**
+     * Runs a task on the decoding threads, used for other work that shouldn't be done on the client or network thread.
+     *
+     * @return future for the result, or null if decoding threads are disabled
+     */
+    @Nullable
+    static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        Executor executor = getExecutor();
+        if (executor == null) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Runs a task on the decoding threads, or on the current thread if decoding threads are disabled.
+     */
+    static void execute(Runnable task) {
+        Executor executor = getExecutor();
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    @Nullable
+    private static synchronized Executor getExecutor() {
+        int threads = CubicChunksConfig.cubePacketDecodingThreads;
+        if (executor == null && threads > 0) {
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "Cube Packet Decoder #" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+        }
+        return executor;
+    }
+}
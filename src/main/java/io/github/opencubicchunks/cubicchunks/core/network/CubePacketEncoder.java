@@ -0,0 +1,253 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Creates {@link PacketCubes} for all players that get cubes sent in one tick. Each cube is encoded only once, no matter how many
+ * players it's sent to, and the encoding is done on worker threads. Players that get exactly the same cubes in the same format share
+ * one packet, so the payload is also compressed only once.
+ * <p>
+ * Encoded cubes are kept for {@link #RETENTION_TICKS} ticks after they were last sent, and reused for as long as
+ * {@link Cube#getVersion()} doesn't change.
+ * <p>
+ * The worker threads read the cubes while the packets are being encoded, so the world must not be modified until all packets
+ * returned by {@link #encode(List, int)} are done. {@link #clear()} must be called before the cubes are modified again.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class CubePacketEncoder {
+
+    private static final int RETENTION_TICKS = 20;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    @Nullable private static Executor executor;
+
+    private final Map<Cube, CubeEntry> cubes = new HashMap<>();
+    // tile entities aren't covered by cube versions, so their tags are only reused within a tick
+    private final Map<Cube, List<NBTTagCompound>> tileEntityTags = new HashMap<>();
+    private final Map<PacketKey, CompletableFuture<PacketCubes>> packets = new HashMap<>();
+    private int tick;
+
+    /**
+     * Starts encoding the cubes into a packet. Must be called from the server thread.
+     *
+     * @param cubes the cubes to send, this list is sorted in place
+     * @param format the {@link CubeDataFormat} to use
+     * @return future for the packet
+     */
+    public CompletableFuture<PacketCubes> encode(List<Cube> cubes, int format) {
+        PacketCubes.sortCubes(cubes);
+        return packets.computeIfAbsent(new PacketKey(cubes, format), key -> encodePacket(key.cubes, format));
+    }
+
+    private CompletableFuture<PacketCubes> encodePacket(List<Cube> cubes, int format) {
+        Executor executor = getExecutor();
+        CubePos[] cubePos = new CubePos[cubes.size()];
+        List<List<NBTTagCompound>> tileEntityTags = new ArrayList<>(cubes.size());
+        List<CompletableFuture<WorldEncoder.EncodedCube>> encodedCubes = new ArrayList<>(cubes.size());
+        for (int i = 0; i < cubes.size(); i++) {
+            Cube cube = cubes.get(i);
+            // tile entities can't be accessed from other threads, so only the block data is encoded asynchronously
+            cubePos[i] = cube.getCoords();
+            tileEntityTags.add(getTileEntityTags(cube));
+            encodedCubes.add(getEntry(cube).getEncoded(cube, format, executor));
+        }
+        int compressionLevel = CubicChunksConfig.cubePacketCompressionLevel;
+        boolean hasSkyLight = cubes.isEmpty() || cubes.get(0).getWorld().provider.hasSkyLight();
+        return CompletableFuture.allOf(encodedCubes.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+            List<WorldEncoder.EncodedCube> encoded = new ArrayList<>(encodedCubes.size());
+            encodedCubes.forEach(f -> encoded.add(f.join()));
+            return new PacketCubes(cubePos, format, hasSkyLight, WorldEncoder.encodeCubes(encoded, format, compressionLevel), tileEntityTags);
+        }, executor);
+    }
+
+    /**
+     * Starts creating a {@link PacketCubeHashes} for the cubes, for players that use {@link ClientCubeCache}. Must be called from the
+     * server thread.
+     *
+     * @param cubes the cubes to send, this list is sorted in place
+     * @return future for the packet
+     */
+    public CompletableFuture<PacketCubeHashes> encodeHashes(List<Cube> cubes) {
+        Executor executor = getExecutor();
+        PacketCubes.sortCubes(cubes);
+
+        CubePos[] cubePos = new CubePos[cubes.size()];
+        List<List<NBTTagCompound>> tileEntityTags = new ArrayList<>(cubes.size());
+        List<CompletableFuture<WorldEncoder.EncodedCube>> encodedCubes = new ArrayList<>(cubes.size());
+        List<CompletableFuture<Long>> hashes = new ArrayList<>(cubes.size());
+        for (int i = 0; i < cubes.size(); i++) {
+            Cube cube = cubes.get(i);
+            CubeEntry entry = getEntry(cube);
+            cubePos[i] = cube.getCoords();
+            tileEntityTags.add(getTileEntityTags(cube));
+            encodedCubes.add(entry.getEncoded(cube, CubeDataFormat.COMPACT, executor));
+            hashes.add(entry.getHash(cube, executor));
+        }
+        int dimension = cubes.isEmpty() ? 0 : cubes.get(0).getWorld().provider.getDimension();
+        boolean hasSkyLight = cubes.isEmpty() || cubes.get(0).getWorld().provider.hasSkyLight();
+        return CompletableFuture.allOf(hashes.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+            List<WorldEncoder.EncodedCube> encoded = new ArrayList<>(encodedCubes.size());
+            encodedCubes.forEach(f -> encoded.add(f.join()));
+            long[] hashArray = hashes.stream().mapToLong(CompletableFuture::join).toArray();
+            return new PacketCubeHashes(dimension, cubePos, hashArray, hasSkyLight, WorldEncoder.encodeHeightMaps(encoded), tileEntityTags);
+        }, executor);
+    }
+
+    /**
+     * Ends the tick. Packets and tile entity data are created again after this, encoded cubes are reused until they change, are unloaded
+     * or haven't been sent for {@link #RETENTION_TICKS} ticks.
+     */
+    public void clear() {
+        this.packets.clear();
+        this.tileEntityTags.clear();
+        this.tick++;
+        this.cubes.entrySet().removeIf(e -> this.tick - e.getValue().lastUsedTick > RETENTION_TICKS || !e.getKey().isCubeLoaded()
+                || e.getValue().version != e.getKey().getVersion() || e.getValue().isFailed());
+    }
+
+    private CubeEntry getEntry(Cube cube) {
+        CubeEntry entry = this.cubes.get(cube);
+        long version = cube.getVersion();
+        if (entry == null || entry.version != version) {
+            entry = new CubeEntry(version);
+            this.cubes.put(cube, entry);
+        }
+        entry.lastUsedTick = this.tick;
+        return entry;
+    }
+
+    private List<NBTTagCompound> getTileEntityTags(Cube cube) {
+        return this.tileEntityTags.computeIfAbsent(cube, PacketCubes::getTileEntityTags);
+    }
+
+    private static Executor getExecutor() {
+        if (executor == null) {
+            int threads = CubicChunksConfig.cubePacketEncodingThreads;
+            if (threads <= 0) {
+                executor = Runnable::run;
+            } else {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            Thread thread = new Thread(r, "Cube Packet Encoder #" + threadCounter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                );
+                // don't keep idle threads around when no cubes are being sent
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
+            }
+        }
+        return executor;
+    }
+
+    private static final class CubeEntry {
+
+        private final long version;
+        private int lastUsedTick;
+        @SuppressWarnings("unchecked")
+        private final CompletableFuture<WorldEncoder.EncodedCube>[] encoded = new CompletableFuture[CubeDataFormat.LATEST + 1];
+        @Nullable private CompletableFuture<Long> hash;
+
+        CubeEntry(long version) {
+            this.version = version;
+        }
+
+        CompletableFuture<WorldEncoder.EncodedCube> getEncoded(Cube cube, int format, Executor executor) {
+            if (encoded[format] == null) {
+                encoded[format] = CompletableFuture.supplyAsync(() -> WorldEncoder.encodeCube(cube, format), executor);
+            }
+            return encoded[format];
+        }
+
+        boolean isFailed() {
+            for (CompletableFuture<WorldEncoder.EncodedCube> future : encoded) {
+                if (future != null && future.isCompletedExceptionally()) {
+                    return true;
+                }
+            }
+            return hash != null && hash.isCompletedExceptionally();
+        }
+
+        CompletableFuture<Long> getHash(Cube cube, Executor executor) {
+            if (hash == null) {
+                hash = getEncoded(cube, CubeDataFormat.COMPACT, executor).thenApplyAsync(WorldEncoder::hashCube, executor);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * The cubes and format of a {@link PacketCubes}. Cubes are compared by identity, and the list must be sorted with
+     * {@link PacketCubes#sortCubes(List)}.
+     */
+    private static final class PacketKey {
+
+        private final List<Cube> cubes;
+        private final int format;
+
+        PacketKey(List<Cube> cubes, int format) {
+            this.cubes = cubes;
+            this.format = format;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PacketKey other = (PacketKey) o;
+            return format == other.format && cubes.equals(other.cubes);
+        }
+
+        @Override public int hashCode() {
+            return 31 * cubes.hashCode() + format;
+        }
+    }
+}
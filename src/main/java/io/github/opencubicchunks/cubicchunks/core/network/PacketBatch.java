@@ -0,0 +1,99 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Multiple cubic chunks messages sent as one, see {@link PacketDispatcher#sendBatched(IMessage, EntityPlayerMP)}.
+ * The messages are handled in the order they were queued.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketBatch implements IMessage {
+
+    private List<IMessage> messages;
+
+    public PacketBatch() {
+    }
+
+    PacketBatch(List<IMessage> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        int count = ByteBufUtils.readVarInt(buf, 5);
+        this.messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            IMessage message = PacketDispatcher.createMessage(buf.readUnsignedByte());
+            int length = ByteBufUtils.readVarInt(buf, 5);
+            message.fromBytes(buf.readSlice(length));
+            this.messages.add(message);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        ByteBufUtils.writeVarInt(buf, messages.size(), 5);
+        ByteBuf messageBuf = Unpooled.buffer();
+        for (IMessage message : messages) {
+            messageBuf.clear();
+            message.toBytes(messageBuf);
+            buf.writeByte(PacketDispatcher.getMessageId(message));
+            ByteBufUtils.writeVarInt(buf, messageBuf.readableBytes(), 5);
+            buf.writeBytes(messageBuf);
+        }
+        messageBuf.release();
+    }
+
+    List<IMessage> getMessages() {
+        return messages;
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketBatch> {
+
+        @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketBatch message, MessageContext ctx) {
+            // already on the client thread, so each message is handled immediately
+            for (IMessage msg : message.getMessages()) {
+                PacketDispatcher.handleMessage(msg, ctx);
+            }
+        }
+    }
+}
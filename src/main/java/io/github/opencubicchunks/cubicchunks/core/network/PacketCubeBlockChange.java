@@ -30,6 +30,7 @@ import static net.minecraftforge.fml.common.network.ByteBufUtils.readVarInt;
 
 import gnu.trove.TShortCollection;
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.iterator.TShortIterator;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
@@ -40,13 +41,19 @@ import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.BitArray;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
@@ -55,31 +62,90 @@ import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Block changes in a single cube. The packet starts with the cube position and the encoding of the changed blocks, followed by the
+ * blocks and a varint count of height map changes.
+ * <p>
+ * Older versions sent a short block count and a byte height map change count instead, changing the layout again requires bumping
+ * {@link CubicChunks#SUPPORTED_CLIENT_VERSIONS} and {@link CubicChunks#SUPPORTED_SERVER_VERSIONS}.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class PacketCubeBlockChange implements IMessage {
 
+    /**
+     * Each changed block is written as local address and block state ID
+     */
+    private static final int ENCODING_SPARSE = 0;
+    /**
+     * A bit mask of changed blocks, followed by a palette of block states and a palette index for each changed block
+     */
+    private static final int ENCODING_MASK = 1;
+
+    private static final int MASK_LONGS = Cube.SIZE * Cube.SIZE * Cube.SIZE / Long.SIZE;
+
     int[] heightValues;
     CubePos cubePos;
     short[] localAddresses;
     IBlockState[] blockStates;
 
+    // encoding of the changed blocks, computed once when the packet is created on the server
+    private int[] stateIds;
+    private IntList palette;
+    private Int2IntMap paletteIndices;
+    private boolean maskEncoding;
+    private int blocksEncodedSize;
+
     public PacketCubeBlockChange() {
     }
 
+    /**
+     * Creates a packet for already collected block changes
+     *
+     * @param cubePos position of the cube
+     * @param localAddresses local addresses of the changed blocks, without duplicates and in ascending order
+     * @param blockStates new block states, in the same order
+     * @param heightValues packed height map changes
+     */
+    public PacketCubeBlockChange(CubePos cubePos, short[] localAddresses, IBlockState[] blockStates, int[] heightValues) {
+        this.cubePos = cubePos;
+        this.localAddresses = localAddresses;
+        this.blockStates = blockStates;
+        this.heightValues = heightValues;
+        computeEncoding();
+    }
+
     public PacketCubeBlockChange(Cube cube, TShortCollection localAddresses) {
         this.cubePos = cube.getCoords();
-        this.localAddresses = localAddresses.toArray();
-        this.blockStates = new IBlockState[localAddresses.size()];
-        int i = localAddresses.size() - 1;
+        // the same block can be changed many times, and it's convenient to have them sorted for the mask encoding
+        long[] mask = new long[MASK_LONGS];
+        int count = 0;
+        TShortIterator addressIt = localAddresses.iterator();
+        while (addressIt.hasNext()) {
+            int localAddress = addressIt.next();
+            long bit = 1L << localAddress;
+            if ((mask[localAddress >>> 6] & bit) == 0) {
+                mask[localAddress >>> 6] |= bit;
+                count++;
+            }
+        }
+        this.localAddresses = new short[count];
+        this.blockStates = new IBlockState[count];
         TIntSet xzAddresses = new TIntHashSet();
-        for (; i >= 0; i--) {
-            int localAddress = this.localAddresses[i];
-            int x = AddressTools.getLocalX(localAddress);
-            int y = AddressTools.getLocalY(localAddress);
-            int z = AddressTools.getLocalZ(localAddress);
-            this.blockStates[i] = cube.getBlockState(x, y, z);
-            xzAddresses.add(AddressTools.getLocalAddress(x, z));
+        int i = 0;
+        for (int idx = 0; idx < MASK_LONGS; idx++) {
+            long bits = mask[idx];
+            while (bits != 0) {
+                int localAddress = (idx << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int x = AddressTools.getLocalX(localAddress);
+                int y = AddressTools.getLocalY(localAddress);
+                int z = AddressTools.getLocalZ(localAddress);
+                this.localAddresses[i] = (short) localAddress;
+                this.blockStates[i] = cube.getBlockState(x, y, z);
+                xzAddresses.add(AddressTools.getLocalAddress(x, z));
+                i++;
+            }
         }
         this.heightValues = new int[xzAddresses.size()];
         i = 0;
@@ -91,44 +157,185 @@ public class PacketCubeBlockChange implements IMessage {
             heightValues[i] = v;
             i++;
         }
+        computeEncoding();
     }
 
     @SuppressWarnings("deprecation") // Forge thinks we are trying to register a block or something :P
     @Override
     public void fromBytes(ByteBuf in) {
         this.cubePos = new CubePos(in.readInt(), in.readInt(), in.readInt());
-        short numBlocks = in.readShort();
-        localAddresses = new short[numBlocks];
-        blockStates = new IBlockState[numBlocks];
+        int encoding = in.readUnsignedByte();
+        if (encoding == ENCODING_MASK) {
+            readMask(in);
+        } else {
+            int numBlocks = readVarInt(in, 3);
+            localAddresses = new short[numBlocks];
+            blockStates = new IBlockState[numBlocks];
 
-        for (int i = 0; i < numBlocks; i++) {
-            localAddresses[i] = in.readShort();
-            blockStates[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+            for (int i = 0; i < numBlocks; i++) {
+                localAddresses[i] = in.readShort();
+                blockStates[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+            }
         }
-        int numHmapChanges = in.readUnsignedByte();
+        int numHmapChanges = readVarInt(in, 2);
         heightValues = new int[numHmapChanges];
         for (int i = 0; i < numHmapChanges; i++) {
             heightValues[i] = in.readInt();
         }
     }
 
-    @SuppressWarnings("deprecation")
     @Override
     public void toBytes(ByteBuf out) {
         out.writeInt(cubePos.getX());
         out.writeInt(cubePos.getY());
         out.writeInt(cubePos.getZ());
-        out.writeShort(localAddresses.length);
-        for (int i = 0; i < localAddresses.length; i++) {
-            out.writeShort(localAddresses[i]);
-            ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(blockStates[i]), 4);
+        if (maskEncoding) {
+            out.writeByte(ENCODING_MASK);
+            writeMask(out);
+        } else {
+            out.writeByte(ENCODING_SPARSE);
+            ByteBufUtils.writeVarInt(out, localAddresses.length, 3);
+            for (int i = 0; i < localAddresses.length; i++) {
+                out.writeShort(localAddresses[i]);
+                ByteBufUtils.writeVarInt(out, stateIds[i], 4);
+            }
         }
-        out.writeByte(heightValues.length);
+        ByteBufUtils.writeVarInt(out, heightValues.length, 2);
         for (int v : heightValues) {
             out.writeInt(v);
         }
     }
 
+    /**
+     * Returns true if sending the whole cube again would take less space than this packet
+     */
+    public boolean shouldResendCube(Cube cube) {
+        return getEncodedSize() >= WorldEncoder.getEncodedSizeEstimate(cube);
+    }
+
+    /**
+     * Returns the approximate amount of bytes this packet takes, with the smaller of the encodings
+     */
+    int getEncodedSize() {
+        return 13 + blocksEncodedSize + 2 + heightValues.length * Integer.BYTES;
+    }
+
+    /**
+     * Finds block state IDs of all changed blocks and their palette, and picks the smaller encoding
+     */
+    @SuppressWarnings("deprecation")
+    private void computeEncoding() {
+        this.paletteIndices = new Int2IntOpenHashMap();
+        this.palette = new IntArrayList();
+        this.stateIds = new int[blockStates.length];
+        for (int i = 0; i < blockStates.length; i++) {
+            stateIds[i] = Block.BLOCK_STATE_IDS.get(blockStates[i]);
+            if (!paletteIndices.containsKey(stateIds[i])) {
+                paletteIndices.put(stateIds[i], palette.size());
+                palette.add(stateIds[i]);
+            }
+        }
+        int maskSize = getMaskEncodedSize();
+        int sparseSize = getSparseEncodedSize();
+        this.maskEncoding = maskSize < sparseSize;
+        this.blocksEncodedSize = Math.min(maskSize, sparseSize);
+    }
+
+    private int getSparseEncodedSize() {
+        int size = 3;
+        for (int id : stateIds) {
+            size += Short.BYTES + ByteBufUtils.varIntByteCount(id);
+        }
+        return size;
+    }
+
+    private int getMaskEncodedSize() {
+        int size = MASK_LONGS * Long.BYTES + ByteBufUtils.varIntByteCount(palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            size += ByteBufUtils.varIntByteCount(palette.getInt(i));
+        }
+        int bits = getPaletteBits(palette.size());
+        return size + (localAddresses.length * bits + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+    }
+
+    private static int getPaletteBits(int paletteSize) {
+        return Math.max(1, MathHelper.log2DeriveSize(paletteSize));
+    }
+
+    private void writeMask(ByteBuf out) {
+        long[] mask = new long[MASK_LONGS];
+        for (short localAddress : localAddresses) {
+            mask[(localAddress & 0xFFFF) >>> 6] |= 1L << localAddress;
+        }
+        for (long v : mask) {
+            out.writeLong(v);
+        }
+        ByteBufUtils.writeVarInt(out, palette.size(), 4);
+        for (int i = 0; i < palette.size(); i++) {
+            ByteBufUtils.writeVarInt(out, palette.getInt(i), 4);
+        }
+        if (localAddresses.length == 0) {
+            return;
+        }
+        BitArray indices = new BitArray(getPaletteBits(palette.size()), localAddresses.length);
+        for (int i = 0; i < stateIds.length; i++) {
+            indices.setAt(i, paletteIndices.get(stateIds[i]));
+        }
+        for (long v : indices.getBackingLongArray()) {
+            out.writeLong(v);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void readMask(ByteBuf in) {
+        long[] mask = new long[MASK_LONGS];
+        int count = 0;
+        for (int i = 0; i < MASK_LONGS; i++) {
+            mask[i] = in.readLong();
+            count += Long.bitCount(mask[i]);
+        }
+        IBlockState[] palette = new IBlockState[readVarInt(in, 4)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+        }
+        localAddresses = new short[count];
+        blockStates = new IBlockState[count];
+        if (count == 0) {
+            return;
+        }
+        BitArray indices = new BitArray(getPaletteBits(palette.length), count);
+        long[] backing = indices.getBackingLongArray();
+        for (int i = 0; i < backing.length; i++) {
+            backing[i] = in.readLong();
+        }
+        int i = 0;
+        for (int idx = 0; idx < MASK_LONGS; idx++) {
+            long bits = mask[idx];
+            while (bits != 0) {
+                localAddresses[i] = (short) ((idx << 6) | Long.numberOfTrailingZeros(bits));
+                blockStates[i] = palette[indices.getAt(i)];
+                bits &= bits - 1;
+                i++;
+            }
+        }
+    }
+
+    public CubePos getCubePos() {
+        return cubePos;
+    }
+
+    public short[] getLocalAddresses() {
+        return localAddresses;
+    }
+
+    public IBlockState[] getBlockStates() {
+        return blockStates;
+    }
+
+    public int[] getHeightValues() {
+        return heightValues;
+    }
+
     public static class Handler extends AbstractClientMessageHandler<PacketCubeBlockChange> {
 
         @Nullable @Override
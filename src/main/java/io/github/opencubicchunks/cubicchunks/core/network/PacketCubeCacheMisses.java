@@ -0,0 +1,101 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
+import io.github.opencubicchunks.cubicchunks.core.util.PacketUtils;
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sent by clients in answer to {@link PacketCubeHashes}, with cubes that weren't in their {@link ClientCubeCache}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeCacheMisses implements IMessage {
+
+    private int dimension;
+    private List<CubePos> cubePos;
+
+    public PacketCubeCacheMisses() {
+    }
+
+    public PacketCubeCacheMisses(int dimension, List<CubePos> cubePos) {
+        this.dimension = dimension;
+        this.cubePos = cubePos;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        int count = buf.readUnsignedShort();
+        this.cubePos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cubePos.add(PacketUtils.readCubePos(buf));
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeShort(cubePos.size());
+        cubePos.forEach(pos -> PacketUtils.write(buf, pos));
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    List<CubePos> getCubePos() {
+        return cubePos;
+    }
+
+    public static class Handler extends AbstractServerMessageHandler<PacketCubeCacheMisses> {
+
+        @Override
+        public void handleServerMessage(EntityPlayer player, PacketCubeCacheMisses message, MessageContext ctx) {
+            EntityPlayerMP playerMP = (EntityPlayerMP) player;
+            WorldServer world = playerMP.getServerWorld();
+            // the player may have changed dimension since the hashes were sent, these cubes will be sent again anyway
+            if (world.provider.getDimension() != message.getDimension() || !((ICubicWorld) world).isCubicWorld()
+                    || !CubeDataFormat.usesCubeCache(playerMP)) {
+                return;
+            }
+            ((PlayerCubeMap) world.getPlayerChunkMap()).scheduleSendCubeCacheMisses(playerMP, message.getCubePos());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sent by the client in response to {@link PacketCubicWorldData}, with the cube data format it will accept.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeDataFormat implements IMessage {
+
+    private int format;
+    private boolean useCubeCache;
+
+    public PacketCubeDataFormat() {
+    }
+
+    public PacketCubeDataFormat(int format, boolean useCubeCache) {
+        this.format = format;
+        this.useCubeCache = useCubeCache;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.format = buf.readUnsignedByte();
+        this.useCubeCache = buf.readBoolean();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeByte(this.format);
+        buf.writeBoolean(this.useCubeCache);
+    }
+
+    int getFormat() {
+        return format;
+    }
+
+    boolean usesCubeCache() {
+        return useCubeCache;
+    }
+
+    public static class Handler extends AbstractServerMessageHandler<PacketCubeDataFormat> {
+
+        @Override
+        public void handleServerMessage(EntityPlayer player, PacketCubeDataFormat message, MessageContext ctx) {
+            CubeDataFormat.setFormat((EntityPlayerMP) player, message.getFormat());
+            CubeDataFormat.setUsesCubeCache((EntityPlayerMP) player, message.usesCubeCache());
+        }
+    }
+}
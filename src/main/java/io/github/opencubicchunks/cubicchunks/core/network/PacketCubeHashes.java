@@ -0,0 +1,201 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
+import io.github.opencubicchunks.cubicchunks.core.util.PacketUtils;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.client.multiplayer.WorldClient;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sent instead of {@link PacketCubes} to players that use {@link ClientCubeCache}. Contains content hashes of the cubes, heightmaps of
+ * their columns and tile entities. The client loads cubes with matching hashes from its cache, and answers with
+ * {@link PacketCubeCacheMisses} for the rest, which are then sent in full.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeHashes implements IMessage {
+
+    private int dimension;
+    private CubePos[] cubePos;
+    private long[] hashes;
+    private boolean hasSkyLight;
+    private byte[] heightMaps;
+    private List<List<NBTTagCompound>> tileEntityTags;
+    // cache lookup starts as soon as the packet is read, like decoding of PacketCubes
+    @Nullable private CompletableFuture<CachedCubes> cached;
+
+    public PacketCubeHashes() {
+    }
+
+    PacketCubeHashes(int dimension, CubePos[] cubePos, long[] hashes, boolean hasSkyLight, byte[] heightMaps,
+            List<List<NBTTagCompound>> tileEntityTags) {
+        this.dimension = dimension;
+        this.cubePos = cubePos;
+        this.hashes = hashes;
+        this.hasSkyLight = hasSkyLight;
+        this.heightMaps = heightMaps;
+        this.tileEntityTags = tileEntityTags;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        int cubeCount = buf.readUnsignedShort();
+        this.cubePos = new CubePos[cubeCount];
+        this.hashes = new long[cubeCount];
+        for (int i = 0; i < cubeCount; i++) {
+            cubePos[i] = PacketUtils.readCubePos(buf);
+            hashes[i] = buf.readLong();
+        }
+        this.hasSkyLight = buf.readBoolean();
+        this.heightMaps = new byte[buf.readInt()];
+        buf.readBytes(this.heightMaps);
+
+        this.tileEntityTags = new ArrayList<>();
+        for (int i = 0; i < cubeCount; i++) {
+            int numTiles = buf.readInt();
+            List<NBTTagCompound> tags = new ArrayList<>();
+            for (int j = 0; j < numTiles; j++) {
+                tags.add(ByteBufUtils.readTag(buf));
+            }
+            this.tileEntityTags.add(tags);
+        }
+        this.cached = CubePacketDecoder.submit(this::loadCachedCubes);
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeShort(cubePos.length);
+        for (int i = 0; i < cubePos.length; i++) {
+            PacketUtils.write(buf, cubePos[i]);
+            buf.writeLong(hashes[i]);
+        }
+        buf.writeBoolean(this.hasSkyLight);
+        buf.writeInt(this.heightMaps.length);
+        buf.writeBytes(this.heightMaps);
+
+        this.tileEntityTags.forEach(tags -> {
+            buf.writeInt(tags.size());
+            tags.forEach(tag -> ByteBufUtils.writeTag(buf, tag));
+        });
+    }
+
+    private CachedCubes loadCachedCubes() {
+        byte[][] data = new byte[cubePos.length][];
+        for (int i = 0; i < cubePos.length; i++) {
+            data[i] = ClientCubeCache.load(dimension, cubePos[i], hashes[i]);
+        }
+        return new CachedCubes(data, WorldEncoder.decodeCachedCubes(cubePos, data, heightMaps, hasSkyLight));
+    }
+
+    CachedCubes getCachedCubes() {
+        return cached == null ? loadCachedCubes() : cached.join();
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    CubePos[] getCubePos() {
+        return cubePos;
+    }
+
+    List<List<NBTTagCompound>> getTileEntityTags() {
+        return tileEntityTags;
+    }
+
+    private static final class CachedCubes {
+
+        private final byte[][] data;
+        private final WorldEncoder.DecodedCubes decoded;
+
+        CachedCubes(byte[][] data, WorldEncoder.DecodedCubes decoded) {
+            this.data = data;
+            this.decoded = decoded;
+        }
+
+        boolean isCached(int i) {
+            return data[i] != null;
+        }
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeHashes> {
+
+        @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketCubeHashes message, MessageContext ctx) {
+            WorldClient worldClient = (WorldClient) player.getEntityWorld();
+            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+
+            CachedCubes cached = message.getCachedCubes();
+
+            CubePos[] cubePos = message.getCubePos();
+            List<Cube> cubes = new ArrayList<>();
+            for (CubePos pos : cubePos) {
+                Cube cube = cubeCache.loadCube(pos);
+                if (cube == null) {
+                    CubicChunks.LOGGER.error("Out of order cube received! No column for cube at {} exists!", pos);
+                }
+                cubes.add(cube);
+            }
+            WorldEncoder.applyDecodedCubes(cached.decoded, cubes);
+
+            List<CubePos> misses = new ArrayList<>();
+            for (int i = 0; i < cubes.size(); i++) {
+                Cube cube = cubes.get(i);
+                if (cube == null) {
+                    continue;
+                }
+                if (cached.isCached(i)) {
+                    cube.markForRenderUpdate();
+                    PacketCubes.handleTileEntityTags(worldClient, message.getTileEntityTags().get(i));
+                } else {
+                    misses.add(cubePos[i]);
+                }
+            }
+            if (!misses.isEmpty()) {
+                PacketDispatcher.sendToServer(new PacketCubeCacheMisses(message.getDimension(), misses));
+            }
+        }
+    }
+}
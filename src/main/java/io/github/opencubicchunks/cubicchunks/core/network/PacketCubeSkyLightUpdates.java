@@ -26,14 +26,15 @@ package io.github.opencubicchunks.cubicchunks.core.network;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 
-import gnu.trove.list.TShortList;
-import io.github.opencubicchunks.cubicchunks.api.util.Bits;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.world.World;
@@ -44,105 +45,217 @@ import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
+/**
+ * Sky light changes in any number of cubes. The server sends all changes a player should see in one tick in one packet.
+ * <p>
+ * Older versions sent one packet per cube, changing the layout again requires bumping {@link CubicChunks#SUPPORTED_CLIENT_VERSIONS}
+ * and {@link CubicChunks#SUPPORTED_SERVER_VERSIONS}.
+ */
 public class PacketCubeSkyLightUpdates implements IMessage {
 
-    private CubePos cube;
-    private boolean isFullRelight;
-    private byte[] data;
+    private static final int TYPE_NO_STORAGE = 0;
+    private static final int TYPE_FULL = 1;
+    private static final int TYPE_RUNS = 2;
+
+    private static final int FULL_SIZE = Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
+    // unchanged values between changed ones are sent as well if the gap is at most this big,
+    // as starting a new run costs about as much
+    private static final int MAX_RUN_GAP = 3;
+
+    private final List<CubeUpdates> cubes = new ArrayList<>();
+    private int size;
 
     public PacketCubeSkyLightUpdates() {
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube, TShortList updates) {
-        if (cube.getStorage() == null) {
-            // no light
-            this.isFullRelight = true;
-            this.data = null;
-            return;
+    /**
+     * Encodes sky light changes in a cube. Changed values are sent as runs of consecutive light values, or the whole light array if
+     * that's smaller.
+     *
+     * @param cube the cube
+     * @param changed bitset of local addresses of changed blocks
+     * @return the encoded updates
+     */
+    public static CubeUpdates encode(Cube cube, long[] changed) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        return encode(cube.getCoords(), storage == null ? null : storage.getSkyLight(), changed);
+    }
+
+    /**
+     * Encodes sky light changes in a cube, see {@link #encode(Cube, long[])}
+     *
+     * @param pos position of the cube
+     * @param skyLight sky light of the cube, or null if it has no block storage
+     * @param changed bitset of local addresses of changed blocks
+     * @return the encoded updates
+     */
+    public static CubeUpdates encode(CubePos pos, @Nullable NibbleArray skyLight, long[] changed) {
+        if (skyLight == null) {
+            return new CubeUpdates(pos, new byte[]{TYPE_NO_STORAGE});
         }
-        this.cube = cube.getCoords();
-        this.data = new byte[updates.size() * 2];
-        for (int i = 0; i < updates.size(); i++) {
-            short packed = updates.get(i);
-            int localX = AddressTools.getLocalX(packed);
-            int localY = AddressTools.getLocalY(packed);
-            int localZ = AddressTools.getLocalZ(packed);
-            int value = cube.getStorage().getSkyLight(localX, localY, localZ);
-            byte byte1 = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
-            byte byte2 = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
-            this.data[i * 2] = byte1;
-            this.data[i * 2 + 1] = byte2;
+        byte[] light = skyLight.getData();
+
+        ByteBuf out = Unpooled.buffer();
+        out.writeByte(TYPE_RUNS);
+        int runStart = nextSetBit(changed, 0);
+        int lastEnd = 0;
+        int runCount = 0;
+        ByteBuf runs = Unpooled.buffer();
+        while (runStart >= 0) {
+            int runEnd = runStart + 1;
+            int next;
+            while ((next = nextSetBit(changed, runEnd)) >= 0 && next - runEnd <= MAX_RUN_GAP) {
+                runEnd = next + 1;
+            }
+            ByteBufUtils.writeVarInt(runs, runStart - lastEnd, 2);
+            ByteBufUtils.writeVarInt(runs, runEnd - runStart, 2);
+            for (int i = runStart; i < runEnd; i += 2) {
+                int low = getNibble(light, i);
+                int high = i + 1 < runEnd ? getNibble(light, i + 1) : 0;
+                runs.writeByte(low | high << 4);
+            }
+            runCount++;
+            lastEnd = runEnd;
+            runStart = next;
+            if (runs.readableBytes() >= FULL_SIZE) {
+                break;
+            }
+        }
+        if (runs.readableBytes() >= FULL_SIZE) {
+            byte[] data = new byte[1 + FULL_SIZE];
+            data[0] = TYPE_FULL;
+            System.arraycopy(light, 0, data, 1, FULL_SIZE);
+            return new CubeUpdates(pos, data);
         }
+        ByteBufUtils.writeVarInt(out, runCount, 2);
+        out.writeBytes(runs);
+        byte[] data = new byte[out.readableBytes()];
+        out.readBytes(data);
+        return new CubeUpdates(pos, data);
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube) {
-        this.isFullRelight = true;
-        if (cube.getStorage() == null) {
-            // no light
-            this.data = null;
-            return;
-        }
-        this.cube = cube.getCoords();
-        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
+    public void add(CubeUpdates updates) {
+        this.cubes.add(updates);
+        this.size += 3 * Integer.BYTES + updates.data.length;
+    }
+
+    /**
+     * Returns approximate size of this packet, in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return cubes.isEmpty();
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        this.cube = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
-        this.isFullRelight = buf.readBoolean();
-        boolean hasData = buf.readBoolean();
-        if (hasData) {
-            int size = ByteBufUtils.readVarInt(buf, 3);
-            this.data = new byte[size];
-            buf.readBytes(this.data);
+        int count = ByteBufUtils.readVarInt(buf, 5);
+        for (int i = 0; i < count; i++) {
+            CubePos pos = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
+            byte[] data = new byte[ByteBufUtils.readVarInt(buf, 3)];
+            buf.readBytes(data);
+            add(new CubeUpdates(pos, data));
         }
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-        buf.writeInt(this.cube.getX());
-        buf.writeInt(this.cube.getY());
-        buf.writeInt(this.cube.getZ());
-
-        buf.writeBoolean(this.isFullRelight);
-        buf.writeBoolean(this.data != null);
-
-        if (this.data != null) {
-            ByteBufUtils.writeVarInt(buf, this.data.length, 3);
-            buf.writeBytes(this.data);
+        ByteBufUtils.writeVarInt(buf, cubes.size(), 5);
+        for (CubeUpdates updates : cubes) {
+            buf.writeInt(updates.pos.getX());
+            buf.writeInt(updates.pos.getY());
+            buf.writeInt(updates.pos.getZ());
+            ByteBufUtils.writeVarInt(buf, updates.data.length, 3);
+            buf.writeBytes(updates.data);
         }
     }
 
-    CubePos getCubePos() {
-        return cube;
+    public List<CubeUpdates> getCubes() {
+        return cubes;
     }
 
-    boolean isFullRelight() {
-        return isFullRelight;
+    private static int nextSetBit(long[] bits, int from) {
+        int idx = from >>> 6;
+        if (idx >= bits.length) {
+            return -1;
+        }
+        long word = bits[idx] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (idx << 6) | Long.numberOfTrailingZeros(word);
+            }
+            if (++idx == bits.length) {
+                return -1;
+            }
+            word = bits[idx];
+        }
     }
 
-    byte[] getData() {
-        return data;
+    // NibbleArray index is the same as local address
+    private static int getNibble(byte[] data, int index) {
+        return (data[index >> 1] >> ((index & 1) << 2)) & 0xF;
     }
 
-    public int updateCount() {
-        return data.length / 2;
-    }
+    /**
+     * Encoded sky light changes of a single cube. The same instance can be added to packets for multiple players.
+     */
+    public static final class CubeUpdates {
 
-    public static class Handler extends AbstractClientMessageHandler<PacketCubeSkyLightUpdates> {
+        private final CubePos pos;
+        private final byte[] data;
 
-        @Nullable @Override
-        public void handleClientMessage(World world, EntityPlayer player, PacketCubeSkyLightUpdates message, MessageContext ctx) {
-            WorldClient worldClient = (WorldClient) world;
-            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+        private CubeUpdates(CubePos pos, byte[] data) {
+            this.pos = pos;
+            this.data = data;
+        }
+
+        CubePos getPos() {
+            return pos;
+        }
+
+        public boolean hasStorage() {
+            return data[0] != TYPE_NO_STORAGE;
+        }
+
+        /**
+         * Writes the encoded light values to the given array. Only valid for updates of a cube with storage.
+         */
+        public void decodeInto(NibbleArray skyLight) {
+            ByteBuf in = Unpooled.wrappedBuffer(data);
+            int type = in.readUnsignedByte();
+            assert type != TYPE_NO_STORAGE;
+            if (type == TYPE_FULL) {
+                in.readBytes(skyLight.getData(), 0, FULL_SIZE);
+                return;
+            }
+            int runCount = ByteBufUtils.readVarInt(in, 2);
+            int lastEnd = 0;
+            for (int run = 0; run < runCount; run++) {
+                int start = lastEnd + ByteBufUtils.readVarInt(in, 2);
+                int length = ByteBufUtils.readVarInt(in, 2);
+                int packed = 0;
+                for (int i = 0; i < length; i++) {
+                    if ((i & 1) == 0) {
+                        packed = in.readUnsignedByte();
+                    }
+                    int localAddress = start + i;
+                    skyLight.set(AddressTools.getLocalX(localAddress), AddressTools.getLocalY(localAddress),
+                            AddressTools.getLocalZ(localAddress), (packed >> ((i & 1) << 2)) & 0xF);
+                }
+                lastEnd = start + length;
+            }
+        }
 
-            // get the cube
-            Cube cube = cubeCache.getCube(message.getCubePos());
-            if (message.getData() == null) {
+        void apply(WorldClient worldClient, Cube cube) {
+            if (!hasStorage()) {
                 // this means the EBS was null serverside. So it needs to be null clientside
                 cube.setStorage(Chunk.NULL_BLOCK_STORAGE);
                 return;
@@ -152,21 +265,29 @@ public class PacketCubeSkyLightUpdates implements IMessage {
                 cube.setStorage(storage = new ExtendedBlockStorage(cubeToMinBlock(cube.getY()), worldClient.provider.hasSkyLight()));
             }
             assert storage != null;
-            if (message.isFullRelight()) {
-                storage.setSkyLight(new NibbleArray(message.getData()));
-            } else {
-                for (int i = 0; i < message.updateCount(); i++) {
-                    int packed1 = message.getData()[i * 2] & 0xFF;
-                    int packed2 = message.getData()[i * 2 + 1] & 0xFF;
-                    storage.setSkyLight(Bits.unpackUnsigned(packed1, 4, 0), Bits.unpackUnsigned(packed1, 4, 4),
-                        Bits.unpackUnsigned(packed2, 4, 0), Bits.unpackUnsigned(packed2, 4, 4));
-                }
+            if (storage.getSkyLight() == null) {
+                storage.setSkyLight(new NibbleArray());
             }
+            decodeInto(storage.getSkyLight());
             LightingManager.CubeLightUpdateInfo info = cube.getCubeLightUpdateInfo();
             if (info != null) {
                 info.clear();
             }
+            cube.markChanged(CubeChangeJournal.Change.LIGHT);
             cube.markForRenderUpdate();
         }
     }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeSkyLightUpdates> {
+
+        @Nullable @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketCubeSkyLightUpdates message, MessageContext ctx) {
+            WorldClient worldClient = (WorldClient) world;
+            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+
+            for (CubeUpdates updates : message.getCubes()) {
+                updates.apply(worldClient, cubeCache.getCube(updates.pos));
+            }
+        }
+    }
 }
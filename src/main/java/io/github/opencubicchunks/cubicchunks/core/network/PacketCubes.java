@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.network;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
 import io.github.opencubicchunks.cubicchunks.core.util.PacketUtils;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -34,7 +35,6 @@ import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
@@ -43,11 +43,14 @@ import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
@@ -55,30 +58,57 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PacketCubes implements IMessage {
 
     private CubePos[] cubePos;
+    private int format;
+    private boolean hasSkyLight;
     private byte[] data;
     private List<List<NBTTagCompound>> tileEntityTags;
+    // decoding starts as soon as the packet is read, so that it's usually done when the client thread handles it
+    @Nullable private CompletableFuture<WorldEncoder.DecodedCubes> decoded;
 
     public PacketCubes() {
     }
 
-    public PacketCubes(List<Cube> cubes) {
-        cubes.sort(Comparator.<Cube>comparingInt(c -> c.getCoords().getY())
-                .thenComparingInt(c -> c.getCoords().getX())
-                .thenComparingInt(c -> c.getCoords().getZ()));
+    public PacketCubes(List<Cube> cubes, int format) {
+        sortCubes(cubes);
         this.cubePos = new CubePos[cubes.size()];
+        List<WorldEncoder.EncodedCube> encoded = new ArrayList<>(cubes.size());
         for (int i = 0; i < cubes.size(); i++) {
             cubePos[i] = cubes.get(i).getCoords();
+            encoded.add(WorldEncoder.encodeCube(cubes.get(i), format));
         }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
-        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
-
-        WorldEncoder.encodeCubes(out, cubes);
+        this.format = format;
+        this.hasSkyLight = cubes.isEmpty() || cubes.get(0).getWorld().provider.hasSkyLight();
+        this.data = WorldEncoder.encodeCubes(encoded, format, CubicChunksConfig.cubePacketCompressionLevel);
 
         this.tileEntityTags = new ArrayList<>();
 
-        cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
-        );
+        cubes.forEach(cube -> tileEntityTags.add(getTileEntityTags(cube)));
+    }
+
+    PacketCubes(CubePos[] cubePos, int format, boolean hasSkyLight, byte[] data, List<List<NBTTagCompound>> tileEntityTags) {
+        this.cubePos = cubePos;
+        this.format = format;
+        this.hasSkyLight = hasSkyLight;
+        this.data = data;
+        this.tileEntityTags = tileEntityTags;
+    }
+
+    static void sortCubes(List<Cube> cubes) {
+        cubes.sort(Comparator.<Cube>comparingInt(c -> c.getCoords().getY())
+                .thenComparingInt(c -> c.getCoords().getX())
+                .thenComparingInt(c -> c.getCoords().getZ()));
+    }
+
+    static List<NBTTagCompound> getTileEntityTags(Cube cube) {
+        Map<BlockPos, TileEntity> tileEntities = cube.getTileEntityMap();
+        if (tileEntities.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<NBTTagCompound> tags = new ArrayList<>(tileEntities.size());
+        for (TileEntity te : tileEntities.values()) {
+            tags.add(te.getUpdateTag());
+        }
+        return tags;
     }
 
     @Override
@@ -89,6 +119,8 @@ public class PacketCubes implements IMessage {
             cubePos[i] = PacketUtils.readCubePos(buf);
         }
 
+        this.format = buf.readUnsignedByte();
+        this.hasSkyLight = buf.readBoolean();
         this.data = new byte[buf.readInt()];
         buf.readBytes(this.data);
 
@@ -101,6 +133,7 @@ public class PacketCubes implements IMessage {
             }
             this.tileEntityTags.add(tags);
         }
+        this.decoded = CubePacketDecoder.decode(cubePos, format, data, hasSkyLight);
     }
 
     @Override
@@ -110,6 +143,8 @@ public class PacketCubes implements IMessage {
             PacketUtils.write(buf, pos);
         }
 
+        buf.writeByte(this.format);
+        buf.writeBoolean(this.hasSkyLight);
         buf.writeInt(this.data.length);
         buf.writeBytes(this.data);
 
@@ -123,8 +158,15 @@ public class PacketCubes implements IMessage {
         return cubePos;
     }
 
-    byte[] getData() {
-        return data;
+    /**
+     * Returns the decoded cube data. Waits for the decoding threads if they are not done yet, or decodes it on the current thread if
+     * decoding threads are disabled.
+     */
+    WorldEncoder.DecodedCubes getDecodedCubes() {
+        if (decoded == null) {
+            return WorldEncoder.decodeCubes(cubePos, format, data, hasSkyLight);
+        }
+        return decoded.join();
     }
 
     List<List<NBTTagCompound>> getTileEntityTags() {
@@ -138,6 +180,8 @@ public class PacketCubes implements IMessage {
             WorldClient worldClient = (WorldClient) player.getEntityWorld();
             CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
 
+            WorldEncoder.DecodedCubes decoded = message.getDecodedCubes();
+
             CubePos[] cubePos = message.getCubePos();
             List<Cube> cubes = new ArrayList<>();
             for (CubePos pos : cubePos) {
@@ -148,25 +192,25 @@ public class PacketCubes implements IMessage {
                 }
                 cubes.add(cube);
             }
-
-
-            byte[] data = message.getData();
-            ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes);
+            WorldEncoder.applyDecodedCubes(decoded, cubes);
 
             cubes.stream().filter(Objects::nonNull).forEach(Cube::markForRenderUpdate);
 
-            message.getTileEntityTags().forEach(tags -> tags.forEach(tag -> {
-                int blockX = tag.getInteger("x");
-                int blockY = tag.getInteger("y");
-                int blockZ = tag.getInteger("z");
-                BlockPos pos = new BlockPos(blockX, blockY, blockZ);
-                TileEntity tileEntity = worldClient.getTileEntity(pos);
-
-                if (tileEntity != null) {
-                    tileEntity.handleUpdateTag(tag);
-                }
-            }));
+            message.getTileEntityTags().forEach(tags -> handleTileEntityTags(worldClient, tags));
         }
     }
+
+    static void handleTileEntityTags(WorldClient worldClient, List<NBTTagCompound> tags) {
+        tags.forEach(tag -> {
+            int blockX = tag.getInteger("x");
+            int blockY = tag.getInteger("y");
+            int blockZ = tag.getInteger("z");
+            BlockPos pos = new BlockPos(blockX, blockY, blockZ);
+            TileEntity tileEntity = worldClient.getTileEntity(pos);
+
+            if (tileEntity != null) {
+                tileEntity.handleUpdateTag(tag);
+            }
+        });
+    }
 }
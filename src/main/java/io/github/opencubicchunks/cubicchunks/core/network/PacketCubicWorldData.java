@@ -29,9 +29,11 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.client.INetHand
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorldType;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ServerData;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.world.World;
@@ -52,6 +54,8 @@ public class PacketCubicWorldData implements IMessage {
     private int maxHeight;
     private int minGenerationHeight;
     private int maxGenerationHeight;
+    private int cubeDataFormat;
+    private boolean cubeCacheAllowed;
 
     public PacketCubicWorldData() {
     }
@@ -63,6 +67,8 @@ public class PacketCubicWorldData implements IMessage {
             this.isCubicWorld = true;
             this.minHeight = ((ICubicWorld) world).getMinHeight();
             this.maxHeight = ((ICubicWorld) world).getMaxHeight();
+            this.cubeDataFormat = CubeDataFormat.getOfferedFormat();
+            this.cubeCacheAllowed = CubicChunksConfig.allowClientCubeCache;
             if (world.getWorldType() instanceof ICubicWorldType) {
                 ICubicWorldType type = (ICubicWorldType) world.getWorldType();
                 IntRange range = type.calculateGenerationHeightRange(world);
@@ -82,6 +88,8 @@ public class PacketCubicWorldData implements IMessage {
         this.maxHeight = buf.readInt();
         this.minGenerationHeight = buf.readInt();
         this.maxGenerationHeight = buf.readInt();
+        this.cubeDataFormat = buf.readUnsignedByte();
+        this.cubeCacheAllowed = buf.readBoolean();
     }
 
     @Override
@@ -91,6 +99,8 @@ public class PacketCubicWorldData implements IMessage {
         buf.writeInt(this.maxHeight);
         buf.writeInt(this.minGenerationHeight);
         buf.writeInt(this.maxGenerationHeight);
+        buf.writeByte(this.cubeDataFormat);
+        buf.writeBoolean(this.cubeCacheAllowed);
     }
 
     public boolean isCubicWorld() {
@@ -113,6 +123,14 @@ public class PacketCubicWorldData implements IMessage {
         return maxGenerationHeight;
     }
 
+    public int getCubeDataFormat() {
+        return cubeDataFormat;
+    }
+
+    public boolean isCubeCacheAllowed() {
+        return cubeCacheAllowed;
+    }
+
     public static class Handler extends AbstractClientMessageHandler<PacketCubicWorldData> {
 
         @Nullable @Override
@@ -132,6 +150,16 @@ public class PacketCubicWorldData implements IMessage {
                     Minecraft.getMinecraft().renderGlobal.setWorldAndLoadRenderers((WorldClient) world);
                 }
             }
+            if (message.isCubicWorld()) {
+                boolean useCubeCache = message.isCubeCacheAllowed() && CubicChunksConfig.clientCubeCache;
+                if (useCubeCache) {
+                    ServerData server = Minecraft.getMinecraft().getCurrentServerData();
+                    ClientCubeCache.open(server == null ? "unknown" : server.serverIP);
+                } else {
+                    ClientCubeCache.close();
+                }
+                PacketDispatcher.sendToServer(new PacketCubeDataFormat(Math.min(message.getCubeDataFormat(), CubeDataFormat.LATEST), useCubeCache));
+            }
 
         }
     }
@@ -24,15 +24,24 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.network;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.relauncher.Side;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -53,6 +62,14 @@ public class PacketDispatcher {
      */
     private static final SimpleNetworkWrapper dispatcher = NetworkRegistry.INSTANCE.newSimpleChannel(CubicChunks.MODID);
 
+    // needed to encode and handle messages in PacketBatch, indexed by packet ID
+    private static final Map<Class<? extends IMessage>, Integer> messageIds = new HashMap<>();
+    private static final List<Class<? extends IMessage>> messageClasses = new ArrayList<>();
+    private static final List<IMessageHandler<?, ?>> messageHandlers = new ArrayList<>();
+
+    // messages queued with sendBatched, only accessed from the server thread
+    private static final Map<EntityPlayerMP, Batch> batches = new IdentityHashMap<>();
+
     /**
      * Registers all packets. Side of a packet is the side on which the packet is handled.
      */
@@ -68,6 +85,10 @@ public class PacketDispatcher {
         registerMessage(PacketCubicWorldData.Handler.class, PacketCubicWorldData.class);
         registerMessage(PacketHeightMapUpdate.Handler.class, PacketHeightMapUpdate.class);
         registerMessage(PacketCubeSkyLightUpdates.Handler.class, PacketCubeSkyLightUpdates.class);
+        registerMessage(PacketCubeDataFormat.Handler.class, PacketCubeDataFormat.class);
+        registerMessage(PacketBatch.Handler.class, PacketBatch.class);
+        registerMessage(PacketCubeHashes.Handler.class, PacketCubeHashes.class);
+        registerMessage(PacketCubeCacheMisses.Handler.class, PacketCubeCacheMisses.class);
 
     }
 
@@ -77,9 +98,37 @@ public class PacketDispatcher {
     private static <REQ extends IMessage, REPLY extends IMessage> void registerMessage(
             @Nonnull Class<? extends IMessageHandler<REQ, REPLY>> handlerClass, Class<REQ> messageClass) {
         Side side = AbstractClientMessageHandler.class.isAssignableFrom(handlerClass) ? Side.CLIENT : Side.SERVER;
+        try {
+            messageHandlers.add(handlerClass.newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+        messageIds.put(messageClass, (int) packetId);
+        messageClasses.add(messageClass);
         PacketDispatcher.dispatcher.registerMessage(handlerClass, messageClass, packetId++, side);
     }
 
+    static int getMessageId(IMessage message) {
+        Integer id = messageIds.get(message.getClass());
+        if (id == null) {
+            throw new IllegalArgumentException("Unregistered message " + message.getClass());
+        }
+        return id;
+    }
+
+    static IMessage createMessage(int id) {
+        try {
+            return messageClasses.get(id).newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void handleMessage(IMessage message, MessageContext ctx) {
+        ((IMessageHandler<IMessage, ?>) messageHandlers.get(getMessageId(message))).onMessage(message, ctx);
+    }
+
     /**
      * Send this message to the specified player.
      * See {@link SimpleNetworkWrapper#sendTo(IMessage, EntityPlayerMP)}
@@ -90,4 +139,120 @@ public class PacketDispatcher {
     public static void sendTo(IMessage message, EntityPlayerMP player) {
         PacketDispatcher.dispatcher.sendTo(message, player);
     }
+
+    /**
+     * Queue this message to be sent to the player together with other queued messages, as one {@link PacketBatch}, when
+     * {@link #flush(EntityPlayerMP)} or {@link #flushAll()} is called. A queued {@link PacketCubes} is dropped if all of its cubes
+     * are unloaded again by queued {@link PacketUnloadCube}s. The unloads are always sent, as the client may have had the cubes before.
+     * <p>
+     * All queued messages are sent at the end of each cubic world tick, before the entity tracker runs. Packets sent with
+     * {@link #sendTo(IMessage, EntityPlayerMP)} or outside of this class are not ordered with queued ones, so cubic chunks
+     * messages that depend on other queued messages should be queued too, and the queue has to be flushed before sending
+     * anything else that depends on queued packets already being received. Must be called from the server thread.
+     *
+     * @param message message to send
+     * @param player to send the packet to
+     */
+    public static void sendBatched(IMessage message, EntityPlayerMP player) {
+        batches.computeIfAbsent(player, p -> new Batch()).add(message);
+    }
+
+    /**
+     * Sends all messages queued for the player
+     *
+     * @param player the player
+     */
+    public static void flush(EntityPlayerMP player) {
+        Batch batch = batches.remove(player);
+        if (batch != null) {
+            batch.send(player);
+        }
+    }
+
+    /**
+     * Sends all queued messages for all players
+     */
+    public static void flushAll() {
+        if (batches.isEmpty()) {
+            return;
+        }
+        List<EntityPlayerMP> players = new ArrayList<>(batches.keySet());
+        players.forEach(PacketDispatcher::flush);
+    }
+
+    /**
+     * Send this message to the server.
+     * See {@link SimpleNetworkWrapper#sendToServer(IMessage)}
+     *
+     * @param message message to send
+     */
+    public static void sendToServer(IMessage message) {
+        PacketDispatcher.dispatcher.sendToServer(message);
+    }
+
+    private static final class Batch {
+
+        private final List<IMessage> messages = new ArrayList<>();
+        // cubes sent by a PacketCubes in this batch, and the index of that packet
+        private final Map<CubePos, Integer> loadedCubes = new HashMap<>();
+        // number of cubes not unloaded yet, for each PacketCubes in this batch that can still be dropped
+        private final Map<Integer, Integer> remainingCubes = new HashMap<>();
+
+        void add(IMessage message) {
+            int index = messages.size();
+            messages.add(message);
+            if (message instanceof PacketCubes) {
+                CubePos[] cubePos = ((PacketCubes) message).getCubePos();
+                for (CubePos pos : cubePos) {
+                    keepLoad(pos);
+                    loadedCubes.put(pos, index);
+                }
+                remainingCubes.put(index, cubePos.length);
+            } else if (message instanceof PacketUnloadCube) {
+                // the unload is always kept, the client may have had the cube before this batch
+                Integer loadIndex = loadedCubes.remove(((PacketUnloadCube) message).getCubePos());
+                Integer remaining = loadIndex == null ? null : remainingCubes.computeIfPresent(loadIndex, (i, count) -> count - 1);
+                if (remaining != null && remaining == 0) {
+                    remainingCubes.remove(loadIndex);
+                    messages.set(loadIndex, null);
+                }
+            } else if (message instanceof PacketUnloadColumn) {
+                // cubes of the column are unloaded together with it, their PacketCubes are just kept to keep this simple
+                ChunkPos columnPos = ((PacketUnloadColumn) message).getColumnPos();
+                new ArrayList<>(loadedCubes.keySet()).stream()
+                        .filter(pos -> pos.getX() == columnPos.x && pos.getZ() == columnPos.z)
+                        .forEach(this::keepLoad);
+            } else if (message instanceof PacketCubeBlockChange) {
+                keepLoad(((PacketCubeBlockChange) message).getCubePos());
+            } else if (message instanceof PacketCubeSkyLightUpdates) {
+                for (PacketCubeSkyLightUpdates.CubeUpdates updates : ((PacketCubeSkyLightUpdates) message).getCubes()) {
+                    keepLoad(updates.getPos());
+                }
+            }
+        }
+
+        /**
+         * Makes sure the PacketCubes that sends this cube is not dropped, because other messages depend on it
+         */
+        private void keepLoad(CubePos pos) {
+            Integer loadIndex = loadedCubes.remove(pos);
+            if (loadIndex != null) {
+                remainingCubes.remove(loadIndex);
+            }
+        }
+
+        void send(EntityPlayerMP player) {
+            List<IMessage> toSend = new ArrayList<>(messages.size());
+            for (IMessage message : messages) {
+                if (message != null) {
+                    toSend.add(message);
+                }
+            }
+            if (toSend.size() == 1) {
+                sendTo(toSend.get(0), player);
+            } else if (!toSend.isEmpty()) {
+                sendTo(new PacketBatch(toSend), player);
+            }
+        }
+    }
 }
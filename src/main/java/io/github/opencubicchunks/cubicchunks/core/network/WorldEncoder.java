@@ -24,81 +24,227 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.network;
 
+import com.google.common.hash.Hashing;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlockStorageCodec;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.BlockStateContainer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
+    // cube flags in the compact format. The first 3 have the same meaning as in the raw format
+    private static final int FLAG_EMPTY = 1;
+    private static final int FLAG_STORAGE = 2;
+    private static final int FLAG_BIOMES = 4;
+    private static final int FLAG_UNIFORM_BLOCKS = 8;
+    private static final int FLAG_UNIFORM_BLOCK_LIGHT = 16;
+    private static final int FLAG_UNIFORM_SKY_LIGHT = 32;
+
+    private static final int HEIGHTMAP_BYTES = Cube.SIZE * Cube.SIZE * Integer.BYTES;
+
+    private static final int PAYLOAD_RAW = 0;
+    private static final int PAYLOAD_DEFLATED = 1;
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * Block, light and biome data of a single cube, split into the sections of the cube data format. This allows encoding a cube once
+     * and putting it into packets for many players with {@link #encodeCubes(List, int, int)}.
+     */
+    static final class EncodedCube {
+        private final int flags;
+        private final byte[] blocks;
+        private final byte[] blockLight;
+        private final byte[] skyLight;
+        private final byte[] biomes;
+        @Nullable private final Chunk column;
+
+        private EncodedCube(int flags, byte[] blocks, byte[] blockLight, byte[] skyLight, byte[] biomes, @Nullable Chunk column) {
+            this.flags = flags;
+            this.blocks = blocks;
+            this.blockLight = blockLight;
+            this.skyLight = skyLight;
+            this.biomes = biomes;
+            this.column = column;
+        }
+
+        private int getSize() {
+            return 1 + blocks.length + blockLight.length + skyLight.length + biomes.length;
+        }
+
+        private EncodedCube withoutColumn() {
+            return new EncodedCube(flags, blocks, blockLight, skyLight, biomes, null);
+        }
+    }
+
+    /**
+     * Block, light, biome and heightmap data of cubes decoded by {@link #decodeCubes(CubePos[], int, byte[], boolean)}, not yet
+     * attached to any cube. Storages are complete, including block ref counts.
+     */
+    static final class DecodedCubes {
+        private final ExtendedBlockStorage[] storages;
+        private final byte[][] biomes;
+        private final Long2ObjectMap<int[]> heightMaps;
+
+        private DecodedCubes(ExtendedBlockStorage[] storages, byte[][] biomes, Long2ObjectMap<int[]> heightMaps) {
+            this.storages = storages;
+            this.biomes = biomes;
+            this.heightMaps = heightMaps;
+        }
+    }
+
+    /**
+     * Encodes a cube in the given {@link CubeDataFormat}. All data is copied, so the result doesn't change when the cube does.
+     * In {@link CubeDataFormat#COMPACT} format, block and light data that has the same value everywhere is written as a single value.
+     */
+    static EncodedCube encodeCube(Cube cube, int format) {
+        boolean compact = format == CubeDataFormat.COMPACT;
+        ExtendedBlockStorage storage = cube.getStorage();
+        int flags = 0;
+        byte[] blocks = NO_DATA;
+        byte[] blockLight = NO_DATA;
+        byte[] skyLight = NO_DATA;
+        byte[] biomes = NO_DATA;
+
+        if (cube.isEmpty()) {
+            flags |= FLAG_EMPTY;
+        } else {
+            //noinspection ConstantConditions
+            BlockStateContainer data = storage.getData();
+            IBlockState uniformState = compact ? BlockStorageCodec.getUniformState(storage) : null;
+            PacketBuffer out;
+            if (uniformState != null) {
+                flags |= FLAG_UNIFORM_BLOCKS;
+                out = new PacketBuffer(Unpooled.buffer(5));
+                out.writeVarInt(Block.BLOCK_STATE_IDS.get(uniformState));
+            } else {
+                out = new PacketBuffer(Unpooled.buffer(data.getSerializedSize()));
+                data.write(out);
+            }
+            blocks = toByteArray(out);
+        }
+        if (storage != null) {
+            flags |= FLAG_STORAGE;
+            blockLight = encodeLight(storage.getBlockLight().getData(), compact);
+            if (blockLight.length == 1) {
+                flags |= FLAG_UNIFORM_BLOCK_LIGHT;
+            }
+            if (cube.getWorld().provider.hasSkyLight()) {
+                skyLight = encodeLight(storage.getSkyLight().getData(), compact);
+                if (skyLight.length == 1) {
+                    flags |= FLAG_UNIFORM_SKY_LIGHT;
+                }
+            }
+        }
+        if (cube.getBiomeArray() != null) {
+            flags |= FLAG_BIOMES;
+            biomes = cube.getBiomeArray().clone();
+        }
+        return new EncodedCube(flags, blocks, blockLight, skyLight, biomes, cube.isEmpty() ? null : cube.getColumn());
+    }
+
+    /**
+     * Puts encoded cubes together into a cube data payload. In {@link CubeDataFormat#COMPACT} format, if compressionLevel is above 0,
+     * the whole payload is deflated.
+     * <p>
+     * Heightmaps are read from the columns at this point, not when the cubes were encoded.
+     */
+    static byte[] encodeCubes(List<EncodedCube> cubes, int format, int compressionLevel) {
         // write first all the flags, then all the block data, then all the light data etc for better compression
+        byte[] data = new byte[getEncodedSize(cubes, format)];
+        PacketBuffer out = new PacketBuffer(createByteBufForWrite(data));
 
         // 1. emptiness
-        cubes.forEach(cube -> {
-            byte flags = 0;
-            if(cube.isEmpty())
-                flags |= 1;
-            if(cube.getStorage() != null)
-                flags |= 2;
-            if(cube.getBiomeArray() != null)
-                flags |= 4;
-            out.writeByte(flags);
-        });
+        cubes.forEach(cube -> out.writeByte(cube.flags));
 
         // 2. block IDs and metadata
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
-            }
-        });
+        cubes.forEach(cube -> out.writeBytes(cube.blocks));
 
         // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
-            }
-        });
+        cubes.forEach(cube -> out.writeBytes(cube.blockLight));
 
         // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
-            }
-        });
+        cubes.forEach(cube -> out.writeBytes(cube.skyLight));
 
         // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
         // to update this data.
         // trying to keep track of when it changes would be complex, so send
-        // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-                assert heightmaps.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
-                out.writeBytes(heightmaps);
-            }
-        });
-        
+        // it with all cubes. The compact format sends it only once for each column
+        if (format == CubeDataFormat.COMPACT) {
+            writeHeightMaps(out, cubes);
+        } else {
+            writeCubeHeightMaps(out, cubes);
+        }
+
         // 6. biomes
-        cubes.forEach(cube -> {
-            if (cube.getBiomeArray() != null)
-                out.writeBytes(cube.getBiomeArray());
-        });
+        cubes.forEach(cube -> out.writeBytes(cube.biomes));
+
+        if (format != CubeDataFormat.COMPACT) {
+            return data;
+        }
+        return compressionLevel > 0 ? deflate(data, compressionLevel) : raw(data);
+    }
+
+    /**
+     * Encodes heightmaps of the columns of the cubes, in the same format as the heightmap section of {@link #encodeCubes(List, int, int)}
+     */
+    static byte[] encodeHeightMaps(List<EncodedCube> cubes) {
+        byte[] data = new byte[Integer.BYTES + getHeightMapColumns(cubes).size() * (2 * Integer.BYTES + HEIGHTMAP_BYTES)];
+        writeHeightMaps(new PacketBuffer(createByteBufForWrite(data)), cubes);
+        return data;
+    }
+
+    /**
+     * Returns a hash of block, light and biome data of a cube, used to find it in {@link ClientCubeCache}. To give the same hash for
+     * the same content, the cube must be encoded in {@link CubeDataFormat#COMPACT} format on both sides.
+     */
+    static long hashCube(EncodedCube cube) {
+        return Hashing.murmur3_128().newHasher()
+                .putInt(cube.flags)
+                .putInt(cube.blocks.length).putBytes(cube.blocks)
+                .putInt(cube.blockLight.length).putBytes(cube.blockLight)
+                .putInt(cube.skyLight.length).putBytes(cube.skyLight)
+                .putInt(cube.biomes.length).putBytes(cube.biomes)
+                .hash().asLong();
+    }
+
+    /**
+     * Encodes a single cube for {@link ClientCubeCache}, without heightmap data. It's read back with
+     * {@link #decodeCachedCubes(CubePos[], byte[][], byte[], boolean)}.
+     */
+    static byte[] encodeCubeForCache(EncodedCube cube) {
+        return encodeCubes(Collections.singletonList(cube.withoutColumn()), CubeDataFormat.COMPACT, Deflater.BEST_SPEED);
     }
 
     static void encodeColumn(PacketBuffer out, Chunk column) {
@@ -111,112 +257,313 @@ class WorldEncoder {
         in.readBytes(column.getBiomeArray());
     }
 
-    static void decodeCube(PacketBuffer in, List<Cube> cubes) {
-        cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
+    /**
+     * Decodes cubes encoded with {@link #encodeCubes(List, int, int)}. This doesn't access the world, so it can be done on any thread.
+     * The result is applied to the cubes with {@link #applyDecodedCubes(DecodedCubes, List)}.
+     *
+     * @param cubePos positions of the encoded cubes, in the same order as when they were encoded
+     * @param format the {@link CubeDataFormat} of the data
+     * @param data the encoded data
+     * @param hasSkyLight whether the world the cubes are in has sky light
+     */
+    static DecodedCubes decodeCubes(CubePos[] cubePos, int format, byte[] data, boolean hasSkyLight) {
+        // the raw format is the compact format without the uniform flags and payload type
+        PacketBuffer in = new PacketBuffer(format == CubeDataFormat.COMPACT ? unpack(data) : createByteBufForRead(data));
+        int count = cubePos.length;
 
-        // 1. emptiness
-        boolean[] isEmpty = new boolean[cubes.size()];
-        boolean[] hasStorage = new boolean[cubes.size()];
-        boolean[] hasCustomBiomeMap = new boolean[cubes.size()];
-
-        for (int i = 0; i < cubes.size(); i++) {
-            byte flags = in.readByte();
-            isEmpty[i] = (flags & 1) != 0 || cubes.get(i) == null;
-            hasStorage[i] = (flags & 2) != 0 && cubes.get(i) != null;
-            hasCustomBiomeMap[i] = (flags & 4) != 0 && cubes.get(i) != null;
-        }
-
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                Cube cube = cubes.get(i);
-                ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                        cube.getWorld().provider.hasSkyLight());
-                cube.setStorage(storage);
+        // 1. flags
+        int[] flags = new int[count];
+        ExtendedBlockStorage[] storages = new ExtendedBlockStorage[count];
+        for (int i = 0; i < count; i++) {
+            flags[i] = in.readUnsignedByte();
+            if ((flags[i] & FLAG_STORAGE) != 0) {
+                storages[i] = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubePos[i].getY()), hasSkyLight);
             }
         }
 
-        // 2. Block IDs and metadata
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
+        // 2. block IDs and metadata
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_EMPTY) != 0) {
+                continue;
+            }
+            if ((flags[i] & FLAG_UNIFORM_BLOCKS) != 0) {
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+                BlockStorageCodec.fill(storages[i], state == null ? Blocks.AIR.getDefaultState() : state);
+            } else {
+                storages[i].getData().read(in);
             }
         }
 
         // 3. block light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_STORAGE) != 0) {
+                readLight(in, storages[i].getBlockLight().getData(), (flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0);
             }
         }
 
         // 4. sky light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i] && cubes.get(i).getWorld().provider.hasSkyLight()) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_STORAGE) != 0 && hasSkyLight) {
+                readLight(in, storages[i].getSkyLight().getData(), (flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0);
             }
         }
 
-        // 5. heightmaps and after all that - update ref counts
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
-                byte[] heightmaps = new byte[Cube.SIZE * Cube.SIZE * Integer.BYTES];
-                in.readBytes(heightmaps);
-                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-                coi.setData(heightmaps);
-
-                //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
+        // 5. heightmaps and after all that - update ref counts, uniform cubes already have them from fill
+        Long2ObjectMap<int[]> heightMaps = format == CubeDataFormat.COMPACT ? readHeightMaps(in) : readCubeHeightMaps(in, cubePos, flags);
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & (FLAG_EMPTY | FLAG_UNIFORM_BLOCKS)) == 0) {
+                storages[i].recalculateRefCounts();
             }
         }
-        
+
         // 6. biomes
+        byte[][] biomes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_BIOMES) != 0) {
+                biomes[i] = new byte[Coords.BIOMES_PER_CUBE];
+                in.readBytes(biomes[i]);
+            }
+        }
+        return new DecodedCubes(storages, biomes, heightMaps);
+    }
+
+    /**
+     * Decodes cubes loaded from {@link ClientCubeCache}, together with heightmaps from {@link #encodeHeightMaps(List)}. Cubes that
+     * have no cached data get only the heightmaps.
+     *
+     * @param cubePos positions of the cubes
+     * @param cached data of each cube from {@link #encodeCubeForCache(EncodedCube)}, or null if it wasn't cached
+     * @param heightMaps the encoded heightmaps
+     * @param hasSkyLight whether the world the cubes are in has sky light
+     */
+    static DecodedCubes decodeCachedCubes(CubePos[] cubePos, byte[][] cached, byte[] heightMaps, boolean hasSkyLight) {
+        ExtendedBlockStorage[] storages = new ExtendedBlockStorage[cubePos.length];
+        byte[][] biomes = new byte[cubePos.length][];
+        for (int i = 0; i < cubePos.length; i++) {
+            if (cached[i] != null) {
+                DecodedCubes decoded = decodeCubes(new CubePos[]{cubePos[i]}, CubeDataFormat.COMPACT, cached[i], hasSkyLight);
+                storages[i] = decoded.storages[0];
+                biomes[i] = decoded.biomes[0];
+            }
+        }
+        return new DecodedCubes(storages, biomes, readHeightMaps(new PacketBuffer(createByteBufForRead(heightMaps))));
+    }
+
+    /**
+     * Puts decoded data into the cubes. Must be called from the client thread.
+     *
+     * @param decoded the decoded data
+     * @param cubes the cubes, in the same order as the positions given to {@link #decodeCubes(CubePos[], int, byte[], boolean)}.
+     * Data of null cubes is discarded.
+     */
+    static void applyDecodedCubes(DecodedCubes decoded, List<Cube> cubes) {
+        Long2ObjectMap<Chunk> columns = new Long2ObjectOpenHashMap<>();
         for (int i = 0; i < cubes.size(); i++) {
-            if (!hasCustomBiomeMap[i])
-                continue;
             Cube cube = cubes.get(i);
-            byte[] blockBiomeArray = new byte[Coords.BIOMES_PER_CUBE];
-            in.readBytes(blockBiomeArray);
-            cube.setBiomeArray(blockBiomeArray);
+            if (cube == null) {
+                continue;
+            }
+            cube.setClientCube();
+            if (decoded.storages[i] != null) {
+                cube.setStorage(decoded.storages[i]);
+            }
+            if (decoded.biomes[i] != null) {
+                cube.setBiomeArray(decoded.biomes[i]);
+            }
+            columns.put(ChunkPos.asLong(cube.getX(), cube.getZ()), cube.getColumn());
+        }
+        for (Long2ObjectMap.Entry<int[]> entry : decoded.heightMaps.long2ObjectEntrySet()) {
+            Chunk column = columns.get(entry.getLongKey());
+            if (column != null) {
+                ((ClientHeightMap) ((IColumn) column).getOpacityIndex()).setHeights(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns columns of all non-empty cubes, each column once.
+     */
+    private static Collection<Chunk> getHeightMapColumns(List<EncodedCube> cubes) {
+        Set<Chunk> columns = new LinkedHashSet<>();
+        for (EncodedCube cube : cubes) {
+            if (cube.column != null) {
+                columns.add(cube.column);
+            }
+        }
+        return columns;
+    }
+
+    private static void writeHeightMaps(PacketBuffer out, List<EncodedCube> cubes) {
+        Collection<Chunk> columns = getHeightMapColumns(cubes);
+        out.writeInt(columns.size());
+        for (Chunk column : columns) {
+            out.writeInt(column.x);
+            out.writeInt(column.z);
+            ((ServerHeightMap) ((IColumn) column).getOpacityIndex()).writeDataForClient(out);
+        }
+    }
+
+    private static Long2ObjectMap<int[]> readHeightMaps(PacketBuffer in) {
+        int count = in.readInt();
+        Long2ObjectMap<int[]> heightMaps = new Long2ObjectOpenHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = in.readInt();
+            int z = in.readInt();
+            heightMaps.put(ChunkPos.asLong(x, z), readHeights(in));
+        }
+        return heightMaps;
+    }
+
+    /**
+     * Writes the heightmap of the column of each non-empty cube, as {@link CubeDataFormat#RAW} does
+     */
+    private static void writeCubeHeightMaps(PacketBuffer out, List<EncodedCube> cubes) {
+        for (EncodedCube cube : cubes) {
+            if (cube.column != null) {
+                ((ServerHeightMap) ((IColumn) cube.column).getOpacityIndex()).writeDataForClient(out);
+            }
+        }
+    }
+
+    private static Long2ObjectMap<int[]> readCubeHeightMaps(PacketBuffer in, CubePos[] cubePos, int[] flags) {
+        Long2ObjectMap<int[]> heightMaps = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < cubePos.length; i++) {
+            if ((flags[i] & FLAG_EMPTY) == 0) {
+                heightMaps.put(ChunkPos.asLong(cubePos[i].getX(), cubePos[i].getZ()), readHeights(in));
+            }
+        }
+        return heightMaps;
+    }
+
+    private static int[] readHeights(PacketBuffer in) {
+        int[] heights = new int[Cube.SIZE * Cube.SIZE];
+        for (int j = 0; j < heights.length; j++) {
+            heights[j] = in.readInt();
+        }
+        return heights;
+    }
+
+    private static byte[] encodeLight(byte[] light, boolean compact) {
+        return compact && isUniform(light) ? new byte[]{light[0]} : light.clone();
+    }
+
+    private static boolean isUniform(byte[] light) {
+        byte first = light[0];
+        for (int i = 1; i < light.length; i++) {
+            if (light[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readLight(PacketBuffer in, byte[] light, boolean uniform) {
+        if (uniform) {
+            Arrays.fill(light, in.readByte());
+        } else {
+            in.readBytes(light);
+        }
+    }
+
+    private static byte[] toByteArray(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        buf.release();
+        return data;
+    }
+
+    private static byte[] raw(byte[] payload) {
+        byte[] data = new byte[payload.length + 1];
+        data[0] = PAYLOAD_RAW;
+        System.arraycopy(payload, 0, data, 1, payload.length);
+        return data;
+    }
+
+    private static byte[] deflate(byte[] payload, int level) {
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(payload);
+        deflater.finish();
+        PacketBuffer out = new PacketBuffer(Unpooled.buffer(payload.length / 4 + 16));
+        out.writeByte(PAYLOAD_DEFLATED);
+        out.writeVarInt(payload.length);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.writeBytes(buffer, 0, count);
         }
+        deflater.end();
+        return toByteArray(out);
+    }
+
+    private static ByteBuf unpack(byte[] data) {
+        if (data[0] == PAYLOAD_RAW) {
+            return Unpooled.wrappedBuffer(data, 1, data.length - 1);
+        }
+        if (data[0] != PAYLOAD_DEFLATED) {
+            throw new IllegalArgumentException("Unknown cube payload type " + data[0]);
+        }
+        PacketBuffer in = new PacketBuffer(Unpooled.wrappedBuffer(data, 1, data.length - 1));
+        byte[] payload = new byte[in.readVarInt()];
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, 1 + in.readerIndex(), in.readableBytes());
+        try {
+            int offset = 0;
+            while (offset < payload.length && !inflater.finished()) {
+                int count = inflater.inflate(payload, offset, payload.length - offset);
+                if (count == 0 && inflater.needsInput()) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != payload.length) {
+                throw new IllegalArgumentException("Truncated cube payload, expected " + payload.length + " bytes but got " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted cube payload", e);
+        } finally {
+            inflater.end();
+        }
+        return Unpooled.wrappedBuffer(payload);
     }
 
     static int getEncodedSize(Chunk column) {
         return column.getBiomeArray().length;
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
+    static int getEncodedSize(List<EncodedCube> cubes, int format) {
         int size = 0;
 
-        // 1. isEmpty, hasStorage and hasBiomeArray flags packed in one byte
-        size += cubes.size();
-
-        // 2. block IDs and metadata
-        for (Cube cube : cubes) {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
-            }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
-                }
+        // flags, block IDs and metadata, light and biomes, and in raw format a heightmap for each non-empty cube
+        for (EncodedCube cube : cubes) {
+            size += cube.getSize();
+            if (format != CubeDataFormat.COMPACT && cube.column != null) {
+                size += HEIGHTMAP_BYTES;
             }
         }
+        // heightmaps, once per column
+        if (format == CubeDataFormat.COMPACT) {
+            size += Integer.BYTES + getHeightMapColumns(cubes).size() * (2 * Integer.BYTES + HEIGHTMAP_BYTES);
+        }
+        return size;
+    }
 
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
-        // biomes
-        for (Cube cube : cubes) {
-            byte[] biomeArray = cube.getBiomeArray();
-            if (biomeArray == null)
-                continue;
+    /**
+     * Returns approximate size of a cube in {@link PacketCubes}, without encoding it
+     */
+    static int getEncodedSizeEstimate(Cube cube) {
+        int size = 1 + 2 * Integer.BYTES + HEIGHTMAP_BYTES;
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage != null) {
+            if (!storage.isEmpty()) {
+                size += storage.getData().getSerializedSize();
+            }
+            size += storage.getBlockLight().getData().length;
+            if (cube.getWorld().provider.hasSkyLight()) {
+                size += storage.getSkyLight().getData().length;
+            }
+        }
+        byte[] biomeArray = cube.getBiomeArray();
+        if (biomeArray != null) {
             size += biomeArray.length;
         }
         return size;
@@ -24,19 +24,31 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server;
 
+import com.google.common.collect.ImmutableSetMultimap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.ForgeChunkManager;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.Collection;
 import java.util.Iterator;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Instead of checking every loaded cube and column, only unload candidates are checked: cubes and columns that were
+ * just loaded, cubes whose last ticket was removed, and columns that lost their last cube or their column watcher.
+ * A candidate is checked once it has been queued for at least {@link CubicChunksConfig#chunkGCInterval} ticks, and
+ * only as many candidates are checked each tick as fit in {@link CubicChunksConfig#chunkGCTimePerTick}.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
@@ -44,25 +56,114 @@ public class ChunkGc {
 
     private final CubeProviderServer cubeCache;
 
-    private int tick = 0;
+    // candidates in the order they were queued, mapped to the tick they were queued at
+    private final Object2LongLinkedOpenHashMap<Cube> cubeCandidates = new Object2LongLinkedOpenHashMap<>();
+    private final Object2LongLinkedOpenHashMap<Chunk> columnCandidates = new Object2LongLinkedOpenHashMap<>();
+
+    // ForgeChunkManager creates a new multimap whenever forced chunks change, so it's enough to compare the instance
+    @Nullable private ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks;
+    private final LongSet persistentColumns = new LongOpenHashSet();
+
+    private long tick = 0;
 
     public ChunkGc(CubeProviderServer cubeCache) {
         this.cubeCache = cubeCache;
     }
 
+    /**
+     * Queues a cube to be unloaded if it still can be unloaded after {@link CubicChunksConfig#chunkGCInterval} ticks.
+     * Queueing a cube again delays it.
+     *
+     * @param cube the cube
+     */
+    public void queueCube(Cube cube) {
+        cubeCandidates.putAndMoveToLast(cube, tick);
+    }
+
+    /**
+     * Queues a column to be unloaded if it still can be unloaded after {@link CubicChunksConfig#chunkGCInterval}
+     * ticks. Queueing a column again delays it.
+     *
+     * @param column the column
+     */
+    public void queueColumn(Chunk column) {
+        columnCandidates.putAndMoveToLast(column, tick);
+    }
+
     public void tick() {
         cubeCache.world.profiler.startSection("chunkGc");
         tick++;
-        if (tick > CubicChunksConfig.chunkGCInterval) {
-            tick = 0;
-            chunkGc();
-        }
+        processCandidates();
         if (CubicChunks.DEBUG_ENABLED) {
             verifyColumnConsistency();
         }
         cubeCache.world.profiler.endSection();
     }
 
+    private void processCandidates() {
+        long deadline = System.nanoTime() + CubicChunksConfig.chunkGCTimePerTick * 1000L;
+        long maxQueuedTick = tick - CubicChunksConfig.chunkGCInterval;
+
+        while (!cubeCandidates.isEmpty() && System.nanoTime() < deadline) {
+            Cube cube = cubeCandidates.firstKey();
+            if (cubeCandidates.getLong(cube) > maxQueuedTick) {
+                break;
+            }
+            cubeCandidates.removeFirstLong();
+            if (cubeCache.getLoadedCube(cube.getX(), cube.getY(), cube.getZ()) != cube) {
+                continue; // already unloaded
+            }
+            if (isPersistent(cube.getX(), cube.getZ())) {
+                queueCube(cube); // check again when the column may no longer be forced
+                continue;
+            }
+            // if it has tickets, it will be queued again when the last one is removed
+            if (cubeCache.tryUnloadCube(cube)) {
+                cubeCache.removeUnloadedCube(cube);
+                Chunk column = (Chunk) cube.getColumn();
+                if (!((IColumn) column).hasLoadedCubes()) {
+                    queueColumn(column);
+                }
+            }
+        }
+
+        while (!columnCandidates.isEmpty() && System.nanoTime() < deadline) {
+            Chunk column = columnCandidates.firstKey();
+            if (columnCandidates.getLong(column) > maxQueuedTick) {
+                break;
+            }
+            columnCandidates.removeFirstLong();
+            if (cubeCache.getLoadedColumn(column.x, column.z) != column) {
+                continue; // already unloaded
+            }
+            // cubes and column watchers queue the column again when they are gone
+            if (((IColumn) column).hasLoadedCubes() || cubeCache.world.getPlayerChunkMap().contains(column.x, column.z)) {
+                continue;
+            }
+            if (isPersistent(column.x, column.z)) {
+                queueColumn(column);
+                continue;
+            }
+            if (cubeCache.tryUnloadColumn(column)) {
+                cubeCache.removeUnloadedColumn(column);
+            } else {
+                queueColumn(column); // cubes of this column are still being loaded
+            }
+        }
+    }
+
+    private boolean isPersistent(int columnX, int columnZ) {
+        ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> chunks = ForgeChunkManager.getPersistentChunksFor(cubeCache.world);
+        if (chunks != persistentChunks) {
+            persistentChunks = chunks;
+            persistentColumns.clear();
+            for (ChunkPos pos : chunks.keySet()) {
+                persistentColumns.add(ChunkPos.asLong(pos.x, pos.z));
+            }
+        }
+        return persistentColumns.contains(ChunkPos.asLong(columnX, columnZ));
+    }
+
     private void verifyColumnConsistency() {
         // currently do that every tick, until I'm sure it doesn't happen
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
@@ -97,17 +198,22 @@ public class ChunkGc {
         }
     }
 
+    /**
+     * Checks all loaded cubes and columns and unloads the ones that can be unloaded, ignoring the unload queue.
+     */
     public void chunkGc() {
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
         while (cubeIt.hasNext()) {
-            if (cubeCache.tryUnloadCube(cubeIt.next())) {
+            Cube cube = cubeIt.next();
+            if (!isPersistent(cube.getX(), cube.getZ()) && cubeCache.tryUnloadCube(cube)) {
                 cubeIt.remove();
             }
         }
 
         Iterator<Chunk> columnIt = cubeCache.columnsIterator();
         while (columnIt.hasNext()) {
-            if (cubeCache.tryUnloadColumn(columnIt.next())) {
+            Chunk column = columnIt.next();
+            if (!isPersistent(column.x, column.z) && cubeCache.tryUnloadColumn(column)) {
                 columnIt.remove();
             }
         }
@@ -109,7 +109,9 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         if (this.isSentToPlayers()) {
             if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
                 PacketColumn message = new PacketColumn(this.getChunk());
-                PacketDispatcher.sendTo(message, player);
+                PacketDispatcher.sendBatched(message, player);
+                // event handlers may send packets that need the column on the client
+                PacketDispatcher.flush(player);
             } else {
                 playerCubeMap.vanillaNetworkHandler.sendColumnLoadPacket(this.getChunk(), player);
             }
@@ -139,7 +141,7 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
 
         if (this.isSentToPlayers()) {
             if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                PacketDispatcher.sendTo(new PacketUnloadColumn(getPos()), player);
+                PacketDispatcher.sendBatched(new PacketUnloadColumn(getPos()), player);
             } else {
                 playerCubeMap.vanillaNetworkHandler.sendColumnUnloadPacket(getPos(), player);
             }
@@ -171,7 +173,7 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
             PacketColumn message = new PacketColumn(this.getChunk());
             for (EntityPlayerMP player : self().getPlayerList()) {
                 if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketDispatcher.sendTo(message, player);
+                    PacketDispatcher.sendBatched(message, player);
                 } else {
                     playerCubeMap.vanillaNetworkHandler.sendColumnLoadPacket(this.getChunk(), player);
                 }
@@ -216,7 +218,7 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         assert getChunk() != null;
         for (EntityPlayerMP player : self().getPlayerList()) {
             if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                PacketDispatcher.sendTo(new PacketHeightMapUpdate(getPos(), dirtyColumns, ((IColumn) getChunk()).getOpacityIndex()), player);
+                PacketDispatcher.sendBatched(new PacketHeightMapUpdate(getPos(), dirtyColumns, ((IColumn) getChunk()).getOpacityIndex()), player);
             }
         }
         this.dirtyColumns.clear();
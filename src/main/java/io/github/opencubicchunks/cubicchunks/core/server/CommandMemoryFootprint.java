@@ -0,0 +1,100 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Prints the estimated memory footprint of loaded cubes and columns, see {@link MemoryFootprint}.
+ * <p>
+ * Usage: {@code /cubicmemory [dimension]}, without dimension all cubic chunks worlds are measured.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CommandMemoryFootprint extends CommandBase {
+
+    @Override public String getName() {
+        return "cubicmemory";
+    }
+
+    @Override public String getUsage(ICommandSender sender) {
+        return "/cubicmemory [dimension]";
+    }
+
+    @Override public int getRequiredPermissionLevel() {
+        return 2;
+    }
+
+    @Override public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        List<WorldServer> worlds = new ArrayList<>();
+        if (args.length == 0) {
+            for (WorldServer world : DimensionManager.getWorlds()) {
+                if (((ICubicWorld) world).isCubicWorld()) {
+                    worlds.add(world);
+                }
+            }
+        } else {
+            int dimension = parseInt(args[0]);
+            WorldServer world = DimensionManager.getWorld(dimension);
+            if (world == null || !((ICubicWorld) world).isCubicWorld()) {
+                throw new CommandException("Dimension " + dimension + " is not a loaded cubic chunks world");
+            }
+            worlds.add(world);
+        }
+        for (WorldServer world : worlds) {
+            for (String line : MemoryFootprint.measure(world).format()) {
+                sender.sendMessage(new TextComponentString(line));
+            }
+        }
+    }
+
+    @Override public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args,
+            @Nullable BlockPos targetPos) {
+        if (args.length != 1) {
+            return Collections.emptyList();
+        }
+        List<String> dimensions = new ArrayList<>();
+        for (Integer id : DimensionManager.getIDs()) {
+            dimensions.add(id.toString());
+        }
+        return getListOfStringsMatchingLastWord(args, dimensions);
+    }
+}
@@ -34,8 +34,8 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
@@ -52,7 +52,6 @@ import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkPrimer;
 import net.minecraft.world.gen.ChunkProviderServer;
-import net.minecraftforge.common.ForgeChunkManager;
 import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
@@ -88,12 +87,13 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private final WorldServer worldServer;
     @Nonnull private final ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private final XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // concurrent so that getLoadedCube can be used from worker threads
+    @Nonnull private final ConcurrentXYZMap<Cube> cubeMap = new ConcurrentXYZMap<>(0.7f, 8000);
 
     @Nonnull private final CubePrimer cubePrimer;
     @Nonnull private final ICubeGenerator cubeGen;
     @Nonnull private final Profiler profiler;
+    @Nonnull private final ChunkGc chunkGc;
     // some mods will try to access blocks in ChunkDataEvent.Load
     // this needs the column to be already known by the chunk provider so that it can load cubes without trying to load the column again
     private Chunk currentlyLoadingColumn;
@@ -107,6 +107,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.cubeGen = cubeGen;
         this.worldServer = worldServer;
         this.profiler = worldServer.profiler;
+        this.chunkGc = new ChunkGc(this);
         try {
             this.cubeIO = new RegionCubeIO(worldServer);
         } catch (IOException e) {
@@ -366,6 +367,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             if (!((IColumn) column).getLoadedCubes().contains(cube)) {
                 ((IColumn) column).addCube(cube);
                 cube.onLoad(); // init the Cube
+                chunkGc.queueCube(cube); // unload it if nothing adds a ticket to it
             }
         }
     }
@@ -619,6 +621,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             loadedChunks.put(ChunkPos.asLong(columnX, columnZ), column);
             column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
             column.onLoad();
+            chunkGc.queueColumn(column);
             return column;
         } else if (req == Requirement.LOAD) {
             return null;
@@ -635,6 +638,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         loadedChunks.put(ChunkPos.asLong(columnX, columnZ), column);
         column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
         column.onLoad();
+        chunkGc.queueColumn(column);
         return column;
     }
 
@@ -676,10 +680,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return loadedChunks.values().iterator();
     }
 
+    /**
+     * Unloads the cube if it has no tickets. Doesn't check for forced chunks and doesn't remove the cube from the
+     * lookup table, that is left to {@link ChunkGc}.
+     */
     boolean tryUnloadCube(Cube cube) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(cube.getColumn().getPos())) {
-            return false; // it will be unloaded later by ChunkGC
-        }
         if (!cube.getTickets().canUnload()) {
             return false; // There are tickets
         }
@@ -690,6 +695,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (cube.needsSaving()) { // save the Cube, if it needs saving
             this.cubeIO.saveCube(cube);
         }
+        this.cubeIO.onCubeUnload(cube);
 
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
@@ -697,10 +703,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return true;
     }
 
+    /**
+     * Unloads the column if nothing uses it. Doesn't check for forced chunks and doesn't remove the column from the
+     * lookup table, that is left to {@link ChunkGc}.
+     */
     boolean tryUnloadColumn(Chunk column) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(column.getPos())) {
-            return false; // it will be unloaded later by ChunkGC
-        }
         if (((IColumn) column).hasLoadedCubes()) {
             return false; // It has loaded Cubes in it (Cubes are to Columns, as tickets are to Cubes... in a way)
         }
@@ -724,6 +731,18 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return true;
     }
 
+    void removeUnloadedCube(Cube cube) {
+        cubeMap.remove(cube);
+    }
+
+    void removeUnloadedColumn(Chunk column) {
+        loadedChunks.remove(ChunkPos.asLong(column.x, column.z));
+    }
+
+    public ChunkGc getChunkGc() {
+        return chunkGc;
+    }
+
     public ICubeGenerator getCubeGenerator() {
         return cubeGen;
     }
@@ -57,6 +57,8 @@ import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -66,6 +68,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class CubeWatcher implements ITicket, ICubeWatcher {
 
+    private static final int MAX_DIRTY_BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
     private final Consumer<Cube> consumer;
 
     private final CubeProviderServer cubeCache;
@@ -138,7 +142,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         }
 
         if (this.sentToPlayers) {
-            PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
+            PacketDispatcher.sendBatched(new PacketUnloadCube(this.cubePos), player);
             playerCubeMap.removeSchedulesSendCubeToPlayer(cube, player);
         }
 
@@ -285,12 +289,34 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         if (this.dirtyBlocks.isEmpty()) {
             playerCubeMap.addToUpdateEntry(this);
         }
-        // If the number of changes is above clumpingThreshold
+        // If there are too many changes
         // we send the whole cube, but to decrease network usage
         // forge sends only TEs that have changed,
         // so we need to know all changed blocks. So add everything
-        // it's a set so no need to check for duplicates
-        this.dirtyBlocks.add((short) AddressTools.getLocalAddress(localX, localY, localZ));
+        // duplicates are removed by PacketCubeBlockChange. If the list gets
+        // as big as the cube, the whole cube will be sent anyway
+        if (this.dirtyBlocks.size() < MAX_DIRTY_BLOCKS) {
+            this.dirtyBlocks.add((short) AddressTools.getLocalAddress(localX, localY, localZ));
+        }
+    }
+
+    /**
+     * Marks many blocks of this cube as changed at once. If the changes don't fit into a block change packet,
+     * the whole cube is sent.
+     *
+     * @param localAddresses local addresses of changed blocks, see {@link AddressTools#getLocalAddress(int, int, int)}
+     */
+    void blocksChanged(TShortList localAddresses) {
+        if (localAddresses.isEmpty()) {
+            return;
+        }
+        if (this.dirtyBlocks.isEmpty()) {
+            playerCubeMap.addToUpdateEntry(this);
+        }
+        int toAdd = Math.min(localAddresses.size(), MAX_DIRTY_BLOCKS - this.dirtyBlocks.size());
+        if (toAdd > 0) {
+            this.dirtyBlocks.addAll(localAddresses.subList(0, toAdd));
+        }
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -306,37 +332,47 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         World world = this.cube.getWorld();
 
-        if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
-            // send whole cube
-            this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
-        } else {
-            // send all the dirty blocks
-            PacketCubeBlockChange packet = null;
-            for (EntityPlayerMP player : this.players) {
-                if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                    if (packet == null) { // create packet lazily
-                        packet = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
-                    }
-                    PacketDispatcher.sendTo(packet, player);
+        // send all the dirty blocks, unless sending the whole cube takes less space
+        boolean sendWholeCube = this.dirtyBlocks.size() >= MAX_DIRTY_BLOCKS;
+        boolean sentBlockChanges = false;
+        PacketCubeBlockChange packet = null;
+        for (EntityPlayerMP player : this.players) {
+            if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
+                if (packet == null && !sendWholeCube) { // create packet lazily
+                    packet = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
+                    sendWholeCube = packet.shouldResendCube(this.cube);
+                }
+                if (sendWholeCube) {
+                    playerCubeMap.scheduleSendCubeToPlayer(cube, player);
                 } else {
-                    playerCubeMap.vanillaNetworkHandler.sendBlockChanges(dirtyBlocks, cube, player);
+                    PacketDispatcher.sendBatched(packet, player);
+                    sentBlockChanges = true;
                 }
+            } else if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
+                playerCubeMap.scheduleSendCubeToPlayer(cube, player);
+            } else {
+                playerCubeMap.vanillaNetworkHandler.sendBlockChanges(dirtyBlocks, cube, player);
+                sentBlockChanges = true;
             }
+        }
+        if (sentBlockChanges) {
             // send the block entites on those blocks too
+            List<Packet<?>> blockEntityPackets = new ArrayList<>();
             this.dirtyBlocks.forEach(localAddress -> {
                 BlockPos pos = cube.localAddressToBlockPos(localAddress);
 
                 IBlockState state = this.cube.getBlockState(pos);
                 if (state.getBlock().hasTileEntity(state)) {
-                    sendBlockEntityToAllPlayers(world.getTileEntity(pos));
+                    addBlockEntityPacket(blockEntityPackets, world.getTileEntity(pos));
                 }
                 return true;
             });
+            sendPacketsToAllPlayers(blockEntityPackets);
         }
         this.dirtyBlocks.clear();
     }
 
-    private void sendBlockEntityToAllPlayers(@Nullable TileEntity blockEntity) {
+    private void addBlockEntityPacket(List<Packet<?>> packets, @Nullable TileEntity blockEntity) {
         if (blockEntity == null) {
             return;
         }
@@ -344,7 +380,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         if (packet == null) {
             return;
         }
-        sendPacketToAllPlayers(packet);
+        packets.add(packet);
     }
 
     boolean containsPlayer(EntityPlayerMP player) {
@@ -429,15 +465,28 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return playerCubeMap.getWorldServer().getWorldTime();
     }
 
-    private void sendPacketToAllPlayers(Packet<?> packet) {
+    private void sendPacketsToAllPlayers(List<Packet<?>> packets) {
+        if (packets.isEmpty()) {
+            return;
+        }
         for (EntityPlayerMP entry : this.players) {
-            entry.connection.sendPacket(packet);
+            // the packets may depend on queued block changes
+            PacketDispatcher.flush(entry);
+            for (Packet<?> packet : packets) {
+                entry.connection.sendPacket(packet);
+            }
         }
     }
 
     @Override public void sendPacketToAllPlayers(IMessage packet) {
         for (EntityPlayerMP entry : this.players) {
-            PacketDispatcher.sendTo(packet, entry);
+            PacketDispatcher.sendBatched(packet, entry);
+        }
+    }
+
+    public void forEachPlayer(Consumer<EntityPlayerMP> action) {
+        for (EntityPlayerMP entry : this.players) {
+            action.accept(entry);
         }
     }
 
@@ -301,6 +301,16 @@ public class EmptyColumn extends Chunk implements IColumn, IColumnInternal {
 
 	}
 
+	@Override
+	public void onCubeTickStateChanged() {
+
+	}
+
+	@Override
+	public IHeightMap getStagingHeightMap() {
+		return null;
+	}
+
 	@Override
 	public int getHeightWithStaging(int localX, int localZ) {
 		return 0;
@@ -0,0 +1,272 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IBlockStateContainer;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.util.HeapSize;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeTileEntityMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Estimated heap usage of the cubes and columns loaded in a world, split by component.
+ * <p>
+ * Only memory held by the cube and column data structures is counted. Block states, entities and tile entities
+ * themselves are shared or owned by other systems and are not included, so the numbers are a lower bound meant for
+ * comparing worlds and finding what dominates, not an exact measurement.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class MemoryFootprint {
+
+    private static final int LARGEST_CUBES = 5;
+
+    private static final long CUBE_BASE = HeapSize.object(HeapSize.REFERENCE * 22 + 48)
+            + HeapSize.array(CubeChangeJournal.Change.values().length, 8);
+    private static final long LIGHT_UPDATE_INFO = HeapSize.object(HeapSize.REFERENCE * 3 + 1)
+            + HeapSize.array(Cube.SIZE * Cube.SIZE, 1)
+            + HeapSize.object(HeapSize.REFERENCE * 2 + 8);
+    private static final long NIBBLE_ARRAY = HeapSize.object(HeapSize.REFERENCE) + HeapSize.array(2048, 1);
+    // vanilla Chunk object and the per-column arrays it always allocates: storage and entity list arrays,
+    // biomes, heightmaps, precipitation heightmap and skylight update flags, plus the tile entity map and queue
+    private static final long COLUMN_BASE = HeapSize.object(HeapSize.REFERENCE * 16 + 40)
+            + HeapSize.array(16, HeapSize.REFERENCE) * 2
+            + HeapSize.array(256, 1) * 2
+            + HeapSize.array(256, 4) * 2
+            + HeapSize.object(HeapSize.REFERENCE * 4 + 24) + HeapSize.array(16, HeapSize.REFERENCE)
+            + HeapSize.object(HeapSize.REFERENCE * 2 + 4);
+
+    public enum Component {
+        CUBE,
+        BLOCKS,
+        BLOCK_LIGHT,
+        SKY_LIGHT,
+        BIOMES,
+        RANDOM_TICK_INDEX,
+        ENTITY_CONTAINER,
+        TILE_ENTITY_MAP,
+        LIGHT_UPDATE_INFO,
+        TICKETS,
+        COLUMN,
+        HEIGHT_MAP,
+        UNLOADED_CUBE_CACHE
+    }
+
+    private final int dimension;
+    private final EnumMap<Component, Long> components = new EnumMap<>(Component.class);
+    private final PriorityQueue<CubeSize> largestCubes = new PriorityQueue<>(Comparator.comparingLong(c -> c.bytes));
+    private int cubeCount;
+    private int emptyCubeCount;
+    private int columnCount;
+
+    private MemoryFootprint(int dimension) {
+        this.dimension = dimension;
+        for (Component component : Component.values()) {
+            components.put(component, 0L);
+        }
+    }
+
+    /**
+     * Walks all cubes and columns loaded in the world and estimates their memory usage. Must be called from the
+     * server thread.
+     *
+     * @param world a cubic chunks world
+     * @return the estimated memory footprint
+     */
+    public static MemoryFootprint measure(WorldServer world) {
+        MemoryFootprint footprint = new MemoryFootprint(world.provider.getDimension());
+        CubeProviderServer cubeCache = ((ICubicWorldInternal.Server) world).getCubeCache();
+
+        Iterator<Cube> cubes = cubeCache.cubesIterator();
+        while (cubes.hasNext()) {
+            footprint.addCube(cubes.next());
+        }
+        Iterator<Chunk> columns = cubeCache.columnsIterator();
+        while (columns.hasNext()) {
+            footprint.addColumn(columns.next());
+        }
+        footprint.add(Component.UNLOADED_CUBE_CACHE, cubeCache.getCubeIO().getUnloadedCubeCacheSize());
+        return footprint;
+    }
+
+    private void addCube(Cube cube) {
+        cubeCount++;
+        long total = 0;
+        total += add(Component.CUBE, CUBE_BASE);
+
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null || storage.isEmpty()) {
+            emptyCubeCount++;
+        }
+        if (storage != null) {
+            total += add(Component.BLOCKS, HeapSize.object(HeapSize.REFERENCE * 3 + 12) + estimateBlockStateContainer(storage.getData()));
+            total += add(Component.BLOCK_LIGHT, NIBBLE_ARRAY);
+            if (storage.getSkyLight() != null) {
+                total += add(Component.SKY_LIGHT, NIBBLE_ARRAY);
+            }
+        }
+        if (cube.getBiomeArray() != null) {
+            total += add(Component.BIOMES, HeapSize.array(cube.getBiomeArray().length, 1));
+        }
+        total += add(Component.RANDOM_TICK_INDEX, cube.getRandomTickIndex().estimateMemoryUsage());
+        // the multimap keeps a list per entity class, each entity is usually in a few of them. Empty containers share
+        // a single empty map
+        int entityCount = cube.getEntityContainer().size();
+        total += add(Component.ENTITY_CONTAINER, HeapSize.object(HeapSize.REFERENCE * 2 + 9)
+                + (entityCount == 0 ? 0 : 256 + entityCount * 48L));
+        if (cube.getTileEntityMap() instanceof CubeTileEntityMap) {
+            total += add(Component.TILE_ENTITY_MAP, ((CubeTileEntityMap) cube.getTileEntityMap()).estimateMemoryUsage());
+        }
+        LightingManager.CubeLightUpdateInfo lightInfo = cube.getCubeLightUpdateInfo();
+        if (lightInfo != null) {
+            total += add(Component.LIGHT_UPDATE_INFO, LIGHT_UPDATE_INFO);
+        }
+        int ticketCount = cube.getTickets().size();
+        total += add(Component.TICKETS, HeapSize.object(HeapSize.REFERENCE * 2 + 4) + (ticketCount == 0 ? 0
+                : HeapSize.object(HeapSize.REFERENCE + 8) + HeapSize.array(ticketCount, HeapSize.REFERENCE)));
+
+        largestCubes.add(new CubeSize(cube, total));
+        if (largestCubes.size() > LARGEST_CUBES) {
+            largestCubes.poll();
+        }
+    }
+
+    private void addColumn(Chunk column) {
+        columnCount++;
+        add(Component.COLUMN, COLUMN_BASE);
+        if (((IColumn) column).getOpacityIndex() instanceof ServerHeightMap) {
+            add(Component.HEIGHT_MAP, ((ServerHeightMap) ((IColumn) column).getOpacityIndex()).estimateMemoryUsage());
+        }
+    }
+
+    private static long estimateBlockStateContainer(BlockStateContainer data) {
+        IBlockStateContainer container = (IBlockStateContainer) data;
+        int bits = container.getBits();
+        long size = HeapSize.object(HeapSize.REFERENCE * 2 + 4);
+        size += HeapSize.object(HeapSize.REFERENCE + 16) + HeapSize.array(container.getStorage().getBackingLongArray().length, 8);
+        if (bits <= 4) {
+            // linear palette
+            size += HeapSize.object(HeapSize.REFERENCE * 2 + 8) + HeapSize.array(1 << bits, HeapSize.REFERENCE);
+        } else if (bits <= 8) {
+            // hash map palette, backed by an identity hash bimap with 3 arrays
+            size += HeapSize.object(HeapSize.REFERENCE * 2 + 4) + HeapSize.object(HeapSize.REFERENCE * 3 + 8)
+                    + HeapSize.array(1 << bits, HeapSize.REFERENCE) * 2 + HeapSize.array(1 << bits, 4);
+        }
+        // larger values use the shared registry palette
+        return size;
+    }
+
+    private long add(Component component, long bytes) {
+        components.put(component, components.get(component) + bytes);
+        return bytes;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long bytes : components.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    public long get(Component component) {
+        return components.get(component);
+    }
+
+    public int getCubeCount() {
+        return cubeCount;
+    }
+
+    public int getEmptyCubeCount() {
+        return emptyCubeCount;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return human readable summary, one line per entry
+     */
+    public List<String> format() {
+        List<String> lines = new ArrayList<>();
+        long total = getTotal();
+        lines.add(String.format(Locale.ROOT, "Dimension %d: ~%s in %d cubes (%d empty) and %d columns",
+                dimension, formatBytes(total), cubeCount, emptyCubeCount, columnCount));
+        for (Map.Entry<Component, Long> entry : components.entrySet()) {
+            if (entry.getValue() == 0) {
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT, "  %s: %s (%.1f%%)", entry.getKey().name().toLowerCase(Locale.ROOT),
+                    formatBytes(entry.getValue()), entry.getValue() * 100.0 / total));
+        }
+        List<CubeSize> largest = new ArrayList<>(largestCubes);
+        largest.sort(Comparator.comparingLong((CubeSize c) -> c.bytes).reversed());
+        for (CubeSize cube : largest) {
+            lines.add(String.format(Locale.ROOT, "  largest cube %d, %d, %d: %s", cube.x, cube.y, cube.z, formatBytes(cube.bytes)));
+        }
+        return lines;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.2f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static final class CubeSize {
+        final int x, y, z;
+        final long bytes;
+
+        CubeSize(Cube cube, long bytes) {
+            this.x = cube.getX();
+            this.y = cube.getY();
+            this.z = cube.getZ();
+            this.bytes = bytes;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import gnu.trove.list.TShortList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
@@ -47,12 +48,17 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.network.CubeDataFormat;
+import io.github.opencubicchunks.cubicchunks.core.network.CubePacketEncoder;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeHashes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
@@ -77,10 +83,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -99,6 +109,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
+    // ticks between updates of adaptive vertical view distance
+    private static final int ADAPT_VIEW_DISTANCE_INTERVAL = 20;
+
     /**
      * Comparator that specifies order in which cubes will be generated and sent to clients
      */
@@ -205,6 +218,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
 
+    /**
+     * Cubes that players using {@link io.github.opencubicchunks.cubicchunks.core.network.ClientCubeCache} got hashes for, but didn't
+     * have cached. These are sent in full in the next tick.
+     */
+    private final Multimap<EntityPlayerMP, Cube> cubeCacheMissesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
+
+    private final CubePacketEncoder cubePacketEncoder = new CubePacketEncoder();
+
     // these player adds will be processed on the next tick
     // this exists as temporary workaround to player respawn code calling addPlayer() before spawning
     // the player in world as it's spawning player in world that triggers sending cubic chunks world
@@ -227,7 +248,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.setPlayerViewDistance(worldServer.getMinecraftServer().getPlayerList().getViewDistance(),
                 ((ICubicPlayerList) worldServer.getMinecraftServer().getPlayerList()).getVerticalViewDistance());
         ((ICubicWorldInternal) worldServer).getLightingManager().registerHeightChangeListener(this);
-        this.chunkGc = new ChunkGc(((ICubicWorldInternal.Server) worldServer).getCubeCache());
+        this.chunkGc = cubeCache.getChunkGc();
         this.vanillaNetworkHandler = ((ICubicWorldInternal.Server) worldServer).getVanillaNetworkHandler();
     }
 
@@ -313,6 +334,17 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 addPlayer(player);
             }
         }
+        getWorldServer().profiler.endStartSection("adaptViewDistance");
+        if (currentTime % ADAPT_VIEW_DISTANCE_INTERVAL == 0) {
+            for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+                WatchersSortingList<CubeWatcher> queued = cubesToAddPlayerTo.get(playerWrapper.playerEntity);
+                int newDistance = playerWrapper.adaptVerticalViewDistance(verticalViewDistance, queued == null || queued.isEmpty());
+                if (newDistance != playerWrapper.verticalViewDistance) {
+                    updatePlayerViewDistance(playerWrapper, horizontalViewDistance, horizontalViewDistance, newDistance);
+                    setNeedSort();
+                }
+            }
+        }
         getWorldServer().profiler.endStartSection("tickEntries");
         //force update-all every 8000 ticks (400 seconds)
         if (currentTime - this.previousWorldTime > 8000L) {
@@ -488,24 +520,69 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         }
         getWorldServer().profiler.endStartSection("sendCubes");//unload
-        if (!cubesToSend.isEmpty()) {
-            for (EntityPlayerMP player : cubesToSend.keySet()) {
-                Collection<Cube> cubes = cubesToSend.get(player);
+        if (!cubesToSend.isEmpty() || !cubeCacheMissesToSend.isEmpty()) {
+            Set<EntityPlayerMP> players = new HashSet<>(cubesToSend.keySet());
+            players.addAll(cubeCacheMissesToSend.keySet());
+            // start encoding for all players first, so that cubes sent to many players are encoded once, and in parallel
+            Map<EntityPlayerMP, CompletableFuture<PacketCubes>> packets = new HashMap<>();
+            Map<EntityPlayerMP, CompletableFuture<PacketCubeHashes>> hashPackets = new HashMap<>();
+            for (EntityPlayerMP player : players) {
                 if (vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
-                    PacketDispatcher.sendTo(packet, player);
-                } else {
-                    vanillaNetworkHandler.sendCubeLoadPackets(cubes, player);
+                    // cubes missing from the client cube cache are always sent in full
+                    Set<Cube> cubes = new LinkedHashSet<>(cubeCacheMissesToSend.get(player));
+                    if (CubeDataFormat.usesCubeCache(player)) {
+                        if (cubesToSend.containsKey(player)) {
+                            hashPackets.put(player, cubePacketEncoder.encodeHashes(new ArrayList<>(cubesToSend.get(player))));
+                        }
+                    } else {
+                        cubes.addAll(cubesToSend.get(player));
+                    }
+                    if (!cubes.isEmpty()) {
+                        packets.put(player, cubePacketEncoder.encode(new ArrayList<>(cubes), CubeDataFormat.getFormat(player)));
+                    }
                 }
-                //Sending entities per cube.
-                for (Cube cube : cubes) {
-                    ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
-                    CubeWatcher watcher = getCubeWatcher(cube.getCoords());
-                    assert watcher != null;
-                    MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
+            }
+            try {
+                // wait for all packets before sending any, encoding still reads the cubes that entity packets and event
+                // handlers below may modify. Failures are rethrown by join() in the loop
+                CompletableFuture.allOf(Stream.concat(packets.values().stream(), hashPackets.values().stream())
+                        .toArray(CompletableFuture[]::new))
+                        .handle((result, t) -> null).join();
+                for (EntityPlayerMP player : players) {
+                    Collection<Cube> cubes = cubesToSend.get(player);
+                    CompletableFuture<PacketCubeHashes> hashPacket = hashPackets.get(player);
+                    CompletableFuture<PacketCubes> packet = packets.get(player);
+                    if (hashPacket != null || packet != null) {
+                        if (hashPacket != null) {
+                            PacketDispatcher.sendBatched(hashPacket.join(), player);
+                        }
+                        if (packet != null) {
+                            PacketDispatcher.sendBatched(packet.join(), player);
+                        }
+                    } else if (!cubes.isEmpty()) {
+                        vanillaNetworkHandler.sendCubeLoadPackets(cubes, player);
+                    }
                 }
+                for (EntityPlayerMP player : players) {
+                    Collection<Cube> cubes = cubesToSend.get(player);
+                    if (cubes.isEmpty()) {
+                        continue;
+                    }
+                    // entity packets and event handlers need the cubes on the client
+                    PacketDispatcher.flush(player);
+                    //Sending entities per cube.
+                    for (Cube cube : cubes) {
+                        ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
+                        CubeWatcher watcher = getCubeWatcher(cube.getCoords());
+                        assert watcher != null;
+                        MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
+                    }
+                }
+            } finally {
+                cubePacketEncoder.clear();
             }
             cubesToSend.clear();
+            cubeCacheMissesToSend.clear();
         }
         getWorldServer().profiler.endSection();//sendCubes
         getWorldServer().profiler.endSection();//playerCubeMapTick
@@ -583,6 +660,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
     }
 
+    /**
+     * Marks many blocks of one cube for update at once
+     *
+     * @param cubePos position of the cube
+     * @param localAddresses local addresses of the changed blocks
+     */
+    public void markBlocksForUpdate(CubePos cubePos, TShortList localAddresses) {
+        CubeWatcher cubeWatcher = this.getCubeWatcher(cubePos);
+        if (cubeWatcher != null) {
+            cubeWatcher.blocksChanged(localAddresses);
+        }
+    }
+
     @Override
     public void heightUpdated(int blockX, int blockZ) {
         ColumnWatcher columnWatcher = this.columnWatchers.get(blockToCube(blockX), blockToCube(blockZ));
@@ -606,7 +696,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             return;
         }
 
-        PlayerWrapper playerWrapper = new PlayerWrapper(player);
+        PlayerWrapper playerWrapper = new PlayerWrapper(player, verticalViewDistance);
         playerWrapper.updateManagedPos();
 
         if (!vanillaNetworkHandler.hasCubicChunks(player)) {
@@ -615,7 +705,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         CubePos playerCubePos = CubePos.fromEntity(player);
 
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
+        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, playerWrapper.verticalViewDistance, (currentPos) -> {
             //create cubeWatcher and chunkWatcher
             //order is important
             ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos());
@@ -644,7 +734,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         // send unload columns later so that they get unloaded after their corresponding cubes
         ObjectSet<ColumnWatcher> toSendUnload = new ObjectOpenHashSet<>((horizontalViewDistance*2+1) * (horizontalViewDistance*2+1) * 6);
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (cubePos) -> {
+        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, playerWrapper.verticalViewDistance, (cubePos) -> {
 
             // get the watcher
             CubeWatcher watcher = getCubeWatcher(cubePos);
@@ -667,6 +757,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.players.remove(player.getEntityId());
         this.setNeedSort();
         vanillaNetworkHandler.removePlayer(player);
+        // the player may be leaving this world, unloads must arrive before anything from the new one
+        PacketDispatcher.flush(player);
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -720,7 +812,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         getWorldServer().profiler.startSection("findChanges");
         // calculate new visibility
-        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
+        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, entry.verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
                 columnsToLoad);
 
         getWorldServer().profiler.endStartSection("createColumns");
@@ -814,66 +906,78 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             return;
         }
         int oldHorizontalViewDistance = this.horizontalViewDistance;
-        int oldVerticalViewDistance = this.verticalViewDistance;
+
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            // players with reduced adaptive view distance keep it, and grow up to the new distance on their own
+            int playerVerticalViewDistance = CubicChunksConfig.adaptiveVerticalViewDistance
+                    ? Math.min(playerWrapper.verticalViewDistance, newVerticalViewDistance) : newVerticalViewDistance;
+            updatePlayerViewDistance(playerWrapper, oldHorizontalViewDistance, newHorizontalViewDistance, playerVerticalViewDistance);
+        }
+
+        this.horizontalViewDistance = newHorizontalViewDistance;
+        this.verticalViewDistance = newVerticalViewDistance;
+        this.setNeedSort();
+    }
+
+    private void updatePlayerViewDistance(PlayerWrapper playerWrapper,
+            int oldHorizontalViewDistance, int newHorizontalViewDistance, int newVerticalViewDistance) {
+        int oldVerticalViewDistance = playerWrapper.verticalViewDistance;
+        if (newHorizontalViewDistance == oldHorizontalViewDistance && newVerticalViewDistance == oldVerticalViewDistance) {
+            return;
+        }
 
         // Somehow the view distances went in opposite directions
         if ((newHorizontalViewDistance < oldHorizontalViewDistance && newVerticalViewDistance > oldVerticalViewDistance) ||
                 (newHorizontalViewDistance > oldHorizontalViewDistance && newVerticalViewDistance < oldVerticalViewDistance)) {
             // Adjust the values separately to avoid imploding
-            setPlayerViewDistance(newHorizontalViewDistance, oldVerticalViewDistance);
-            setPlayerViewDistance(newHorizontalViewDistance, newVerticalViewDistance);
+            updatePlayerViewDistance(playerWrapper, oldHorizontalViewDistance, newHorizontalViewDistance, oldVerticalViewDistance);
+            updatePlayerViewDistance(playerWrapper, newHorizontalViewDistance, newHorizontalViewDistance, newVerticalViewDistance);
             return;
         }
 
-        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
-
-            EntityPlayerMP player = playerWrapper.playerEntity;
-            CubePos playerPos = playerWrapper.getManagedCubePos();
+        EntityPlayerMP player = playerWrapper.playerEntity;
+        CubePos playerPos = playerWrapper.getManagedCubePos();
 
-            if (newHorizontalViewDistance > oldHorizontalViewDistance || newVerticalViewDistance > oldVerticalViewDistance) {
-                //if newRadius is bigger, we only need to load new cubes
-                this.cubeSelector.forAllVisibleFrom(playerPos, newHorizontalViewDistance, newVerticalViewDistance, pos -> {
-                    //order is important
-                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos.chunkPos());
-                    if (!columnWatcher.containsPlayer(player)) {
-                        columnWatcher.addPlayer(player);
-                    }
-                    CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-                    if (!cubeWatcher.containsPlayer(player)) {
-                        scheduleAddPlayerToWatcher(cubeWatcher, player);
-                    }
-                });
-                // either both got smaller or only one of them changed
-            } else {
-                //if it got smaller...
-                Set<CubePos> cubesToUnload = new HashSet<>();
-                Set<ChunkPos> columnsToUnload = new HashSet<>();
-                this.cubeSelector.findAllUnloadedOnViewDistanceDecrease(playerPos,
-                        oldHorizontalViewDistance, newHorizontalViewDistance,
-                        oldVerticalViewDistance, newVerticalViewDistance, cubesToUnload, columnsToUnload);
-
-                cubesToUnload.forEach(pos -> {
-                    CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
-                    if (cubeWatcher != null) {
-                        removePlayerFromCubeWatcher(cubeWatcher, player);
-                    } else {
-                        CubicChunks.LOGGER.warn("cubeWatcher null on render distance change");
-                    }
-                });
-                columnsToUnload.forEach(pos -> {
-                    ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
-                    if (columnWatcher != null && columnWatcher.containsPlayer(player)) {
-                        columnWatcher.removePlayer(player);
-                    } else {
-                        CubicChunks.LOGGER.warn("cubeWatcher null or doesn't contain player on render distance change");
-                    }
-                });
-            }
+        if (newHorizontalViewDistance > oldHorizontalViewDistance || newVerticalViewDistance > oldVerticalViewDistance) {
+            //if newRadius is bigger, we only need to load new cubes
+            this.cubeSelector.forAllVisibleFrom(playerPos, newHorizontalViewDistance, newVerticalViewDistance, pos -> {
+                //order is important
+                ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos.chunkPos());
+                if (!columnWatcher.containsPlayer(player)) {
+                    columnWatcher.addPlayer(player);
+                }
+                CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
+                if (!cubeWatcher.containsPlayer(player)) {
+                    scheduleAddPlayerToWatcher(cubeWatcher, player);
+                }
+            });
+            // either both got smaller or only one of them changed
+        } else {
+            //if it got smaller...
+            Set<CubePos> cubesToUnload = new HashSet<>();
+            Set<ChunkPos> columnsToUnload = new HashSet<>();
+            this.cubeSelector.findAllUnloadedOnViewDistanceDecrease(playerPos,
+                    oldHorizontalViewDistance, newHorizontalViewDistance,
+                    oldVerticalViewDistance, newVerticalViewDistance, cubesToUnload, columnsToUnload);
+
+            cubesToUnload.forEach(pos -> {
+                CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
+                if (cubeWatcher != null) {
+                    removePlayerFromCubeWatcher(cubeWatcher, player);
+                } else {
+                    CubicChunks.LOGGER.warn("cubeWatcher null on render distance change");
+                }
+            });
+            columnsToUnload.forEach(pos -> {
+                ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
+                if (columnWatcher != null && columnWatcher.containsPlayer(player)) {
+                    columnWatcher.removePlayer(player);
+                } else {
+                    CubicChunks.LOGGER.warn("cubeWatcher null or doesn't contain player on render distance change");
+                }
+            });
         }
-
-        this.horizontalViewDistance = newHorizontalViewDistance;
-        this.verticalViewDistance = newVerticalViewDistance;
-        this.setNeedSort();
+        playerWrapper.verticalViewDistance = newVerticalViewDistance;
     }
 
     private void setNeedSort() {
@@ -935,6 +1039,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         ChunkPos pos = entry.getPos();
         entry.updateChunkInhabitedTime();
         this.columnWatchers.remove(pos.x, pos.z);
+        Chunk column = cubeCache.getLoadedColumn(pos.x, pos.z);
+        if (column != null) {
+            chunkGc.queueColumn(column);
+        }
         this.columnsToGenerate.remove(entry);
         this.columnsToSendToClients.remove(entry);
         this.columnWatchersToUpdate.remove(entry);
@@ -946,6 +1054,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     public void removeSchedulesSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
         cubesToSend.remove(player, cube);
+        cubeCacheMissesToSend.remove(player, cube);
+    }
+
+    /**
+     * Schedules sending full data of cubes the player didn't have in its client cube cache. Cubes the player doesn't watch anymore are
+     * skipped.
+     */
+    public void scheduleSendCubeCacheMisses(EntityPlayerMP player, Collection<CubePos> cubes) {
+        for (CubePos pos : cubes) {
+            CubeWatcher watcher = getCubeWatcher(pos);
+            if (watcher != null && watcher.getCube() != null && watcher.isSentToPlayers() && watcher.containsPlayer(player)) {
+                cubeCacheMissesToSend.put(player, watcher.getCube());
+            }
+        }
     }
 
     @Nullable public CubeWatcher getCubeWatcher(CubePos pos) {
@@ -962,11 +1084,67 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private static final class PlayerWrapper {
 
+        // bytes waiting in the connection above which vertical view distance is reduced, and below which it can grow
+        private static final long SLOW_CONNECTION_PENDING_BYTES = 1024 * 1024;
+        private static final long IDLE_CONNECTION_PENDING_BYTES = 64 * 1024;
+        // amount of view distance checks in a row the player has to keep up before view distance grows
+        private static final int CHECKS_BEFORE_GROWING = 5;
+
         final EntityPlayerMP playerEntity;
         private double managedPosY;
+        // the vertical view distance used for this player, lower than the global one when reduced by adaptive view distance
+        int verticalViewDistance;
+        private int idleChecks;
 
-        PlayerWrapper(EntityPlayerMP player) {
+        PlayerWrapper(EntityPlayerMP player, int verticalViewDistance) {
             this.playerEntity = player;
+            this.verticalViewDistance = verticalViewDistance;
+        }
+
+        /**
+         * Returns the vertical view distance this player should have. It's reduced by one when data sent to the player piles up in the
+         * connection, and increased by one when neither the connection nor the cubes waiting to be sent have a backlog for
+         * {@link #CHECKS_BEFORE_GROWING} checks in a row.
+         *
+         * @param maxDistance the global vertical view distance
+         * @param cubesQueueEmpty whether there are no cubes waiting to be sent to this player
+         */
+        int adaptVerticalViewDistance(int maxDistance, boolean cubesQueueEmpty) {
+            if (!CubicChunksConfig.adaptiveVerticalViewDistance) {
+                return maxDistance;
+            }
+            int minDistance = Math.min(CubicChunksConfig.minAdaptiveVerticalViewDistance, maxDistance);
+            long pendingBytes = getPendingBytes();
+            if (pendingBytes > SLOW_CONNECTION_PENDING_BYTES) {
+                idleChecks = 0;
+                return Math.max(minDistance, verticalViewDistance - 1);
+            }
+            if (pendingBytes < IDLE_CONNECTION_PENDING_BYTES && cubesQueueEmpty) {
+                idleChecks++;
+            } else {
+                idleChecks = 0;
+            }
+            if (idleChecks >= CHECKS_BEFORE_GROWING) {
+                idleChecks = 0;
+                return Math.min(maxDistance, verticalViewDistance + 1);
+            }
+            return clamp(verticalViewDistance, minDistance, maxDistance);
+        }
+
+        /**
+         * Returns amount of bytes written to the player's connection, but not yet sent over the network. Worked out from how far
+         * the channel is from its write buffer water marks.
+         */
+        private long getPendingBytes() {
+            if (playerEntity.connection == null) {
+                return 0;
+            }
+            Channel channel = playerEntity.connection.getNetworkManager().channel();
+            ChannelConfig config = channel.config();
+            if (channel.isWritable()) {
+                return Math.max(0, config.getWriteBufferHighWaterMark() - channel.bytesBeforeUnwritable());
+            }
+            return config.getWriteBufferLowWaterMark() + channel.bytesBeforeWritable();
         }
 
         void updateManagedPos() {
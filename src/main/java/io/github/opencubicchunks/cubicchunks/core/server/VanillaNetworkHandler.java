@@ -37,6 +37,9 @@ import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.util.Attribute;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.NetHandlerPlayServer;
@@ -62,6 +65,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -69,6 +73,7 @@ import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -76,9 +81,13 @@ import java.util.stream.Collectors;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.*;
 
 public class VanillaNetworkHandler {
-    private static final Map<Class<?>, Field[]> packetFields = new IdentityHashMap<>();
+    private static final Map<Class<?>, PacketFields> packetFields = new IdentityHashMap<>();
+    private static final int MAX_CACHED_CHUNK_PACKETS = 128;
     private static final Set<UUID> bedrockPlayers = new HashSet<>();
     private final WorldServer world;
+    // recently sent chunk packets for vanilla clients, least recently used first. Keys include the cube versions, so entries
+    // for cubes that changed since are never used again and just get evicted
+    private final Object2ObjectLinkedOpenHashMap<ChunkPacketKey, SPacketChunkData> chunkPacketCache = new Object2ObjectLinkedOpenHashMap<>();
     private Map<EntityPlayerMP, CubePos> playerOffsets = new IdentityHashMap<>();
     // separate offset because when switching layers, there is a short moment where
     // packets still sent with the client on the old offset will be processed
@@ -102,25 +111,22 @@ public class VanillaNetworkHandler {
         if (!CubicChunksConfig.allowVanillaClients) {
             return packetIn;
         }
+        PacketFields fields;
+        synchronized (packetFields) {
+            fields = packetFields.computeIfAbsent(packetIn.getClass(), PacketFields::new);
+        }
         try {
-            Field[] fields = packetFields.computeIfAbsent(packetIn.getClass(), VanillaNetworkHandler::collectFields);
-            Constructor<?> constructor = packetIn.getClass().getConstructor();
-            Packet<?> newPacket = (Packet<?>) constructor.newInstance();
-            for (Field field : fields) {
+            Packet<?> newPacket = (Packet<?>) fields.constructor.newInstance();
+            for (Field field : fields.fields) {
                 Object v = field.get(packetIn);
                 field.set(newPacket, v);
             }
             return newPacket;
-        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
             throw new Error(e);
         }
     }
 
-
-    private static Field[] collectFields(Class<?> aClass) {
-        return collectFieldList(aClass).toArray(new Field[0]);
-    }
-
     private static List<Field> collectFieldList(Class<?> aClass) {
         List<Field> fields = new ArrayList<>();
         do {
@@ -144,20 +150,53 @@ public class VanillaNetworkHandler {
         return playerOffsetsC2S.getOrDefault(player, CubePos.ZERO);
     }
 
+    /**
+     * Sends cubes to a vanilla client as chunk packets. The packets are cached by column, player offset and the sections they contain
+     * together with their versions, so that players with the same offset share them as long as the cubes don't change.
+     */
     public void sendCubeLoadPackets(Collection<? extends ICube> cubes, EntityPlayerMP player) {
         if (!CubicChunksConfig.allowVanillaClients) {
             return;
         }
         CubePos offset = getPlayerOffsetS2C(player);
-        Map<ChunkPos, List<ICube>> columns = cubes.stream().collect(Collectors.groupingBy(c -> c.getCoords().chunkPos()));
-        for (Map.Entry<ChunkPos, List<ICube>> chunkPosListEntry : columns.entrySet()) {
-            ChunkPos pos = chunkPosListEntry.getKey();
-            List<ICube> column = chunkPosListEntry.getValue();
-            SPacketChunkData chunkData = constructChunkData(pos, column, offset, world.provider.hasSkyLight());
+        Long2ObjectMap<List<ICube>> columns = new Long2ObjectLinkedOpenHashMap<>();
+        for (ICube cube : cubes) {
+            long key = ChunkPos.asLong(cube.getX(), cube.getZ());
+            List<ICube> column = columns.get(key);
+            if (column == null) {
+                column = new ArrayList<>();
+                columns.put(key, column);
+            }
+            column.add(cube);
+        }
+        for (List<ICube> column : columns.values()) {
+            ChunkPos pos = column.get(0).getCoords().chunkPos();
+            ICube[] cubesToSend = new ICube[16];
+            int mask = getCubesToSend(column, offset, cubesToSend);
+            ChunkPacketKey key = new ChunkPacketKey(pos, offset, mask, getVersions(cubesToSend, mask));
+            SPacketChunkData chunkData = chunkPacketCache.getAndMoveToLast(key);
+            if (chunkData == null) {
+                chunkData = constructChunkData(pos, column, offset, world.provider.hasSkyLight());
+                chunkPacketCache.put(key, chunkData);
+                if (chunkPacketCache.size() > MAX_CACHED_CHUNK_PACKETS) {
+                    chunkPacketCache.removeFirst();
+                }
+            }
             player.connection.sendPacket(chunkData);
         }
     }
 
+    private static long[] getVersions(ICube[] cubesToSend, int mask) {
+        long[] versions = new long[Integer.bitCount(mask)];
+        int i = 0;
+        for (ICube cube : cubesToSend) {
+            if (cube != null) {
+                versions[i++] = ((Cube) cube).getVersion();
+            }
+        }
+        return versions;
+    }
+
     private void sendFullCubeLoadPackets(Collection<? extends ICube> cubes, EntityPlayerMP player, CubePos offset, Set<ChunkPos> sentAsFullChunks) {
         if (!CubicChunksConfig.allowVanillaClients) {
             return;
@@ -632,4 +671,50 @@ public class VanillaNetworkHandler {
         }
         return getPlayerOffsetS2C(player).getMinBlockPos();
     }
+
+    private static final class ChunkPacketKey {
+
+        private final ChunkPos pos;
+        private final CubePos offset;
+        private final int sectionMask;
+        private final long[] versions;
+
+        ChunkPacketKey(ChunkPos pos, CubePos offset, int sectionMask, long[] versions) {
+            this.pos = pos;
+            this.offset = offset;
+            this.sectionMask = sectionMask;
+            this.versions = versions;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ChunkPacketKey that = (ChunkPacketKey) o;
+            return sectionMask == that.sectionMask && pos.equals(that.pos) && offset.equals(that.offset)
+                    && Arrays.equals(versions, that.versions);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(pos, offset, sectionMask, Arrays.hashCode(versions));
+        }
+    }
+
+    private static final class PacketFields {
+
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        PacketFields(Class<?> packetClass) {
+            try {
+                this.constructor = packetClass.getConstructor();
+            } catch (NoSuchMethodException e) {
+                throw new Error(e);
+            }
+            this.fields = collectFieldList(packetClass).toArray(new Field[0]);
+        }
+    }
 }
@@ -85,6 +85,14 @@ public interface ICubeIO extends IThreadedFileIO {
 
 	void saveCube(Cube cube);
 
+	/**
+	 * Called when a cube is unloaded, after it has been saved if it needed saving. Allows the implementation to keep
+	 * recently unloaded cubes around so that loading them again is cheaper.
+	 *
+	 * @param cube the cube being unloaded
+	 */
+	void onCubeUnload(Cube cube);
+
     boolean cubeExists(int cubeX, int cubeY, int cubeZ);
 
     boolean columnExists(int columnX, int columnZ);
@@ -93,6 +101,11 @@ public interface ICubeIO extends IThreadedFileIO {
 
     int getPendingCubeCount();
 
+    /**
+     * @return estimated amount of memory used by cached data of unloaded cubes, in bytes
+     */
+    long getUnloadedCubeCacheSize();
+
     /**
 	 * Stores partially read cube, before sync read but after async read
 	 */
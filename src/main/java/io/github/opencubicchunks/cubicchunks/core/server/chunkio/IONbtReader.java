@@ -35,6 +35,7 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlockStorageCodec;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -190,23 +191,16 @@ public class IONbtReader {
             NBTTagList sectionList = nbt.getTagList("Sections", 10);
             nbt = sectionList.getCompoundTagAt(0);
 
-            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), cube.getWorld().provider.hasSkyLight());
-
             byte[] abyte = nbt.getByteArray("Blocks");
             NibbleArray data = new NibbleArray(nbt.getByteArray("Data"));
             NibbleArray add = nbt.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add")) : null;
             NibbleArray add2neid = nbt.hasKey("Add2", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add2")) : null;
 
-            for (int i = 0; i < 4096; i++) {
-                int x = i & 15;
-                int y = i >> 8 & 15;
-                int z = i >> 4 & 15;
-
+            ExtendedBlockStorage ebs = BlockStorageCodec.createFromIds(i -> {
                 int toAdd = add == null ? 0 : add.getFromIndex(i);
                 toAdd = (toAdd & 0xF) | (add2neid == null ? 0 : add2neid.getFromIndex(i) << 4);
-                int id = (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
-                ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(id));
-            }
+                return (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
+            }, Coords.cubeToMinBlock(cube.getY()), cube.getWorld().provider.hasSkyLight());
 
             ebs.setBlockLight(new NibbleArray(nbt.getByteArray("BlockLight")));
 
@@ -214,7 +208,6 @@ public class IONbtReader {
                 ebs.setSkyLight(new NibbleArray(nbt.getByteArray("SkyLight")));
             }
 
-            ebs.recalculateRefCounts();
             cube.setStorage(ebs);
         }
     }
@@ -293,12 +286,9 @@ public class IONbtReader {
         byte edgeNeedSkyLightUpdate = 0x3F;
         if (lightingInfo.hasKey("EdgeNeedSkyLightUpdate"))
             edgeNeedSkyLightUpdate = lightingInfo.getByte("EdgeNeedSkyLightUpdate");
-        LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo = cube.getCubeLightUpdateInfo();
-        if (cubeLightUpdateInfo != null) {
-            for (int i = 0; i < EnumFacing.VALUES.length; i++) {
-                if ((edgeNeedSkyLightUpdate >>> i & 1) != 0) {
-                    cubeLightUpdateInfo.markEdgeNeedSkyLightUpdate(EnumFacing.VALUES[i]);
-                }
+        for (int i = 0; i < EnumFacing.VALUES.length; i++) {
+            if ((edgeNeedSkyLightUpdate >>> i & 1) != 0) {
+                cube.markEdgeNeedSkyLightUpdate(EnumFacing.VALUES[i]);
             }
         }
 
@@ -33,6 +33,7 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlockStorageCodec;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -55,6 +56,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntUnaryOperator;
 
 import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
 
@@ -171,13 +173,9 @@ class IONbtWriter {
         NibbleArray add = null;
         NibbleArray add2neid = null;
 
+        IntUnaryOperator ids = BlockStorageCodec.getIds(ebs);
         for (int i = 0; i < 4096; ++i) {
-            int x = i & 15;
-            int y = i >> 8 & 15;
-            int z = i >> 4 & 15;
-
-            @SuppressWarnings("deprecation")
-            int id = Block.BLOCK_STATE_IDS.get(ebs.getData().get(x, y, z));
+            int id = ids.applyAsInt(i);
 
             int in1 = (id >> 12) & 0xF;
             int in2 = (id >> 16) & 0xF;
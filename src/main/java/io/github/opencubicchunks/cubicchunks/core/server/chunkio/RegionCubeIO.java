@@ -55,12 +55,14 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -78,6 +80,11 @@ public class RegionCubeIO implements ICubeIO {
     private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
+    // unloaded cubes waiting to be compressed into unloadedCubes by the IO thread
+    @Nonnull private ConcurrentMap<CubePos, NBTTagCompound> cubesToCache;
+    @Nonnull private final UnloadedCubeCache unloadedCubes = new UnloadedCubeCache();
+    // compressed NBT of loaded cubes as last read or written, moved to unloadedCubes if the cube is unloaded unchanged
+    @Nonnull private final ConcurrentMap<CubePos, StoredCube> storedCubes = new ConcurrentHashMap<>();
 
     public RegionCubeIO(World world) throws IOException {
         this.world = world;
@@ -87,6 +94,7 @@ public class RegionCubeIO implements ICubeIO {
         // init chunk save queue
         this.columnsToSave = new ConcurrentHashMap<>();
         this.cubesToSave = new ConcurrentHashMap<>();
+        this.cubesToCache = new ConcurrentHashMap<>();
     }
 
     @Nonnull
@@ -220,17 +228,37 @@ public class RegionCubeIO implements ICubeIO {
 
     @Override public PartialData<ICube> loadCubeNbt(Chunk column, int cubeY) throws IOException {
         SaveCubeColumns save = this.getSave();
-        NBTTagCompound nbt;
-        SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.x, cubeY, column.z))) != null) {
-            nbt = saveEntry.nbt;
-        } else {
-            // does the database have the cube?
-            Optional<ByteBuffer> buf = save.load(new EntryLocation3D(column.x, cubeY, column.z), true);
-            if (!buf.isPresent()) {
-                return new PartialData<>(null, null);
+        CubePos pos = new CubePos(column.x, cubeY, column.z);
+        // the cube is being loaded again, so it doesn't need to stay in the unload cache
+        // the cached data is never older than a pending save, as it's taken when the cube is unloaded
+        NBTTagCompound nbt = this.cubesToCache.remove(pos);
+        UnloadedCubeCache.Entry cached = this.unloadedCubes.remove(pos);
+        byte[] data = null;
+        boolean needsDataFixing = false;
+        if (nbt == null && cached != null) {
+            data = cached.data;
+            needsDataFixing = cached.needsDataFixing;
+        }
+        if (nbt == null && data == null) {
+            SaveEntry<EntryLocation3D> saveEntry;
+            if ((saveEntry = this.cubesToSave.get(pos)) != null) {
+                nbt = saveEntry.nbt;
+            } else {
+                // does the database have the cube?
+                Optional<ByteBuffer> buf = save.load(new EntryLocation3D(column.x, cubeY, column.z), true);
+                if (!buf.isPresent()) {
+                    return new PartialData<>(null, null);
+                }
+                data = buf.get().array();
+                needsDataFixing = true;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+        }
+        if (nbt == null) {
+            nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
+            if (needsDataFixing) {
+                nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, nbt);
+            }
+            return new CubeData(nbt, data, needsDataFixing);
         }
         return new PartialData<>(null, nbt);
     }
@@ -246,7 +274,12 @@ public class RegionCubeIO implements ICubeIO {
     }
 
     @Override public void loadCubeSyncPart(PartialData<ICube> info) {
-        IONbtReader.readCubeSyncPart((Cube) info.object, world, info.nbt);
+        Cube cube = (Cube) info.object;
+        IONbtReader.readCubeSyncPart(cube, world, info.nbt);
+        if (info instanceof CubeData && UnloadedCubeCache.isEnabled()) {
+            CubeData cubeData = (CubeData) info;
+            this.storedCubes.put(cube.getCoords(), new StoredCube(cube.getVersion(), cubeData.data, cubeData.needsDataFixing));
+        }
     }
 
     @Override public void saveColumn(Chunk column) {
@@ -267,14 +300,53 @@ public class RegionCubeIO implements ICubeIO {
     @Override public void saveCube(Cube cube) {
         // NOTE: this function blocks the world thread, so make it fast
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+        // the data is stored once it's written
+        StoredCube stored = UnloadedCubeCache.isEnabled() ? new StoredCube(cube.getVersion(), null, false) : null;
+        if (stored == null) {
+            this.storedCubes.remove(cube.getCoords());
+        } else {
+            this.storedCubes.put(cube.getCoords(), stored);
+        }
+        this.cubesToSave.put(cube.getCoords(),
+                new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube), stored));
         cube.markSaved();
 
         // signal the IO thread to process the save queue
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
     }
 
+    @Override public void onCubeUnload(Cube cube) {
+        CubePos pos = cube.getCoords();
+        StoredCube stored = this.storedCubes.remove(pos);
+        // cubes that were just saved are cached from the pending save, it's their current state.
+        // Unchanged cubes are cached from the data they were last read or written with, instead of writing them to NBT again
+        if (!UnloadedCubeCache.isEnabled()) {
+            this.cubesToCache.remove(pos);
+            this.unloadedCubes.remove(pos);
+            return;
+        }
+        SaveEntry<EntryLocation3D> saveEntry = this.cubesToSave.get(pos);
+        if (saveEntry == null) {
+            this.cubesToCache.remove(pos);
+            byte[] data = stored == null ? null : stored.getData(cube.getVersion());
+            if (data == null) {
+                this.unloadedCubes.remove(pos);
+            } else {
+                this.unloadedCubes.put(pos, data, stored.needsDataFixing);
+            }
+            return;
+        }
+        this.cubesToCache.put(pos, saveEntry.nbt);
+
+        // signal the IO thread to compress it
+        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+    }
+
     @Override public boolean cubeExists(int cubeX, int cubeY, int cubeZ) {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        if (this.cubesToCache.containsKey(pos) || this.unloadedCubes.contains(pos)) {
+            return true;
+        }
         try {
             return this.getSave().getSaveSection3D().hasEntry(new EntryLocation3D(cubeX, cubeY, cubeZ));
         } catch (IOException e) {
@@ -300,6 +372,10 @@ public class RegionCubeIO implements ICubeIO {
         return cubesToSave.size();
     }
 
+    @Override public long getUnloadedCubeCacheSize() {
+        return unloadedCubes.getSizeBytes();
+    }
+
     @Override
     public boolean writeNextIO() {
         try {
@@ -345,6 +421,12 @@ public class RegionCubeIO implements ICubeIO {
                     byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
                     try {
                         save.save3d(entry.pos, ByteBuffer.wrap(data));
+                        CubePos pos = new CubePos(entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ());
+                        cacheCompressed(pos, entry.nbt, data);
+                        if (entry.stored != null) {
+                            // only if the cube is still loaded and wasn't saved again since
+                            storedCubes.replace(pos, entry.stored, entry.stored.withData(data));
+                        }
                     } finally {
                         //cube can be removed from toSave queue only after writing to disk
                         //to avoid race conditions
@@ -357,11 +439,43 @@ public class RegionCubeIO implements ICubeIO {
             }
             boolean hasMoreCubes = cubeIt.hasNext();
 
+            // compress a batch of unloaded cubes that weren't saved above
+            Iterator<Map.Entry<CubePos, NBTTagCompound>> cacheIt = cubesToCache.entrySet().iterator();
+            for (int numCubesCached = 0; cacheIt.hasNext() && numCubesCached < CubesBatchSize; numCubesCached++) {
+                Map.Entry<CubePos, NBTTagCompound> entry = cacheIt.next();
+                SaveEntry<EntryLocation3D> saveEntry = cubesToSave.get(entry.getKey());
+                if (saveEntry != null && saveEntry.nbt == entry.getValue()) {
+                    continue; // will be cached when it's saved
+                }
+                try {
+                    cacheCompressed(entry.getKey(), entry.getValue(), IONbtWriter.writeNbtBytes(entry.getValue()));
+                } catch (Throwable t) {
+                    LOGGER.error(String.format("Unable to cache cube %s", entry.getKey()), t);
+                    cubesToCache.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            boolean hasMoreCubesToCache = cacheIt.hasNext();
+
             // LOGGER.info("Saved {}/{} cubes and {}/{} columns", numCubesSaved, numCubesToSave, numColumnsSaved, numColumnsToSave);
-            return hasMoreColumns || hasMoreCubes;
+            return hasMoreColumns || hasMoreCubes || hasMoreCubesToCache;
         } catch (Throwable t) {
             LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+            return cubesToSave.size() != 0 || columnsToSave.size() != 0 || cubesToCache.size() != 0;
+        }
+    }
+
+    /**
+     * Moves the given unloaded cube data to the unload cache, unless the cube has been loaded or unloaded again since.
+     */
+    private void cacheCompressed(CubePos pos, NBTTagCompound nbt, byte[] data) {
+        if (cubesToCache.get(pos) != nbt) {
+            return;
+        }
+        // add it to the cache first, so that a concurrent load always finds it in one of them
+        unloadedCubes.put(pos, data, false);
+        if (!cubesToCache.remove(pos, nbt)) {
+            // loaded again or replaced by a newer unload in the meantime, the newer state decides
+            unloadedCubes.remove(pos);
         }
     }
 
@@ -369,10 +483,60 @@ public class RegionCubeIO implements ICubeIO {
 
         private final T pos;
         private final NBTTagCompound nbt;
+        @Nullable private final StoredCube stored;
 
         SaveEntry(T pos, NBTTagCompound nbt) {
+            this(pos, nbt, null);
+        }
+
+        SaveEntry(T pos, NBTTagCompound nbt, @Nullable StoredCube stored) {
             this.pos = pos;
             this.nbt = nbt;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Cube NBT read from compressed data. The data is moved to storedCubes once the cube is loaded
+     */
+    private static class CubeData extends PartialData<ICube> {
+
+        private final byte[] data;
+        private final boolean needsDataFixing;
+
+        CubeData(NBTTagCompound nbt, byte[] data, boolean needsDataFixing) {
+            super(null, nbt);
+            this.data = data;
+            this.needsDataFixing = needsDataFixing;
+        }
+    }
+
+    /**
+     * Compressed data of a loaded cube and the {@link Cube#getVersion()} it was read or written at. The data is softly referenced, as
+     * it's only useful if the cube is unloaded unchanged, and is dropped under memory pressure.
+     */
+    private static class StoredCube {
+
+        private final long version;
+        @Nullable private final SoftReference<byte[]> data;
+        private final boolean needsDataFixing;
+
+        StoredCube(long version, @Nullable byte[] data, boolean needsDataFixing) {
+            this.version = version;
+            this.data = data == null ? null : new SoftReference<>(data);
+            this.needsDataFixing = needsDataFixing;
+        }
+
+        StoredCube withData(byte[] data) {
+            return new StoredCube(version, data, needsDataFixing);
+        }
+
+        /**
+         * @return the data if the cube hasn't changed since, and it wasn't dropped
+         */
+        @Nullable
+        byte[] getData(long currentVersion) {
+            return currentVersion != version || data == null ? null : data.get();
         }
     }
 
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps the compressed NBT of recently unloaded cubes, so that loading them again skips the disk read, and the data fixers for
+ * data written by this version.
+ * The least recently used entries are evicted when the total size exceeds {@link CubicChunksConfig#unloadedCubeCacheSize}.
+ * Accessed from the world thread and the IO threads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class UnloadedCubeCache {
+
+    // rough per-entry overhead of the map entry, key and array header
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Map<CubePos, Entry> cubes = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+
+    static boolean isEnabled() {
+        return CubicChunksConfig.unloadedCubeCacheSize > 0;
+    }
+
+    /**
+     * @param pos position of the cube
+     * @param data compressed NBT of the cube
+     * @param needsDataFixing whether the data was read from disk and may have been written by an older version
+     */
+    synchronized void put(CubePos pos, byte[] data, boolean needsDataFixing) {
+        Entry old = cubes.put(pos, new Entry(data, needsDataFixing));
+        if (old != null) {
+            sizeBytes -= old.data.length + ENTRY_OVERHEAD;
+        }
+        sizeBytes += data.length + ENTRY_OVERHEAD;
+
+        long maxSize = CubicChunksConfig.unloadedCubeCacheSize * 1024L * 1024L;
+        Iterator<Entry> it = cubes.values().iterator();
+        while (sizeBytes > maxSize && it.hasNext()) {
+            sizeBytes -= it.next().data.length + ENTRY_OVERHEAD;
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes and returns the data of the cube at the given position. The cube is either being loaded again, or its
+     * cached data is no longer valid.
+     */
+    @Nullable
+    synchronized Entry remove(CubePos pos) {
+        Entry entry = cubes.remove(pos);
+        if (entry != null) {
+            sizeBytes -= entry.data.length + ENTRY_OVERHEAD;
+        }
+        return entry;
+    }
+
+    synchronized boolean contains(CubePos pos) {
+        return cubes.containsKey(pos);
+    }
+
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    static final class Entry {
+
+        final byte[] data;
+        final boolean needsDataFixing;
+
+        Entry(byte[] data, boolean needsDataFixing) {
+            this.data = data;
+            this.needsDataFixing = needsDataFixing;
+        }
+    }
+}
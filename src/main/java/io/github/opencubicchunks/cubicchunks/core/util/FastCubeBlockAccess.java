@@ -33,6 +33,7 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.ILightBlockAccess;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
@@ -58,6 +59,8 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
 
     @Nonnull private final ExtendedBlockStorage[][][] cache;
     @Nonnull private final Cube[][][] cubes;
+    // cubes that already got a new light version from this block access
+    @Nonnull private final boolean[][][] lightChanged;
     @Nonnull private final Chunk[][] columns;
     private final int originX, originY, originZ;
     private final int dx, dy, dz;
@@ -76,6 +79,7 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         this.world = world;
         this.cache = new ExtendedBlockStorage[dx][dy][dz];
         this.cubes = new Cube[dx][dy][dz];
+        this.lightChanged = new boolean[dx][dy][dz];
         this.columns = new Chunk[dx][dz];
         this.originX = Math.min(start.getX(), end.getX());
         this.originY = Math.min(start.getY(), end.getY());
@@ -179,10 +183,17 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
             int localZ = blockToLocal(pos.getZ());
 
             if (lightType == EnumSkyBlock.SKY) {
+                if (ebs.getSkyLight(localX, localY, localZ) == val) {
+                    return true;
+                }
                 ebs.setSkyLight(localX, localY, localZ, val);
             } else {
+                if (ebs.getBlockLight(localX, localY, localZ) == val) {
+                    return true;
+                }
                 ebs.setBlockLight(localX, localY, localZ, val);
             }
+            markLightChanged(pos);
             return true;
         }
         Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
@@ -194,6 +205,20 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         return false;
     }
 
+    // only once per cube, so that cubes the light update doesn't change keep their version
+    private void markLightChanged(BlockPos pos) {
+        int cubeX = Coords.blockToCube(pos.getX()) - originX;
+        int cubeY = Coords.blockToCube(pos.getY()) - originY;
+        int cubeZ = Coords.blockToCube(pos.getZ()) - originZ;
+        if (!lightChanged[cubeX][cubeY][cubeZ]) {
+            lightChanged[cubeX][cubeY][cubeZ] = true;
+            Cube cube = this.cubes[cubeX][cubeY][cubeZ];
+            if (cube != null) {
+                cube.markChanged(CubeChangeJournal.Change.LIGHT);
+            }
+        }
+    }
+
     @Override public boolean canSeeSky(BlockPos pos) {
         int blockX = pos.getX();
         int blockY = pos.getY();
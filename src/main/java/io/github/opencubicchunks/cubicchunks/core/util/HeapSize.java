@@ -0,0 +1,67 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Rough heap size estimates of objects and arrays, assuming a 64-bit JVM with compressed oops: 12 byte object header,
+ * 16 byte array header, 4 byte references and 8 byte alignment.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class HeapSize {
+
+    public static final int REFERENCE = 4;
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+
+    private HeapSize() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * @param fieldBytes total size of the fields of the object
+     * @return estimated size of an object with fields of the given total size
+     */
+    public static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * @param length array length
+     * @param elementSize size of one element, {@link #REFERENCE} for object arrays
+     * @return estimated size of the array, not including the objects it references
+     */
+    public static long array(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -26,12 +26,14 @@ package io.github.opencubicchunks.cubicchunks.core.util.ticket;
 
 import com.google.common.collect.Lists;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -41,7 +43,8 @@ public class TicketList {
 
     private final Cube cube;
     private int tickRefs = 0;
-    @Nonnull private List<ITicket> tickets = Lists.newArrayListWithCapacity(1);
+    // most cubes never get a ticket, only allocate the list once the first one is added
+    @Nonnull private List<ITicket> tickets = Collections.emptyList();
 
     // null cube means it's "BlankCube"
     public TicketList(@Nullable Cube cube) {
@@ -57,13 +60,21 @@ public class TicketList {
         if (cube == null) {
             return;
         }
-        if (tickets.remove(ticket) && ticket.shouldTick()) {
+        if (!tickets.remove(ticket)) {
+            return;
+        }
+        if (ticket.shouldTick()) {
             tickRefs--;
             assert tickRefs >= 0;
             if (tickRefs == 0) {
                 ((ICubicWorldInternal.Server) cube.getWorld()).removeForcedCube(cube);
+                ((IColumnInternal) cube.getColumn()).onCubeTickStateChanged();
             }
         }
+        if (tickets.isEmpty()) {
+            tickets = Collections.emptyList();
+            ((ICubicWorldInternal.Server) cube.getWorld()).getCubeCache().getChunkGc().queueCube(cube);
+        }
     }
 
     /**
@@ -78,17 +89,28 @@ public class TicketList {
         if (tickets.contains(ticket)) {
             return; // we already have that ticket
         }
+        if (tickets.isEmpty()) {
+            tickets = Lists.newArrayListWithCapacity(1);
+        }
         tickets.add(ticket);
         tickRefs += ticket.shouldTick() ? 1 : 0; // keep track of the number of tickets that want to tick
         if (ticket.shouldTick()) {
             assert tickRefs > 0;
             if (tickRefs == 1) { // if it just got increased from zero
                 ((ICubicWorldInternal.Server) cube.getWorld()).addForcedCube(cube);
+                ((IColumnInternal) cube.getColumn()).onCubeTickStateChanged();
             }
         }
 
     }
 
+    /**
+     * @return the amount of tickets in this list
+     */
+    public int size() {
+        return tickets.size();
+    }
+
     /**
      * @param ticket the ticket to check for
      *
@@ -24,18 +24,26 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.util.world;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.NextTickListEntry;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * When saving chunks, Minecraft needs to filter all of the scheduled ticks by the chunk being saved.
  * Normally this is not a big issue, as there aren't a lot of scheduled ticks. But in some cases
@@ -50,82 +58,143 @@ import java.util.Set;
  * implements a collection that keeps track of which entries belong to which cube. This also has the
  * benefit that scheduled ticks are still stored in the same fields, so existing code that
  * relies on it will just work.
+ *
+ * Entries are stored only per cube, in small open addressing tables keyed by the local block address,
+ * so there is no global set and no wrapper object per entry. Vanilla keeps the time ordering in its
+ * own TreeSet, which is still used to find the entries due in the current tick.
  */
 public class CubeSplitTickSet implements Set<NextTickListEntry> {
 
-    private final Map<CubePos, NextTickListEntryHashSet> byCube = new HashMap<>();
-    private final NextTickListEntryHashSet all = new NextTickListEntryHashSet();
+    private final XYZMap<CubeTickSet> byCube = new XYZMap<>(0.75f, 1024);
+    private int size;
 
+    /**
+     * Returns a read-only view of the entries in the given cube. Removals have to go through this set, so that
+     * the total size stays in sync and empty cubes are dropped.
+     */
     public Set<NextTickListEntry> getForCube(CubePos pos) {
-        Set<NextTickListEntry> val = byCube.get(pos);
-        return val == null ? Collections.emptySet() : val;
+        Set<NextTickListEntry> val = byCube.get(pos.getX(), pos.getY(), pos.getZ());
+        return val == null ? Collections.emptySet() : Collections.unmodifiableSet(val);
+    }
+
+    @Nullable
+    private CubeTickSet getForBlock(BlockPos pos) {
+        return byCube.get(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
     }
 
     @Override public int size() {
-        return all.size();
+        return size;
     }
 
     @Override public boolean isEmpty() {
-        return all.isEmpty();
+        return size == 0;
     }
 
     @Override public boolean contains(Object o) {
-        return all.contains(o);
+        if (!(o instanceof NextTickListEntry)) {
+            return false;
+        }
+        CubeTickSet set = getForBlock(((NextTickListEntry) o).position);
+        return set != null && set.contains(o);
     }
 
-    @SuppressWarnings("Duplicates") @Override public Iterator<NextTickListEntry> iterator() {
+    @Override public Iterator<NextTickListEntry> iterator() {
+        // iterate over a snapshot of cubes, so that removing entries (and whole cubes) while iterating is safe
+        CubeTickSet[] cubes = new CubeTickSet[byCube.getSize()];
+        int i = 0;
+        for (CubeTickSet set : byCube) {
+            cubes[i++] = set;
+        }
         return new Iterator<NextTickListEntry>() {
-            private final Iterator<NextTickListEntry> it = all.iterator();
+            private int cubeIndex = 0;
+            private Iterator<NextTickListEntry> current = Collections.emptyIterator();
             private NextTickListEntry lastEntry = null;
 
             @Override public boolean hasNext() {
-                return it.hasNext();
+                while (!current.hasNext() && cubeIndex < cubes.length) {
+                    current = cubes[cubeIndex++].iterator();
+                }
+                return current.hasNext();
             }
 
             @Override public NextTickListEntry next() {
-                return lastEntry = it.next();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return lastEntry = current.next();
             }
 
             @Override public void remove() {
-                it.remove();
-                removeByCube(lastEntry);
+                if (lastEntry == null) {
+                    throw new IllegalStateException();
+                }
+                CubeSplitTickSet.this.remove(lastEntry);
+                lastEntry = null;
             }
         };
     }
 
-    private void removeByCube(NextTickListEntry e) {
-        CubePos pos = CubePos.fromBlockCoords(e.position);
-        Set<NextTickListEntry> set = byCube.get(pos);
-        set.remove(e);
-        if (set.isEmpty()) {
-            byCube.remove(pos);
-        }
-    }
-
     @Override public Object[] toArray() {
-        return all.toArray();
+        Object[] out = new Object[size];
+        int i = 0;
+        for (NextTickListEntry entry : this) {
+            out[i++] = entry;
+        }
+        return out;
     }
 
+    @SuppressWarnings("unchecked")
     @Override public <T> T[] toArray(T[] a) {
-        return all.toArray(a);
+        if (a.length < size) {
+            a = Arrays.copyOf(a, size);
+        }
+        int i = 0;
+        for (NextTickListEntry entry : this) {
+            a[i++] = (T) entry;
+        }
+        if (a.length > size) {
+            a[size] = null;
+        }
+        return a;
     }
 
     @Override public boolean add(NextTickListEntry e) {
-        boolean ret = all.add(e);
-        byCube.computeIfAbsent(CubePos.fromBlockCoords(e.position), x -> new NextTickListEntryHashSet()).add(e);
+        BlockPos pos = e.position;
+        int cubeX = blockToCube(pos.getX()), cubeY = blockToCube(pos.getY()), cubeZ = blockToCube(pos.getZ());
+        CubeTickSet set = byCube.get(cubeX, cubeY, cubeZ);
+        if (set == null) {
+            set = new CubeTickSet(cubeX, cubeY, cubeZ);
+            byCube.put(set);
+        }
+        boolean ret = set.add(e);
+        if (ret) {
+            size++;
+        }
         return ret;
     }
 
     @Override public boolean remove(Object o) {
-        boolean ret = all.remove(o);
-        if (ret) {
-            removeByCube((NextTickListEntry) o);
+        if (!(o instanceof NextTickListEntry)) {
+            return false;
         }
-        return ret;
+        CubeTickSet set = getForBlock(((NextTickListEntry) o).position);
+        if (set == null || !set.remove(o)) {
+            return false;
+        }
+        size--;
+        if (set.isEmpty()) {
+            byCube.remove(set);
+        }
+        return true;
     }
 
     @Override public boolean containsAll(Collection<?> c) {
-        return all.containsAll(c);
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override public boolean addAll(Collection<? extends NextTickListEntry> c) {
@@ -162,87 +231,144 @@ public class CubeSplitTickSet implements Set<NextTickListEntry> {
 
     @Override
     public void clear() {
-        all.clear();
         byCube.clear();
+        size = 0;
     }
 
-    // vanilla bug, see https://github.com/SleepyTrousers/EnderCore/issues/105
-    // NextTickListEntry equals and compareTo are not consistent,
-    // breaking HashMap when there are a lot of hash collisions
-    // fix based on https://github.com/gnembon/carpetmod112/blob/a84ad2617ab3c2ca7b10b28264ba325f8adecd3f/patches/net/minecraft/world/NextTickListEntry.java.patch
-    // thanks to Earthcomputer for bringing it up
+    /**
+     * Scheduled ticks of a single cube. This is an open addressing hash set with linear probing, keyed by local block address.
+     * Multiple entries can share the same address if they are for different blocks, so lookups compare the entries
+     * themselves once the address matches.
+     * <p>
+     * This also avoids the vanilla bug where NextTickListEntry equals and compareTo are not consistent, breaking HashMap
+     * when there are a lot of hash collisions (see https://github.com/SleepyTrousers/EnderCore/issues/105).
+     */
+    private static final class CubeTickSet extends AbstractSet<NextTickListEntry> implements XYZAddressable {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private final int cubeX, cubeY, cubeZ;
+        private short[] addresses = new short[INITIAL_CAPACITY];
+        private NextTickListEntry[] entries = new NextTickListEntry[INITIAL_CAPACITY];
+        private int count;
+
+        CubeTickSet(int cubeX, int cubeY, int cubeZ) {
+            this.cubeX = cubeX;
+            this.cubeY = cubeY;
+            this.cubeZ = cubeZ;
+        }
 
-    public static final class EqualsHashCodeWrapper<T extends Comparable<T>> implements Comparable<EqualsHashCodeWrapper<T>> {
+        private static int address(BlockPos pos) {
+            return AddressTools.getLocalAddress(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+        }
 
-        final T entry;
+        private int slot(int address) {
+            // spread the bits a bit, nearby blocks often have scheduled ticks at the same time
+            return (address * 0x9E3779B1 >>> 16) & (entries.length - 1);
+        }
+
+        private int find(NextTickListEntry entry) {
+            int address = address(entry.position);
+            int mask = entries.length - 1;
+            for (int i = slot(address); entries[i] != null; i = (i + 1) & mask) {
+                if (addresses[i] == address && entries[i].equals(entry)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-        public EqualsHashCodeWrapper(T entry) {
-            this.entry = entry;
+        @Override public int size() {
+            return count;
         }
 
-        @Override
-        public int hashCode() {
-            return entry.hashCode();
+        @Override public boolean contains(Object o) {
+            return o instanceof NextTickListEntry && find((NextTickListEntry) o) >= 0;
         }
 
-        @Override
-        public boolean equals(Object entry) {
-            if (!(entry instanceof EqualsHashCodeWrapper)) {
+        @Override public boolean add(NextTickListEntry entry) {
+            if (find(entry) >= 0) {
                 return false;
             }
-            return this.entry.equals(((EqualsHashCodeWrapper<?>) entry).entry);
+            if ((count + 1) * 4 > entries.length * 3) {
+                rehash(entries.length * 2);
+            }
+            insert((short) address(entry.position), entry);
+            count++;
+            return true;
         }
 
-        @Override
-        public int compareTo(EqualsHashCodeWrapper<T> other) {
-            if (this.equals(other)) {
-                return 0;
+        private void insert(short address, NextTickListEntry entry) {
+            int mask = entries.length - 1;
+            int i = slot(address);
+            while (entries[i] != null) {
+                i = (i + 1) & mask;
             }
-            return this.entry.compareTo(other.entry);
+            addresses[i] = address;
+            entries[i] = entry;
         }
-    }
 
-    public static final class NextTickListEntryHashSet extends AbstractSet<NextTickListEntry> {
-
-        private final Set<EqualsHashCodeWrapper<NextTickListEntry>> backingSet = new HashSet<>();
-
-        @Override public Iterator<NextTickListEntry> iterator() {
-            return new Iterator<NextTickListEntry>() {
-                final Iterator<EqualsHashCodeWrapper<NextTickListEntry>> it = backingSet.iterator();
-                @Override public boolean hasNext() {
-                    return it.hasNext();
+        @Override public boolean remove(Object o) {
+            if (!(o instanceof NextTickListEntry)) {
+                return false;
+            }
+            int i = find((NextTickListEntry) o);
+            if (i < 0) {
+                return false;
+            }
+            count--;
+            // backward shift deletion, move following entries of the same probe run into the hole
+            int mask = entries.length - 1;
+            int hole = i;
+            for (int j = (hole + 1) & mask; entries[j] != null; j = (j + 1) & mask) {
+                int home = slot(addresses[j]);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    addresses[hole] = addresses[j];
+                    entries[hole] = entries[j];
+                    hole = j;
                 }
+            }
+            entries[hole] = null;
+            return true;
+        }
 
-                @Override public NextTickListEntry next() {
-                    return it.next().entry;
+        private void rehash(int newCapacity) {
+            short[] oldAddresses = addresses;
+            NextTickListEntry[] oldEntries = entries;
+            addresses = new short[newCapacity];
+            entries = new NextTickListEntry[newCapacity];
+            for (int i = 0; i < oldEntries.length; i++) {
+                if (oldEntries[i] != null) {
+                    insert(oldAddresses[i], oldEntries[i]);
                 }
-            };
+            }
         }
 
-        @Override
-        public int size() {
-            return backingSet.size();
+        /**
+         * Iterates over a copy of the entries and doesn't support removal, the outer iterator removes through the outer set
+         * to keep its size in sync.
+         */
+        @Override public Iterator<NextTickListEntry> iterator() {
+            NextTickListEntry[] copy = new NextTickListEntry[count];
+            int n = 0;
+            for (NextTickListEntry entry : entries) {
+                if (entry != null) {
+                    copy[n++] = entry;
+                }
+            }
+            return Arrays.asList(copy).iterator();
         }
 
-        @Override
-        public boolean contains(Object entry) {
-            if (!(entry instanceof NextTickListEntry)) {
-                return false;
-            }
-            return backingSet.contains(new EqualsHashCodeWrapper<>((NextTickListEntry) entry));
+        @Override public int getX() {
+            return cubeX;
         }
 
-        @Override
-        public boolean add(NextTickListEntry entry) {
-            return backingSet.add(new EqualsHashCodeWrapper<>(entry));
+        @Override public int getY() {
+            return cubeY;
         }
 
-        @Override
-        public boolean remove(Object entry) {
-            if (!(entry instanceof NextTickListEntry)) {
-                return false;
-            }
-            return backingSet.remove(new EqualsHashCodeWrapper<>((NextTickListEntry) entry));
+        @Override public int getZ() {
+            return cubeZ;
         }
     }
 }
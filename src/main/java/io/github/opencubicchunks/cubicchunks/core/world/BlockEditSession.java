@@ -0,0 +1,315 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
+
+import gnu.trove.list.TShortList;
+import gnu.trove.list.array.TShortArrayList;
+import io.github.opencubicchunks.cubicchunks.api.world.IBlockEditSession;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.lighting.BulkLightUpdate;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Implementation of {@link IBlockEditSession}.
+ * <p>
+ * Blocks are written directly into the cube's {@link ExtendedBlockStorage}, remembering the state each block had
+ * before its first change in this session. On {@link #close()}, blocks that ended up different from their original
+ * state are added to the heightmaps, block columns whose height changed are queued for a sky light update, and all
+ * changed blocks of a cube are relit and sent to players together.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class BlockEditSession implements IBlockEditSession {
+
+    private final World world;
+    private final Reference2ObjectLinkedOpenHashMap<Cube, CubeEdit> cubeEdits = new Reference2ObjectLinkedOpenHashMap<>();
+    @Nullable private CubeEdit lastEdit;
+    private int changedBlockCount;
+    private boolean closed;
+
+    public BlockEditSession(World world) {
+        this.world = world;
+    }
+
+    @Override public boolean setBlockState(BlockPos pos, IBlockState state) {
+        if (closed) {
+            throw new IllegalStateException("Block edit session already closed");
+        }
+        if (world.isOutsideBuildHeight(pos)) {
+            return false;
+        }
+        CubeEdit edit = getEdit(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+        if (edit == null) {
+            return false;
+        }
+        Cube cube = edit.cube;
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null) {
+            if (state.getBlock() == Blocks.AIR) {
+                return false;
+            }
+            storage = new ExtendedBlockStorage(cubeToMinBlock(cube.getY()), world.provider.hasSkyLight());
+            cube.setStorage(storage);
+        }
+        int localX = blockToLocal(pos.getX());
+        int localY = blockToLocal(pos.getY());
+        int localZ = blockToLocal(pos.getZ());
+        IBlockState oldState = storage.get(localX, localY, localZ);
+        if (oldState == state) {
+            return false;
+        }
+        storage.set(localX, localY, localZ, state);
+
+        short localAddress = (short) AddressTools.getLocalAddress(localX, localY, localZ);
+        if (!edit.oldStates.containsKey(localAddress)) {
+            edit.oldStates.put(localAddress, oldState);
+            changedBlockCount++;
+        }
+        if (updateTileEntity(cube, pos, oldState, state)) {
+            edit.tileEntitiesChanged = true;
+        }
+        return true;
+    }
+
+    @Nullable
+    private CubeEdit getEdit(int cubeX, int cubeY, int cubeZ) {
+        CubeEdit edit = lastEdit;
+        if (edit != null && edit.cube.getX() == cubeX && edit.cube.getY() == cubeY && edit.cube.getZ() == cubeZ) {
+            return edit;
+        }
+        Cube cube = ((ICubicWorldInternal) world).getCubeFromCubeCoords(cubeX, cubeY, cubeZ);
+        if (!cube.isCubeLoaded()) {
+            return null;
+        }
+        edit = cubeEdits.get(cube);
+        if (edit == null) {
+            edit = new CubeEdit(cube);
+            cubeEdits.put(cube, edit);
+            // blocks are written behind its back, let it rebuild when needed
+            cube.getRandomTickIndex().invalidate();
+        }
+        return lastEdit = edit;
+    }
+
+    // same as vanilla Chunk.setBlockState, except that breakBlock isn't called
+    private boolean updateTileEntity(Cube cube, BlockPos pos, IBlockState oldState, IBlockState newState) {
+        boolean changed = false;
+        if (oldState.getBlock().hasTileEntity(oldState)) {
+            TileEntity te = cube.getTileEntity(pos, Chunk.EnumCreateEntityType.CHECK);
+            if (te != null && te.shouldRefresh(world, pos, oldState, newState)) {
+                world.removeTileEntity(pos);
+                changed = true;
+            }
+        }
+        Block newBlock = newState.getBlock();
+        if (newBlock.hasTileEntity(newState)) {
+            TileEntity te = cube.getTileEntity(pos, Chunk.EnumCreateEntityType.CHECK);
+            if (te == null) {
+                te = newBlock.createTileEntity(world, newState);
+                world.setTileEntity(pos, te);
+                changed = true;
+            }
+            if (te != null) {
+                te.updateContainingBlockInfo();
+            }
+        }
+        return changed;
+    }
+
+    @Override public int getChangedBlockCount() {
+        return changedBlockCount;
+    }
+
+    @Override public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        lastEdit = null;
+
+        LightingManager lightingManager = ((ICubicWorldInternal) world).getLightingManager();
+        BulkLightUpdate lightUpdate = new BulkLightUpdate(lightingManager);
+        PlayerCubeMap playerCubeMap = world.isRemote ? null : (PlayerCubeMap) ((WorldServer) world).getPlayerChunkMap();
+        Long2ObjectOpenHashMap<ColumnEdit> columnEdits = new Long2ObjectOpenHashMap<>();
+
+        for (CubeEdit edit : cubeEdits.values()) {
+            Cube cube = edit.cube;
+            ExtendedBlockStorage storage = cube.getStorage();
+            if (!cube.isCubeLoaded() || storage == null) {
+                continue;
+            }
+            Chunk column = cube.getColumn();
+            long columnKey = ChunkPos.asLong(column.x, column.z);
+            ColumnEdit columnEdit = columnEdits.get(columnKey);
+            if (columnEdit == null) {
+                columnEdit = new ColumnEdit(column);
+                columnEdits.put(columnKey, columnEdit);
+            }
+            IHeightMap heightMap = cube.isSurfaceTracked()
+                    ? ((IColumn) column).getOpacityIndex()
+                    : ((IColumnInternal) column).getStagingHeightMap();
+
+            TShortList changed = new TShortArrayList(edit.oldStates.size());
+            for (Short2ObjectMap.Entry<IBlockState> entry : edit.oldStates.short2ObjectEntrySet()) {
+                short localAddress = entry.getShortKey();
+                int localX = AddressTools.getLocalX(localAddress);
+                int localY = AddressTools.getLocalY(localAddress);
+                int localZ = AddressTools.getLocalZ(localAddress);
+                IBlockState oldState = entry.getValue();
+                IBlockState newState = storage.get(localX, localY, localZ);
+                if (oldState == newState) {
+                    continue;
+                }
+                changed.add(localAddress);
+                lightUpdate.onBlockChanged(cube, localAddress);
+
+                BlockPos pos = cube.localAddressToBlockPos(localAddress);
+                int newOpacity = newState.getLightOpacity(world, pos);
+                // heightmaps only care whether a block is transparent
+                if ((oldState.getLightOpacity(world, pos) == 0) != (newOpacity == 0)) {
+                    columnEdit.beforeOpacityChange(localX, localZ);
+                    heightMap.onOpacityChange(localX, pos.getY(), localZ, newOpacity);
+                    columnEdit.onOpacityChange(localX, pos.getY(), localZ);
+                }
+            }
+            if (changed.isEmpty()) {
+                continue;
+            }
+            cube.markDirty();
+            cube.markChanged(CubeChangeJournal.Change.BLOCKS);
+            if (edit.tileEntitiesChanged) {
+                cube.markChanged(CubeChangeJournal.Change.TILE_ENTITIES);
+            }
+            ((IColumnInternal) column).onCubeTickStateChanged();
+            if (playerCubeMap != null) {
+                playerCubeMap.markBlocksForUpdate(cube.getCoords(), changed);
+            } else {
+                cube.markForRenderUpdate();
+            }
+        }
+        cubeEdits.clear();
+
+        for (ColumnEdit columnEdit : columnEdits.values()) {
+            columnEdit.updateHeights(lightUpdate, lightingManager);
+        }
+        lightUpdate.apply();
+    }
+
+    private static final class CubeEdit {
+
+        final Cube cube;
+        // state of each changed block before its first change in this session
+        final Short2ObjectOpenHashMap<IBlockState> oldStates = new Short2ObjectOpenHashMap<>();
+        boolean tileEntitiesChanged;
+
+        CubeEdit(Cube cube) {
+            this.cube = cube;
+        }
+    }
+
+    private static final class ColumnEdit {
+
+        private final Chunk column;
+        private final BitSet changedColumns = new BitSet(Cube.SIZE * Cube.SIZE);
+        private final int[] oldHeights = new int[Cube.SIZE * Cube.SIZE];
+        private final int[] minChangedY = new int[Cube.SIZE * Cube.SIZE];
+        private final int[] maxChangedY = new int[Cube.SIZE * Cube.SIZE];
+
+        ColumnEdit(Chunk column) {
+            this.column = column;
+        }
+
+        private static int index(int localX, int localZ) {
+            return localZ << 4 | localX;
+        }
+
+        void beforeOpacityChange(int localX, int localZ) {
+            int index = index(localX, localZ);
+            if (!changedColumns.get(index)) {
+                changedColumns.set(index);
+                oldHeights[index] = column.getHeightValue(localX, localZ);
+                minChangedY[index] = Integer.MAX_VALUE;
+                maxChangedY[index] = Integer.MIN_VALUE;
+            }
+        }
+
+        void onOpacityChange(int localX, int blockY, int localZ) {
+            int index = index(localX, localZ);
+            minChangedY[index] = Math.min(minChangedY[index], blockY);
+            maxChangedY[index] = Math.max(maxChangedY[index], blockY);
+        }
+
+        /**
+         * Queues sky light updates and notifies height change listeners for each block column whose height changed.
+         * All opacity changes must have been applied to the heightmaps already.
+         */
+        void updateHeights(BulkLightUpdate lightUpdate, LightingManager lightingManager) {
+            for (int index = changedColumns.nextSetBit(0); index >= 0; index = changedColumns.nextSetBit(index + 1)) {
+                int localX = index & 15;
+                int localZ = index >> 4;
+                int oldHeight = oldHeights[index];
+                int newHeight = column.getHeightValue(localX, localZ);
+                if (oldHeight == newHeight) {
+                    continue;
+                }
+                int minY = Math.min(Math.min(oldHeight, newHeight), minChangedY[index]);
+                int maxY = Math.max(Math.max(oldHeight, newHeight), maxChangedY[index] + 1);
+                lightUpdate.onHeightChanged(column, localX, localZ, minY, maxY);
+                lightingManager.sendHeightMapUpdate(new BlockPos(localToBlock(column.x, localX), 0, localToBlock(column.z, localZ)));
+            }
+        }
+    }
+}
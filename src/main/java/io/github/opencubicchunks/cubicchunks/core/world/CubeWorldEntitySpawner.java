@@ -25,6 +25,11 @@
 package io.github.opencubicchunks.cubicchunks.core.world;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -47,7 +52,9 @@ import net.minecraftforge.fml.common.eventhandler.Event;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -62,8 +69,17 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
     private static final int CUBES_PER_CHUNK = 16;
     private static final int MOB_COUNT_DIV = (int) Math.pow(17.0D, 2.0D) * CUBES_PER_CHUNK;
     private static final int SPAWN_RADIUS = 8;
+    private static final int LOCAL_AREA_SIZE = SPAWN_RADIUS * 2 + PlayerGrid.CELL_CUBES;
+    private static final int LOCAL_AREA_CUBES = LOCAL_AREA_SIZE * LOCAL_AREA_SIZE * LOCAL_AREA_SIZE;
+    private static final EnumCreatureType[] CREATURE_TYPES = EnumCreatureType.values();
 
     @Nonnull private Set<CubePos> cubesForSpawn = new HashSet<>();
+    @Nonnull private final XYZMap<CubePos> visitedCubes = new XYZMap<>(0.75f, 8192);
+    @Nonnull private final PlayerGrid playerGrid = new PlayerGrid();
+    // for local mob caps: creature counts around each player grid cell, shared by all players in that cell,
+    // and the counts for the cell of the player each spawn cube was found for
+    @Nonnull private final XYZMap<CellCreatureCounts> cellCreatureCounts = new XYZMap<>(0.75f, 64);
+    @Nonnull private final Map<CubePos, int[]> spawnCubeCounts = new HashMap<>();
 
     @Override
     public int findChunksForSpawning(WorldServer world, boolean hostileEnable, boolean peacefulEnable, boolean spawnOnSetTickRate) {
@@ -71,60 +87,98 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
             return 0;
         }
         this.cubesForSpawn.clear();
+        this.playerGrid.rebuild(world.playerEntities);
 
         int chunkCount = addEligibleChunks(world, this.cubesForSpawn);
         int totalSpawnCount = 0;
 
-        for (EnumCreatureType mobType : EnumCreatureType.values()) {
+        for (EnumCreatureType mobType : CREATURE_TYPES) {
             if (!shouldSpawnType(mobType, hostileEnable, peacefulEnable, spawnOnSetTickRate)) {
                 continue;
             }
-            int worldEntityCount = world.countEntities(mobType, true);
-            int maxEntityCount = mobType.getMaxNumberOfCreature() * chunkCount / MOB_COUNT_DIV;
+            ArrayList<CubePos> shuffled;
+            if (CubicChunksConfig.localMobCaps) {
+                shuffled = getCubesBelowLocalCap(mobType);
+                if (shuffled.isEmpty()) {
+                    continue;
+                }
+                Collections.shuffle(shuffled);
+            } else {
+                int worldEntityCount = world.countEntities(mobType, true);
+                int maxEntityCount = mobType.getMaxNumberOfCreature() * chunkCount / MOB_COUNT_DIV;
 
-            if (worldEntityCount > maxEntityCount) {
-                continue;
+                if (worldEntityCount > maxEntityCount) {
+                    continue;
+                }
+                shuffled = getShuffledCopy(this.cubesForSpawn);
             }
-            ArrayList<CubePos> shuffled = getShuffledCopy(this.cubesForSpawn);
             totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, shuffled);
         }
         return totalSpawnCount;
     }
 
+    private ArrayList<CubePos> getCubesBelowLocalCap(EnumCreatureType mobType) {
+        int maxLocalCount = mobType.getMaxNumberOfCreature() * LOCAL_AREA_CUBES / MOB_COUNT_DIV;
+        ArrayList<CubePos> cubes = new ArrayList<>(this.cubesForSpawn.size());
+        for (CubePos pos : this.cubesForSpawn) {
+            if (spawnCubeCounts.get(pos)[mobType.ordinal()] <= maxLocalCount) {
+                cubes.add(pos);
+            }
+        }
+        return cubes;
+    }
+
     private int addEligibleChunks(WorldServer world, Set<CubePos> possibleChunks) {
         int chunkCount = 0;
         Random r = world.rand;
-        Set<CubePos> allCubes = new HashSet<>();
+        // XYZMap lookup by coordinates, so that cubes already visited for other players don't need a CubePos allocation
+        XYZMap<CubePos> allCubes = this.visitedCubes;
+        allCubes.clear();
+        boolean localCaps = CubicChunksConfig.localMobCaps;
+        if (localCaps) {
+            spawnCubeCounts.clear();
+            cellCreatureCounts.clear();
+        }
         for (EntityPlayer player : world.playerEntities) {
             if (player.isSpectator()) {
                 continue;
             }
             CubePos center = CubePos.fromEntity(player);
+            int[] localCounts = localCaps ? getCreatureCountsAround(world, center) : null;
 
             for (int cubeXRel = -SPAWN_RADIUS; cubeXRel <= SPAWN_RADIUS; ++cubeXRel) {
                 for (int cubeYRel = -SPAWN_RADIUS; cubeYRel <= SPAWN_RADIUS; ++cubeYRel) {
                     for (int cubeZRel = -SPAWN_RADIUS; cubeZRel <= SPAWN_RADIUS; ++cubeZRel) {
-                        CubePos chunkPos = center.add(cubeXRel, cubeYRel, cubeZRel);
+                        int cubeX = center.getX() + cubeXRel;
+                        int cubeY = center.getY() + cubeYRel;
+                        int cubeZ = center.getZ() + cubeZRel;
 
-                        if (allCubes.contains(chunkPos)) {
+                        if (allCubes.contains(cubeX, cubeY, cubeZ)) {
                             continue;
                         }
-                        assert !possibleChunks.contains(chunkPos);
                         ++chunkCount;
 
                         boolean isEdge = cubeXRel == -SPAWN_RADIUS || cubeXRel == SPAWN_RADIUS ||
                                 cubeYRel == -SPAWN_RADIUS || cubeYRel == SPAWN_RADIUS ||
                                 cubeZRel == -SPAWN_RADIUS || cubeZRel == SPAWN_RADIUS;
 
-                        if (isEdge || !world.getWorldBorder().contains(chunkPos.chunkPos())) {
+                        if (isEdge) {
+                            continue;
+                        }
+                        CubePos chunkPos = new CubePos(cubeX, cubeY, cubeZ);
+                        assert !possibleChunks.contains(chunkPos);
+                        if (!world.getWorldBorder().contains(chunkPos.chunkPos())) {
                             continue;
                         }
                         CubeWatcher chunkInfo = ((PlayerCubeMap) world.getPlayerChunkMap()).getCubeWatcher(chunkPos);
 
                         if (chunkInfo != null && chunkInfo.isSentToPlayers()) {
-                            allCubes.add(chunkPos);
+                            allCubes.put(chunkPos);
                             if (r.nextInt(SPAWN_RADIUS * 2 + 1) == 0) {
                                 possibleChunks.add(chunkPos);
+                                if (localCaps) {
+                                    spawnCubeCounts.put(chunkPos, localCounts);
+                                }
                             }
                         }
                     }
@@ -134,6 +188,41 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
         return chunkCount;
     }
 
+    private int[] getCreatureCountsAround(WorldServer world, CubePos center) {
+        int cellX = PlayerGrid.cubeToCell(center.getX());
+        int cellY = PlayerGrid.cubeToCell(center.getY());
+        int cellZ = PlayerGrid.cubeToCell(center.getZ());
+        CellCreatureCounts cell = cellCreatureCounts.get(cellX, cellY, cellZ);
+        if (cell == null) {
+            cell = new CellCreatureCounts(cellX, cellY, cellZ);
+            countCreaturesAround(world, cell);
+            cellCreatureCounts.put(cell);
+        }
+        return cell.counts;
+    }
+
+    // counts creatures in cubes within SPAWN_RADIUS of any cube in the cell
+    private static void countCreaturesAround(WorldServer world, CellCreatureCounts cell) {
+        CubeProviderServer cubeCache = ((ICubicWorldInternal.Server) world).getCubeCache();
+        int minX = PlayerGrid.cellToMinCube(cell.x) - SPAWN_RADIUS;
+        int minY = PlayerGrid.cellToMinCube(cell.y) - SPAWN_RADIUS;
+        int minZ = PlayerGrid.cellToMinCube(cell.z) - SPAWN_RADIUS;
+        for (int cubeX = minX; cubeX < minX + LOCAL_AREA_SIZE; ++cubeX) {
+            for (int cubeY = minY; cubeY < minY + LOCAL_AREA_SIZE; ++cubeY) {
+                for (int cubeZ = minZ; cubeZ < minZ + LOCAL_AREA_SIZE; ++cubeZ) {
+                    Cube cube = cubeCache.getLoadedCube(cubeX, cubeY, cubeZ);
+                    if (cube == null) {
+                        continue;
+                    }
+                    EntityContainer entities = cube.getEntityContainer();
+                    for (EnumCreatureType type : CREATURE_TYPES) {
+                        cell.counts[type.ordinal()] += entities.getCreatureCount(type);
+                    }
+                }
+            }
+        }
+    }
+
     private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, WorldServer world, ArrayList<CubePos> chunkList) {
         BlockPos spawnPoint = world.getSpawnPoint();
         BlockPos.MutableBlockPos blockPos = new BlockPos.MutableBlockPos();
@@ -175,7 +264,7 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
                     float entityX = (float) entityBlockX + 0.5F;
                     float entityZ = (float) entityBlockZ + 0.5F;
 
-                    if (world.isAnyPlayerWithinRangeAt(entityX, entityY, entityZ, 24.0D) ||
+                    if (playerGrid.isAnyPlayerWithinRangeAt(entityX, entityY, entityZ, 24.0D) ||
                             spawnPoint.distanceSq(entityX, entityY, entityZ) < 576.0D) {
                         continue;
                     }
@@ -256,4 +345,28 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
         int blockY = pos.getMinBlockY() + world.rand.nextInt(Cube.SIZE);
         return new BlockPos(blockX, blockY, blockZ);
     }
+
+    private static final class CellCreatureCounts implements XYZAddressable {
+
+        private final int x, y, z;
+        private final int[] counts = new int[CREATURE_TYPES.length];
+
+        CellCreatureCounts(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
 }
@@ -28,6 +28,7 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
+import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
@@ -37,9 +38,11 @@ import net.minecraftforge.common.util.Constants;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 //TODO: Have xcube review this class... I dont trust it
@@ -49,12 +52,31 @@ public class EntityContainer {
     @SuppressWarnings("unchecked")
     public static final ClassInheritanceMultiMap<Entity>[] EMPTY_ARR = new ClassInheritanceMultiMap[]{new BlankEntityContainer.BlankEntityMap()};
 
+    private static final EnumCreatureType[] CREATURE_TYPES = EnumCreatureType.values();
+
+    private static final ClassInheritanceMultiMap<Entity> EMPTY_MAP = new EmptyEntityMap();
+
+    /**
+     * Entities in this container. Most containers never get any entities, so until the first entity is added, or the
+     * map is requested through {@link #getEntitySet()}, this is a shared immutable empty map.
+     */
     @Nonnull protected ClassInheritanceMultiMap<Entity> entities;
     protected boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
     protected long lastSaveTime;
+    /**
+     * Amount of entities of each {@link EnumCreatureType}, indexed by ordinal, or null if there are none.
+     * Includes persistent entities. Kept up to date on add/remove, so the entity spawner can skip containers without
+     * entities of a type.
+     */
+    @Nullable private int[] creatureCounts;
+    /**
+     * Set once the mutable entity map has been handed out by {@link #getEntitySet()}. Entities added or removed through
+     * it bypass {@link #creatureCounts}, so from then on it can't be used to skip counting.
+     */
+    private boolean entitySetExposed;
 
     public EntityContainer() {
-        this.entities = new ClassInheritanceMultiMap<>(Entity.class);
+        this.entities = EMPTY_MAP;
         this.hasActiveEntities = false;
         this.lastSaveTime = 0;
     }
@@ -64,20 +86,78 @@ public class EntityContainer {
     //=======================================
 
     public void addEntity(Entity entity) {
-        this.entities.add(entity);
+        getOrCreateEntityMap().add(entity);
         this.hasActiveEntities = true;
+        updateCreatureCounts(entity, 1);
     }
 
     public boolean remove(Entity entity) {
-        return this.entities.remove(entity);
+        boolean removed = this.entities.remove(entity);
+        if (removed) {
+            updateCreatureCounts(entity, -1);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the amount of entities of the given creature type in this container, counted the same way as
+     * {@link World#countEntities(EnumCreatureType, boolean)} with forSpawnCount set, so entities that don't despawn are
+     * skipped. An entity can become persistent after being added, so only containers that have entities of that type
+     * are checked for it.
+     *
+     * @param type the creature type
+     * @return amount of entities of that type that count towards the mob cap
+     */
+    public int getCreatureCount(EnumCreatureType type) {
+        if (!entitySetExposed && (creatureCounts == null || creatureCounts[type.ordinal()] == 0)) {
+            return 0;
+        }
+        int count = 0;
+        for (Entity entity : this.entities.getByClass(type.getCreatureClass())) {
+            if (entity.isCreatureType(type, true)) {
+                count++;
+            }
+        }
+        return count;
     }
 
+    private void updateCreatureCounts(Entity entity, int delta) {
+        for (EnumCreatureType type : CREATURE_TYPES) {
+            if (entity.isCreatureType(type, false)) {
+                if (creatureCounts == null) {
+                    creatureCounts = new int[CREATURE_TYPES.length];
+                }
+                creatureCounts[type.ordinal()] += delta;
+            }
+        }
+    }
+
+    /**
+     * Returns the entity map of this container, allocating it if it's still empty, as callers may modify it.
+     * Changes made through it aren't tracked, so afterwards {@link #getCreatureCount(EnumCreatureType)} always counts
+     * the entities. Use {@link #getEntities()} or {@link #getByClass(Class)} to only read the entities.
+     *
+     * @return the entity map
+     */
     public ClassInheritanceMultiMap<Entity> getEntitySet() {
+        this.entitySetExposed = true;
+        return getOrCreateEntityMap();
+    }
+
+    private ClassInheritanceMultiMap<Entity> getOrCreateEntityMap() {
+        if (this.entities == EMPTY_MAP) {
+            this.entities = new ClassInheritanceMultiMap<>(Entity.class);
+        }
         return this.entities;
     }
 
+    public <T> Iterable<T> getByClass(Class<T> cl) {
+        return this.entities.getByClass(cl);
+    }
+
     public void clear() {
         this.entities.clear();
+        this.creatureCounts = null;
     }
 
     public Collection<Entity> getEntities() {
@@ -159,4 +239,36 @@ public class EntityContainer {
         }
         return entity;
     }
+
+    private static final class EmptyEntityMap extends ClassInheritanceMultiMap<Entity> {
+
+        EmptyEntityMap() {
+            super(Entity.class);
+        }
+
+        @Override
+        public boolean add(Entity e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return false;
+        }
+
+        @Override
+        public <S> Iterable<S> getByClass(Class<S> cl) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Iterator<Entity> iterator() {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
 }
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.world;
 
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import net.minecraft.world.chunk.ChunkPrimer;
 
 public interface IColumnInternal extends IColumn {
@@ -35,6 +36,16 @@ public interface IColumnInternal extends IColumn {
 
     void addToStagingHeightmap(ICube cube);
 
+    /**
+     * Called when a loaded cube of this column gets or loses block storage, or starts or stops ticking
+     */
+    void onCubeTickStateChanged();
+
+    /**
+     * Returns the heightmap of cubes whose blocks are not in the column heightmap yet, see {@link ICube#isSurfaceTracked()}
+     */
+    IHeightMap getStagingHeightMap();
+
     /**
      * Returns Y coordinate of the block above the top non-transparent block
      */
@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.EntitySelectors;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Spatial index of players, bucketed into cells of 2x2x2 cubes. It's a snapshot, rebuilt with {@link #rebuild(List)}
+ * when player positions may have changed. Player proximity checks only look at players in cells overlapping the
+ * queried range, instead of at all players in the world.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class PlayerGrid {
+
+    private static final int CELL_BITS = 5;
+    /**
+     * Size of a cell, in cubes.
+     */
+    public static final int CELL_CUBES = 1 << (CELL_BITS - 4);
+
+    private final XYZMap<Cell> cells = new XYZMap<>(0.75f, 64);
+
+    /**
+     * Replaces the contents of this index with the given players. Spectators are skipped.
+     *
+     * @param players the players
+     */
+    public void rebuild(List<EntityPlayer> players) {
+        cells.clear();
+        for (EntityPlayer player : players) {
+            if (!EntitySelectors.NOT_SPECTATING.apply(player)) {
+                continue;
+            }
+            int x = toCell(player.posX), y = toCell(player.posY), z = toCell(player.posZ);
+            Cell cell = cells.get(x, y, z);
+            if (cell == null) {
+                cell = new Cell(x, y, z);
+                cells.put(cell);
+            }
+            cell.players.add(player);
+        }
+    }
+
+    /**
+     * Equivalent of {@link net.minecraft.world.World#isAnyPlayerWithinRangeAt(double, double, double, double)} for non-negative
+     * range, for the players indexed by the last {@link #rebuild(List)}.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @param range range, in blocks
+     * @return true if any non-spectator player is closer than range
+     */
+    public boolean isAnyPlayerWithinRangeAt(double x, double y, double z, double range) {
+        double rangeSq = range * range;
+        int minX = toCell(x - range), maxX = toCell(x + range);
+        int minY = toCell(y - range), maxY = toCell(y + range);
+        int minZ = toCell(z - range), maxZ = toCell(z + range);
+        long boxCells = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (boxCells > cells.getSize()) {
+            // large range, faster to just check all of them
+            for (Cell cell : cells) {
+                if (anyWithinRange(cell, x, y, z, rangeSq)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellY = minY; cellY <= maxY; cellY++) {
+                for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                    Cell cell = cells.get(cellX, cellY, cellZ);
+                    if (cell != null && anyWithinRange(cell, x, y, z, rangeSq)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyWithinRange(Cell cell, double x, double y, double z, double rangeSq) {
+        for (EntityPlayer player : cell.players) {
+            if (player.getDistanceSq(x, y, z) < rangeSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toCell(double coord) {
+        return MathHelper.floor(coord) >> CELL_BITS;
+    }
+
+    /**
+     * @param cubeCoord cube coordinate
+     * @return coordinate of the cell containing that cube
+     */
+    public static int cubeToCell(int cubeCoord) {
+        return cubeCoord >> (CELL_BITS - 4);
+    }
+
+    /**
+     * @param cellCoord cell coordinate
+     * @return coordinate of the first cube in that cell
+     */
+    public static int cellToMinCube(int cellCoord) {
+        return cellCoord << (CELL_BITS - 4);
+    }
+
+    private static final class Cell implements XYZAddressable {
+
+        private final int x, y, z;
+        private final List<EntityPlayer> players = new ArrayList<>(1);
+
+        Cell(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -27,7 +27,9 @@ package io.github.opencubicchunks.cubicchunks.core.world;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.util.HeapSize;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 
 import java.io.ByteArrayInputStream;
@@ -736,6 +738,15 @@ public class ServerHeightMap implements IHeightMap {
         }
     }
 
+    /**
+     * Writes the same data as {@link #getDataForClient()} directly to the buffer
+     */
+    public void writeDataForClient(ByteBuf out) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            out.writeInt(ymax.get(i));
+        }
+    }
+
     public byte[] getDataForClient() {
         try {
             ByteArrayOutputStream buf = new ByteArrayOutputStream();
@@ -799,6 +810,22 @@ public class ServerHeightMap implements IHeightMap {
 
     // Debug -----------------------------------------------------------------------------------------------------------
 
+    /**
+     * @return estimated amount of heap memory used by this heightmap, in bytes
+     */
+    public long estimateMemoryUsage() {
+        long size = HeapSize.object(HeapSize.REFERENCE * 3 + 4);
+        size += HeapSize.array(this.ymin.length, 4);
+        size += HeapSize.object(HeapSize.REFERENCE) + HeapSize.array(Cube.SIZE * Cube.SIZE, 4);
+        size += HeapSize.array(this.segments.length, HeapSize.REFERENCE);
+        for (int[] segment : this.segments) {
+            if (segment != null) {
+                size += HeapSize.array(segment.length, 4);
+            }
+        }
+        return size;
+    }
+
     public String dump(int localX, int localZ) {
         int i = getIndex(localX, localZ);
 
@@ -57,16 +57,20 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
     }
 
     @Override public int size() {
-        return column.getLoadedCubes().stream()
-                .map(ICube::getTileEntityMap)
-                .map(Map::size)
-                .reduce(Integer::sum).orElse(0);
+        int size = 0;
+        for (ICube cube : column.getLoadedCubes()) {
+            size += cube.getTileEntityMap().size();
+        }
+        return size;
     }
 
     @Override public boolean isEmpty() {
-        return  column.getLoadedCubes().stream()
-                .map(ICube::getTileEntityMap)
-                .allMatch(Map::isEmpty);
+        for (ICube cube : column.getLoadedCubes()) {
+            if (!cube.getTileEntityMap().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override public boolean containsKey(Object o) {
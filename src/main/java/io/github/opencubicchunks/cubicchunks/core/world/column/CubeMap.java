@@ -28,31 +28,75 @@ import com.google.common.collect.Lists;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
- * Stores cubes for columns
+ * Stores cubes for columns.
+ * <p>
+ * Cubes are looked up by Y in a hash map. The list of cubes sorted by Y and the array of block storages to tick are
+ * only rebuilt when something changed since they were last requested, so columns with a lot of loaded cubes don't pay
+ * for a full scan or for shifting a list on every change.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public class CubeMap implements Iterable<Cube> {
 
-    @Nonnull private final List<Cube> cubes = new ArrayList<>();
+    private static final ExtendedBlockStorage[] NO_STORAGES = new ExtendedBlockStorage[0];
 
-    @Nonnull private ExtendedBlockStorage[] toBlockTick = new ExtendedBlockStorage[0];
+    @Nonnull private final Int2ObjectOpenHashMap<Cube> cubes = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * All cubes sorted by Y, or null if it needs to be rebuilt. A new list is created on each rebuild, so a list that
+     * has been handed out is never modified.
+     */
+    @Nullable private List<Cube> sorted = Collections.emptyList();
+
+    /**
+     * Block storages of ticking cubes sorted by Y, or null if it needs to be rebuilt
+     */
+    @Nullable private ExtendedBlockStorage[] toBlockTick = NO_STORAGES;
+
+    @Nonnull private final Collection<Cube> allView = new AbstractCollection<Cube>() {
+        @Override public Iterator<Cube> iterator() {
+            return CubeMap.this.iterator();
+        }
+
+        @Override public int size() {
+            return cubes.size();
+        }
+
+        @Override public boolean contains(Object o) {
+            return o instanceof Cube && cubes.get(((Cube) o).getY()) == o;
+        }
+    };
+
+    /**
+     * Returns the cube at {@code cubeY}
+     *
+     * @param cubeY cube y position
+     *
+     * @return the cube if it's stored here, otherwise <code>null</code>
+     */
+    @Nullable public Cube get(int cubeY) {
+        return cubes.get(cubeY);
+    }
 
     /**
      * Removes the cube at {@code cubeY}
@@ -62,8 +106,12 @@ public class CubeMap implements Iterable<Cube> {
      * @return the removed cube if it existed, otherwise <code>null</code>
      */
     @Nullable public Cube remove(int cubeY) {
-        int index = binarySearch(cubeY);
-        return index < cubes.size() && cubes.get(index).getY() == cubeY ? cubes.remove(index) : null;
+        Cube removed = cubes.remove(cubeY);
+        if (removed != null) {
+            sorted = null;
+            toBlockTick = null;
+        }
+        return removed;
     }
 
     /**
@@ -72,11 +120,12 @@ public class CubeMap implements Iterable<Cube> {
      * @param cube the cube to add
      */
     public void put(Cube cube) {
-        int searchIndex = binarySearch(cube.getY());
-        if (this.contains(cube.getY(), searchIndex)) {
+        if (cubes.containsKey(cube.getY())) {
             throw new IllegalArgumentException("Cube at " + cube.getY() + " already exists!");
         }
-        cubes.add(searchIndex, cube);
+        cubes.put(cube.getY(), cube);
+        sorted = null;
+        toBlockTick = null;
     }
 
     /**
@@ -89,43 +138,29 @@ public class CubeMap implements Iterable<Cube> {
      * @return an iterator over the cubes
      */
     public Iterable<Cube> cubes(int startY, int endY) {
-        boolean reverse = false;
-        if (startY > endY) {
-            int i = startY;
-            startY = endY;
-            endY = i;
-            reverse = true;
-        }
-
-        int bottom = binarySearch(startY);
-        int top = binarySearch(endY + 1); // subList()'s second arg is exclusive so we need to add 1
-
-        if (bottom < cubes.size() && top <= cubes.size()) {
-            return reverse ? Lists.reverse(cubes.subList(bottom, top)) : cubes.subList(bottom, top);
-        } else {
+        if (cubes.isEmpty()) {
             return Collections.emptyList();
         }
+        int minY = Math.min(startY, endY);
+        int maxY = Math.max(startY, endY);
+        if ((long) maxY - minY < cubes.size()) {
+            // few positions to check, look each of them up instead of building the sorted list
+            return () -> new RangeIterator(startY, endY);
+        }
+        List<Cube> sorted = sorted();
+        int bottom = firstAbove(sorted, minY - 1L);
+        int top = firstAbove(sorted, maxY);
+        List<Cube> range = sorted.subList(bottom, top);
+        return startY > endY ? Lists.reverse(range) : range;
     }
 
     /**
-     * Check if the target cube is stored here
-     *
-     * @param cubeY the y coordinate of the cube
-     * @param searchIndex the index to search at (got form {@link #binarySearch(int)})
-     *
-     * @return <code>true</code> if the cube is contained here, <code>false</code> otherwise
-     */
-    private boolean contains(int cubeY, int searchIndex) {
-        return searchIndex < cubes.size() && cubes.get(searchIndex).getY() == cubeY;
-    }
-
-    /**
-     * Iterate over all cubes in this storage
+     * Iterate over all cubes in this storage, in order from bottom to top
      *
      * @return the iterator
      */
     @Override public Iterator<Cube> iterator() {
-        return cubes.iterator();
+        return sorted().iterator();
     }
 
     /**
@@ -134,7 +169,7 @@ public class CubeMap implements Iterable<Cube> {
      * @return the collection
      */
     public Collection<Cube> all() {
-        return cubes;
+        return allView;
     }
 
     /**
@@ -146,72 +181,112 @@ public class CubeMap implements Iterable<Cube> {
         return cubes.isEmpty();
     }
 
+    /**
+     * Marks the array returned by {@link #getStoragesToTick()} as outdated. Has to be called when a cube in this
+     * storage gets or loses block storage, or starts or stops ticking.
+     */
+    public void invalidateStoragesToTick() {
+        toBlockTick = null;
+    }
+
     /**
      * @return An array of EBSs from cubes that need ticking
      */
     public ExtendedBlockStorage[] getStoragesToTick() {
-        if (!isToTickValid()) {
+        if (toBlockTick == null) {
+            List<Cube> sorted = sorted();
             int count = 0;
-            for (Cube cube : cubes) {
+            for (Cube cube : sorted) {
                 if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
                     count++;
                 }
             }
 
-            toBlockTick = new ExtendedBlockStorage[count];
+            ExtendedBlockStorage[] storages = new ExtendedBlockStorage[count];
             count = 0;
-            for (Cube cube : cubes) {
+            for (Cube cube : sorted) {
                 if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
-                    toBlockTick[count++] = cube.getStorage();
+                    storages[count++] = cube.getStorage();
                 }
             }
+            toBlockTick = storages;
         }
-
         return toBlockTick;
     }
 
-    private boolean isToTickValid() {
-        int index = 0;
-        for (Cube cube : cubes) {
-            if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
-                if (index >= toBlockTick.length) {
-                    return false;
-                }
-                if (toBlockTick[index++] != cube.getStorage()) {
-                    return false;
-                }
-            }
+    private List<Cube> sorted() {
+        if (sorted == null) {
+            Cube[] array = cubes.values().toArray(new Cube[0]);
+            Arrays.sort(array, Comparator.comparingInt(Cube::getY));
+            sorted = Collections.unmodifiableList(Arrays.asList(array));
         }
-        return index == toBlockTick.length; // did we check everything there was in toBlockTick?
+        return sorted;
     }
 
     /**
-     * Binary search for the index of the specified cube. If the cube is not present, returns the index at which it
-     * should be inserted.
+     * Binary search for the index of the first cube above {@code cubeY} in the sorted list
      *
+     * @param sorted cubes sorted by y position
      * @param cubeY cube y position
      *
      * @return the target index
      */
-    private int binarySearch(int cubeY) {
+    private static int firstAbove(List<Cube> sorted, long cubeY) {
         int start = 0;
-        int end = cubes.size() - 1;
-        int mid;
+        int end = sorted.size() - 1;
 
         while (start <= end) {
-            mid = start + end >>> 1;
-
-            int at = cubes.get(mid).getY();
-            if (at < cubeY) { // we are below the target;
+            int mid = start + end >>> 1;
+            if (sorted.get(mid).getY() <= cubeY) {
                 start = mid + 1;
-            } else if (at > cubeY) {
-                end = mid - 1; // we are above the target
             } else {
-                return mid;// found target!
+                end = mid - 1;
             }
         }
+        return start;
+    }
+
+    private class RangeIterator implements Iterator<Cube> {
+        private final int step;
+        private final int endY;
+        private int y;
+        private boolean done;
+        @Nullable private Cube next;
+
+        RangeIterator(int startY, int endY) {
+            this.step = startY > endY ? -1 : 1;
+            this.endY = endY;
+            this.y = startY;
+            this.next = findNext();
+        }
 
-        return start; // not found :(
+        @Nullable private Cube findNext() {
+            while (!done) {
+                Cube cube = cubes.get(y);
+                if (y == endY) {
+                    done = true;
+                } else {
+                    y += step;
+                }
+                if (cube != null) {
+                    return cube;
+                }
+            }
+            return null;
+        }
+
+        @Override public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override public Cube next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Cube cube = next;
+            next = findNext();
+            return cube;
+        }
     }
 
     private int relightCubeIdx = 0;
@@ -221,9 +296,10 @@ public class CubeMap implements Iterable<Cube> {
         if (cubes.isEmpty()) {
             return;
         }
+        List<Cube> sorted = sorted();
         int count = CubicChunksConfig.relightChecksPerTickPerColumn;
         for (int i = 0; i < count; i++) {
-            if (relightCubeIdx >= cubes.size()) {
+            if (relightCubeIdx >= sorted.size()) {
                 relightCubeIdx = 0;
                 relightCubeBlockIdx++;
                 if (relightCubeBlockIdx >= 4096) {
@@ -235,7 +311,7 @@ public class CubeMap implements Iterable<Cube> {
             int reversedBits = Integer.reverse(relightCubeBlockIdx) >>> (32 - 12);
             assert reversedBits < 4096 && reversedBits >= 0;
 
-            final Cube cube = cubes.get(relightCubeIdx);
+            final Cube cube = sorted.get(relightCubeIdx);
             final int x = AddressTools.getLocalX(relightCubeBlockIdx);
             final int y = AddressTools.getLocalY(relightCubeBlockIdx);
             final int z = AddressTools.getLocalZ(relightCubeBlockIdx);
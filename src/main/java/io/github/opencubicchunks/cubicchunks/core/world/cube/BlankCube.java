@@ -112,6 +112,10 @@ public class BlankCube extends Cube {
     public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int light) {
     }
 
+    @Override
+    public void markChanged(CubeChangeJournal.Change change) {
+    }
+
     @Override
     public void markForRenderUpdate() {
     }
@@ -0,0 +1,252 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IBlockStateContainer;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IExtendedBlockStorage;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.BitArray;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Bulk conversion between block state ids and cube block storage, indexed by {@code y << 8 | z << 4 | x} like both
+ * {@link CubePrimer} and {@link BlockStateContainer}.
+ * <p>
+ * Setting blocks one at a time through {@link BlockStateContainer} looks up the palette for every block and repacks
+ * all of the data whenever the palette outgrows the current number of bits. Here the palette is collected first, the
+ * container is sized once and the packed values are written directly. Going the other way, each palette entry is
+ * mapped to its id once instead of looking up every block in the registry.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class BlockStorageCodec {
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+    @SuppressWarnings("deprecation")
+    private static final int AIR_ID = Block.BLOCK_STATE_IDS.get(AIR);
+
+    private BlockStorageCodec() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Creates block storage with the contents of a cube primer. Blocks with air material are left out, like when
+     * copying the blocks one by one.
+     *
+     * @param primer the cube primer
+     * @param minBlockY lowest block y coordinate of the cube
+     * @param hasSkyLight whether the world has sky light
+     * @return the new storage, or null if there are no non-air blocks
+     */
+    @Nullable
+    public static ExtendedBlockStorage createFromPrimer(CubePrimer primer, int minBlockY, boolean hasSkyLight) {
+        return create(primer::getBlockStateId, minBlockY, hasSkyLight, true);
+    }
+
+    /**
+     * Creates block storage from block state ids. Ids without a block state are replaced with air.
+     *
+     * @param ids function from block index to block state id
+     * @param minBlockY lowest block y coordinate of the cube
+     * @param hasSkyLight whether the world has sky light
+     * @return the new storage
+     */
+    public static ExtendedBlockStorage createFromIds(IntUnaryOperator ids, int minBlockY, boolean hasSkyLight) {
+        ExtendedBlockStorage storage = create(ids, minBlockY, hasSkyLight, false);
+        assert storage != null;
+        return storage;
+    }
+
+    /**
+     * Returns a function from block index to the block state id at that index. The function reads the storage directly,
+     * so it reflects later changes to the blocks as long as the palette doesn't change.
+     *
+     * @param storage the block storage
+     * @return function from block index to block state id
+     */
+    @SuppressWarnings("deprecation")
+    public static IntUnaryOperator getIds(ExtendedBlockStorage storage) {
+        IBlockStateContainer container = (IBlockStateContainer) storage.getData();
+        BitArray data = container.getStorage();
+        int bits = container.getBits();
+        if (bits > 8) {
+            // registry palette, the stored values are the ids
+            return data::getAt;
+        }
+        IBlockStatePalette palette = container.getPalette();
+        int[] ids = new int[1 << bits];
+        for (int i = 0; i < ids.length; i++) {
+            IBlockState state = palette.getBlockState(i);
+            ids[i] = state == null ? AIR_ID : Block.BLOCK_STATE_IDS.get(state);
+        }
+        return index -> ids[data.getAt(index)];
+    }
+
+    /**
+     * Returns the block state of all blocks in the storage, or null if not all blocks are the same. Compares the packed
+     * values, without looking up the block state of each block.
+     *
+     * @param storage the block storage
+     * @return the block state of all blocks, or null if the blocks are different
+     */
+    @Nullable
+    public static IBlockState getUniformState(ExtendedBlockStorage storage) {
+        IBlockStateContainer container = (IBlockStateContainer) storage.getData();
+        BitArray data = container.getStorage();
+        int value = data.getAt(0);
+        for (int i = 1; i < BLOCK_COUNT; i++) {
+            if (data.getAt(i) != value) {
+                return null;
+            }
+        }
+        IBlockState state = container.getPalette().getBlockState(value);
+        return state == null ? AIR : state;
+    }
+
+    /**
+     * Replaces all blocks in the storage with the given block state, looking up the palette only once.
+     *
+     * @param storage the block storage
+     * @param state the new block state of all blocks
+     */
+    public static void fill(ExtendedBlockStorage storage, IBlockState state) {
+        IBlockStateContainer container = (IBlockStateContainer) storage.getData();
+        // may resize the container if the palette is full
+        int value = container.getPalette().idFor(state);
+        BitArray data = container.getStorage();
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            data.setAt(i, value);
+        }
+        Block block = state.getBlock();
+        boolean isAir = block == Blocks.AIR;
+        ((IExtendedBlockStorage) storage).setBlockRefCount(isAir ? 0 : BLOCK_COUNT);
+        ((IExtendedBlockStorage) storage).setTickRefCount(!isAir && block.getTickRandomly() ? BLOCK_COUNT : 0);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Nullable
+    private static ExtendedBlockStorage create(IntUnaryOperator ids, int minBlockY, boolean hasSkyLight, boolean skipAirMaterial) {
+        // first pass: collect the distinct states, air first like in vanilla palettes
+        List<IBlockState> states = new ArrayList<>();
+        Reference2IntOpenHashMap<IBlockState> stateIndices = new Reference2IntOpenHashMap<>();
+        stateIndices.defaultReturnValue(-1);
+        Int2IntOpenHashMap idIndices = new Int2IntOpenHashMap();
+        states.add(AIR);
+        stateIndices.put(AIR, 0);
+        idIndices.put(AIR_ID, 0);
+
+        int lastId = AIR_ID;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int id = ids.applyAsInt(i);
+            if (id == lastId || idIndices.containsKey(id)) {
+                lastId = id;
+                continue;
+            }
+            lastId = id;
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(id);
+            if (state == null || (skipAirMaterial && state.getMaterial() == Material.AIR)) {
+                idIndices.put(id, 0);
+                continue;
+            }
+            // multiple ids can map to the same state
+            int index = stateIndices.getInt(state);
+            if (index < 0) {
+                index = states.size();
+                states.add(state);
+                stateIndices.put(state, index);
+            }
+            idIndices.put(id, index);
+        }
+
+        if (skipAirMaterial && states.size() == 1) {
+            return null;
+        }
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(minBlockY, hasSkyLight);
+        if (states.size() == 1) {
+            return storage; // all air, nothing to write
+        }
+
+        // size the container once, then map each state to its stored value
+        IBlockStateContainer container = (IBlockStateContainer) storage.getData();
+        int bits = Math.max(4, Integer.SIZE - Integer.numberOfLeadingZeros(states.size() - 1));
+        if (bits != container.getBits()) {
+            container.resize(bits);
+        }
+        IBlockStatePalette palette = container.getPalette();
+        int[] values = new int[states.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = palette.idFor(states.get(i));
+        }
+
+        // second pass: write the packed values, air is already 0
+        BitArray data = container.getStorage();
+        int[] counts = new int[states.size()];
+        lastId = AIR_ID;
+        int lastIndex = 0;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int id = ids.applyAsInt(i);
+            if (id != lastId) {
+                lastId = id;
+                lastIndex = idIndices.get(id);
+            }
+            counts[lastIndex]++;
+            if (lastIndex != 0) {
+                data.setAt(i, values[lastIndex]);
+            }
+        }
+
+        int blockRefCount = 0;
+        int tickRefCount = 0;
+        for (int i = 1; i < counts.length; i++) {
+            Block block = states.get(i).getBlock();
+            if (block != Blocks.AIR) {
+                blockRefCount += counts[i];
+                if (block.getTickRandomly()) {
+                    tickRefCount += counts[i];
+                }
+            }
+        }
+        ((IExtendedBlockStorage) storage).setBlockRefCount(blockRefCount);
+        ((IExtendedBlockStorage) storage).setTickRefCount(tickRefCount);
+        return storage;
+    }
+}
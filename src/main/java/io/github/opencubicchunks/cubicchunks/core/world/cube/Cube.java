@@ -47,7 +47,6 @@ import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.ICubicTicketInternal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
-import net.minecraft.block.material.Material;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.init.Blocks;
@@ -69,8 +68,8 @@ import net.minecraftforge.event.world.ChunkEvent;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -147,12 +146,22 @@ public class Cube implements ICube {
     @Nonnull
     private final Map<BlockPos, TileEntity> tileEntityMap;
     /**
-     * The positions of tile entities queued for creation
+     * The positions of tile entities queued for creation, null unless provided by a subclass
      */
-    @Nonnull
+    @Nullable
     private final ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
 
-    private final LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
+    /**
+     * Pending sky light updates, created on first use as most cubes never have any
+     */
+    @Nullable
+    private LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
+
+    /**
+     * Positions of randomly ticking blocks, used to speed up random block ticks
+     */
+    @Nonnull
+    private final RandomTickIndex randomTickIndex = new RandomTickIndex();
 
     /**
      * Is this cube loaded and not queued for unload
@@ -182,6 +191,19 @@ public class Cube implements ICube {
      */
     private long lastTicked = Long.MIN_VALUE;
 
+    /**
+     * Versions of the blocks, light, biomes and tile entities of this cube, indexed by {@link CubeChangeJournal.Change}
+     * ordinal. Versions come from {@link CubeChangeJournal#nextVersion()}, so a cube that is unloaded and loaded again
+     * never reuses a version.
+     */
+    private final long[] versions = new long[CubeChangeJournal.Change.COUNT];
+    /**
+     * The journal entry of this cube for {@link #journalTick}, used to report only the latest version when the cube
+     * changes many times in one tick
+     */
+    @Nullable private CubeChangeJournal.Entry journalEntry;
+    private long journalTick = Long.MIN_VALUE;
+
     private final CapabilityDispatcher capabilities;
 
     /**
@@ -199,13 +221,13 @@ public class Cube implements ICube {
         this.tickets = new TicketList(this);
 
         this.entities = new EntityContainer();
-        this.tileEntityMap = new HashMap<>();
-        this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
-
-        this.cubeLightUpdateInfo = ((ICubicWorldInternal) world).getLightingManager().createCubeLightUpdateInfo(this);
+        this.tileEntityMap = new CubeTileEntityMap(this.coords);
+        this.tileEntityPosQueue = null;
 
         this.storage = NULL_STORAGE;
 
+        Arrays.fill(this.versions, ((ICubicWorldInternal) world).getCubeChangeJournal().nextVersion());
+
         AttachCapabilitiesEvent<ICube> event = new AttachCapabilitiesEvent<>(ICube.class, this);
         MinecraftForge.EVENT_BUS.post(event);
         this.capabilities = event.getCapabilities().size() > 0 ? new CapabilityDispatcher(event.getCapabilities(), null) : null;
@@ -218,25 +240,10 @@ public class Cube implements ICube {
      * @param cubeY  cube y position
      * @param primer primer containing the blocks for this cube
      */
-    @SuppressWarnings("deprecation") // when a block is generated, does it really have any extra
-    // information it could give us about its opacity by knowing its location?
     public Cube(Chunk column, int cubeY, CubePrimer primer) {
         this(column, cubeY);
 
-        for (int y = Cube.SIZE - 1; y >= 0; y--) {
-            for (int z = 0; z < Cube.SIZE; z++) {
-                for (int x = 0; x < Cube.SIZE; x++) {
-                    IBlockState newstate = primer.getBlockState(x, y, z);
-
-                    if (newstate.getMaterial() != Material.AIR) {
-                        if (storage == NULL_STORAGE) {
-                            newStorage();
-                        }
-                        storage.set(x, y, z, newstate);
-                    }
-                }
-            }
-        }
+        this.storage = BlockStorageCodec.createFromPrimer(primer, cubeToMinBlock(cubeY), world.provider.hasSkyLight());
         if (primer.hasBiomes()) {
             for (int biomeX = 0; biomeX < 8; biomeX++) {
                 for (int biomeZ = 0; biomeZ < 8; biomeZ++) {
@@ -265,7 +272,7 @@ public class Cube implements ICube {
      */
     protected Cube(TicketList tickets, World world, Chunk column, CubePos coords, ExtendedBlockStorage storage,
                    EntityContainer entities, Map<BlockPos, TileEntity> tileEntityMap,
-                   ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue, LightingManager.CubeLightUpdateInfo lightInfo) {
+                   @Nullable ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue, @Nullable LightingManager.CubeLightUpdateInfo lightInfo) {
         this.tickets = tickets;
         this.world = world;
         this.column = column;
@@ -351,6 +358,7 @@ public class Cube implements ICube {
     }
 
     private void addTileEntity(BlockPos pos, TileEntity tileEntityIn) {
+        markChanged(CubeChangeJournal.Change.TILE_ENTITIES);
         if (tileEntityIn.getWorld() != this.world) { //Forge don't call unless it's changed, could screw up bad mods.
             tileEntityIn.setWorld(this.world);
         }
@@ -373,6 +381,9 @@ public class Cube implements ICube {
      */
     public void tickCubeCommon(BooleanSupplier tryToTickFaster) {
         this.ticked = true;
+        if (this.tileEntityPosQueue == null) {
+            return;
+        }
         while (!this.tileEntityPosQueue.isEmpty()) {
             BlockPos blockpos = this.tileEntityPosQueue.poll();
 
@@ -424,6 +435,7 @@ public class Cube implements ICube {
             this.blockBiomeArray = new byte[8 * 8];
 
         this.blockBiomeArray[AddressTools.getBiomeAddress(localBiomeX, localBiomeZ)] = (byte) Biome.REGISTRY.getIDForObject(biome);
+        markChanged(CubeChangeJournal.Change.BIOMES);
     }
 
     @Nullable
@@ -440,6 +452,7 @@ public class Cube implements ICube {
         } else {
             System.arraycopy(biomeArray, 0, this.blockBiomeArray, 0, this.blockBiomeArray.length);
         }
+        markChanged(CubeChangeJournal.Change.BIOMES);
     }
     //=================================
     //=========Other methods===========
@@ -505,11 +518,32 @@ public class Cube implements ICube {
     @Nullable
     public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
         this.isModified = true;
-        return this.storage = ebs;
+        this.randomTickIndex.invalidate();
+        this.storage = ebs;
+        onTickStateChanged();
+        markChanged(CubeChangeJournal.Change.BLOCKS);
+        markChanged(CubeChangeJournal.Change.LIGHT);
+        return ebs;
     }
 
     private void newStorage() {
         storage = new ExtendedBlockStorage(cubeToMinBlock(getY()), world.provider.hasSkyLight());
+        randomTickIndex.invalidate();
+        onTickStateChanged();
+    }
+
+    /**
+     * Tells the column that the storages to tick may have changed. Cubes that aren't loaded yet can be read on an IO
+     * thread and aren't ticked anyway, the column is told when they are loaded.
+     */
+    private void onTickStateChanged() {
+        if (this.isCubeLoaded) {
+            ((IColumnInternal) column).onCubeTickStateChanged();
+        }
+    }
+
+    public RandomTickIndex getRandomTickIndex() {
+        return this.randomTickIndex;
     }
 
     @Override
@@ -560,6 +594,7 @@ public class Cube implements ICube {
         this.world.addTileEntities(this.tileEntityMap.values());
         this.world.loadEntities(this.entities.getEntities());
         this.isCubeLoaded = true;
+        ((IColumnInternal) column).onCubeTickStateChanged();
         if (!isSurfaceTracked) {
             ((IColumnInternal) getColumn()).addToStagingHeightmap(this);
         }
@@ -641,6 +676,50 @@ public class Cube implements ICube {
         this.isModified = true;
     }
 
+    /**
+     * Gives the given kind of data of this cube a new version and, if the cube is loaded, records the change in the
+     * world's {@link CubeChangeJournal}. This doesn't mark the cube as modified for saving, see {@link #markDirty()}.
+     *
+     * @param change the kind of data that changed
+     */
+    public void markChanged(CubeChangeJournal.Change change) {
+        CubeChangeJournal journal = ((ICubicWorldInternal) world).getCubeChangeJournal();
+        long version = journal.nextVersion();
+        this.versions[change.ordinal()] = version;
+        if (!this.isCubeLoaded) {
+            // cubes being generated or read from disk are new to everyone anyway
+            return;
+        }
+
+        long tick = this.world.getTotalWorldTime();
+        if (this.journalEntry != null && this.journalTick == tick) {
+            this.journalEntry.version = version;
+        } else {
+            this.journalEntry = journal.record(this.coords, version);
+            this.journalTick = tick;
+        }
+    }
+
+    /**
+     * @param change the kind of data
+     * @return the version of the given kind of data of this cube. It changes whenever that data changes.
+     */
+    public long getVersion(CubeChangeJournal.Change change) {
+        return this.versions[change.ordinal()];
+    }
+
+    /**
+     * @return the highest version of any data of this cube. It changes whenever anything tracked in
+     * {@link CubeChangeJournal.Change} changes.
+     */
+    public long getVersion() {
+        long version = this.versions[0];
+        for (int i = 1; i < this.versions.length; i++) {
+            version = Math.max(version, this.versions[i]);
+        }
+        return version;
+    }
+
     /**
      * Retrieve a list of tickets currently holding this cube loaded
      *
@@ -657,11 +736,25 @@ public class Cube implements ICube {
         );
     }
 
+    /**
+     * @return pending sky light updates, or null if this cube never had any
+     */
     @Nullable
     public LightingManager.CubeLightUpdateInfo getCubeLightUpdateInfo() {
         return this.cubeLightUpdateInfo;
     }
 
+    /**
+     * @return pending sky light updates, created if needed, or null if the world doesn't propagate sky light
+     */
+    @Nullable
+    public LightingManager.CubeLightUpdateInfo getOrCreateCubeLightUpdateInfo() {
+        if (this.cubeLightUpdateInfo == null) {
+            this.cubeLightUpdateInfo = ((ICubicWorldInternal) world).getLightingManager().createCubeLightUpdateInfo(this);
+        }
+        return this.cubeLightUpdateInfo;
+    }
+
     /**
      * Mark this cube as a client side cube. Less work is done in this case, as we expect to receive updates from the
      * server
@@ -753,7 +846,7 @@ public class Cube implements ICube {
     }
 
     public void markEdgeNeedSkyLightUpdate(EnumFacing side) {
-        LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo = this.getCubeLightUpdateInfo();
+        LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo = this.getOrCreateCubeLightUpdateInfo();
         if (cubeLightUpdateInfo != null) {
             cubeLightUpdateInfo.markEdgeNeedSkyLightUpdate(side);
         }
@@ -0,0 +1,163 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectBidirectionalIterator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.World;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Per-world record of which cubes changed recently.
+ * <p>
+ * Every change to a cube's blocks, light, biomes or tile entities gets a new version from {@link #nextVersion()}, so
+ * versions are unique and increasing within a world. A consumer can remember the version it last saw for a cube and
+ * compare it with {@link Cube#getVersion(Change)}, or ask the journal for all cubes changed since a given tick instead
+ * of scanning every loaded cube.
+ * <p>
+ * Only changes to loaded cubes are recorded, a cube that was just generated or read from disk is new to every consumer
+ * anyway. The journal only remembers the last {@link #RETENTION_TICKS} ticks. Use {@link #covers(long)} to check whether a
+ * query can be answered, and fall back to a full scan if it can't.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CubeChangeJournal {
+
+    /**
+     * How long changes are remembered, in ticks
+     */
+    public static final int RETENTION_TICKS = 20 * 60;
+
+    private final World world;
+    // cubes read from disk get their versions on IO threads
+    private final AtomicLong version = new AtomicLong();
+    // ordered by the time of the last change, oldest first
+    private final Object2ObjectLinkedOpenHashMap<CubePos, Entry> changes = new Object2ObjectLinkedOpenHashMap<>();
+    private long trimmedBefore = Long.MIN_VALUE;
+
+    public CubeChangeJournal(World world) {
+        this.world = world;
+    }
+
+    /**
+     * @return a new version, greater than any version returned before
+     */
+    public long nextVersion() {
+        return version.incrementAndGet();
+    }
+
+    /**
+     * @return the most recent version returned by {@link #nextVersion()}
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Records that the cube at the given position changed. Called by {@link Cube} at most once per tick per cube, later
+     * changes in the same tick update the version of the returned entry directly.
+     *
+     * @param pos position of the changed cube
+     * @param version the new version of the cube
+     * @return the journal entry for the cube
+     */
+    public Entry record(CubePos pos, long version) {
+        long tick = world.getTotalWorldTime();
+        Entry entry = changes.getAndMoveToLast(pos);
+        if (entry == null) {
+            entry = new Entry(version, tick);
+            changes.put(pos, entry);
+        } else {
+            entry.version = version;
+            entry.tick = tick;
+        }
+        trim(tick);
+        return entry;
+    }
+
+    private void trim(long tick) {
+        long minTick = tick - RETENTION_TICKS;
+        while (!changes.isEmpty() && changes.get(changes.firstKey()).tick < minTick) {
+            changes.removeFirst();
+            trimmedBefore = minTick;
+        }
+    }
+
+    /**
+     * @param sinceTick the first tick of interest
+     * @return true if every cube changed since {@code sinceTick} is still in the journal
+     */
+    public boolean covers(long sinceTick) {
+        return sinceTick >= trimmedBefore;
+    }
+
+    /**
+     * Calls the consumer with the position and current version of each cube changed at or after {@code sinceTick},
+     * most recently changed first. Cubes that were unloaded since then are included.
+     *
+     * @param sinceTick the first tick of interest
+     * @param consumer receives cube position and version
+     */
+    public void forEachChangedSince(long sinceTick, ObjLongConsumer<CubePos> consumer) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        ObjectBidirectionalIterator<CubePos> it = changes.keySet().iterator(changes.lastKey());
+        while (it.hasPrevious()) {
+            CubePos pos = it.previous();
+            Entry entry = changes.get(pos);
+            if (entry.tick < sinceTick) {
+                return;
+            }
+            consumer.accept(pos, entry.version);
+        }
+    }
+
+    /**
+     * Kinds of cube data tracked by a separate version
+     */
+    public enum Change {
+        BLOCKS, LIGHT, BIOMES, TILE_ENTITIES;
+
+        static final int COUNT = values().length;
+    }
+
+    public static final class Entry {
+
+        long version;
+        long tick;
+
+        Entry(long version, long tick) {
+            this.version = version;
+            this.tick = tick;
+        }
+    }
+}
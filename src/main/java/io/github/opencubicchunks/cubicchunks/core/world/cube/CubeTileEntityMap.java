@@ -0,0 +1,224 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.HeapSize;
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.objects.ObjectCollection;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectLists;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Tile entities of a single cube, keyed by their local address within the cube (see
+ * {@link AddressTools#getLocalAddress(int, int, int)}) instead of by {@link BlockPos}, so lookups only hash a short.
+ * <p>
+ * The {@link java.util.Map} view is kept for compatibility. {@link #values()} and the local coordinate accessors
+ * don't allocate anything per tile entity, {@link #keySet()} and {@link #entrySet()} create a {@link BlockPos} for
+ * each entry. Most cubes never have a tile entity, so the backing map is only allocated on first insertion.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CubeTileEntityMap extends AbstractMap<BlockPos, TileEntity> {
+
+    private final int minBlockX;
+    private final int minBlockY;
+    private final int minBlockZ;
+    @Nullable private Short2ObjectOpenHashMap<TileEntity> tileEntities;
+    @Nullable private Set<Entry<BlockPos, TileEntity>> entrySet;
+
+    public CubeTileEntityMap(CubePos cubePos) {
+        this.minBlockX = cubePos.getMinBlockX();
+        this.minBlockY = cubePos.getMinBlockY();
+        this.minBlockZ = cubePos.getMinBlockZ();
+    }
+
+    private static short getLocalAddress(BlockPos pos) {
+        return (short) AddressTools.getLocalAddress(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+    }
+
+    private boolean isInCube(BlockPos pos) {
+        return ((pos.getX() - minBlockX) & ~15) == 0
+                && ((pos.getY() - minBlockY) & ~15) == 0
+                && ((pos.getZ() - minBlockZ) & ~15) == 0;
+    }
+
+    private BlockPos toBlockPos(short localAddress) {
+        return new BlockPos(
+                minBlockX + AddressTools.getLocalX(localAddress),
+                minBlockY + AddressTools.getLocalY(localAddress),
+                minBlockZ + AddressTools.getLocalZ(localAddress));
+    }
+
+    /**
+     * @return estimated amount of heap memory used by this map, not including the tile entities, in bytes
+     */
+    public long estimateMemoryUsage() {
+        long size = HeapSize.object(HeapSize.REFERENCE * 2 + 12);
+        if (tileEntities == null) {
+            return size;
+        }
+        int capacity = HashCommon.arraySize(Math.max(tileEntities.size(), 4), Hash.DEFAULT_LOAD_FACTOR) + 1;
+        return size
+                + HeapSize.object(HeapSize.REFERENCE * 5 + 24)
+                + HeapSize.array(capacity, 2)
+                + HeapSize.array(capacity, HeapSize.REFERENCE);
+    }
+
+    /**
+     * Returns the tile entity at the given cube-local coordinates, without creating a {@link BlockPos}.
+     *
+     * @param localX local x coordinate, 0-15
+     * @param localY local y coordinate, 0-15
+     * @param localZ local z coordinate, 0-15
+     * @return the tile entity at that position, or null if there is none
+     */
+    @Nullable
+    public TileEntity get(int localX, int localY, int localZ) {
+        if (tileEntities == null) {
+            return null;
+        }
+        return tileEntities.get((short) AddressTools.getLocalAddress(localX, localY, localZ));
+    }
+
+    @Override public int size() {
+        return tileEntities == null ? 0 : tileEntities.size();
+    }
+
+    @Override public boolean isEmpty() {
+        return tileEntities == null || tileEntities.isEmpty();
+    }
+
+    @Override public boolean containsKey(Object key) {
+        if (tileEntities == null || !(key instanceof BlockPos) || !isInCube((BlockPos) key)) {
+            return false;
+        }
+        return tileEntities.containsKey(getLocalAddress((BlockPos) key));
+    }
+
+    @Override public boolean containsValue(Object value) {
+        return tileEntities != null && tileEntities.containsValue(value);
+    }
+
+    @Nullable
+    @Override public TileEntity get(Object key) {
+        if (tileEntities == null || !(key instanceof BlockPos) || !isInCube((BlockPos) key)) {
+            return null;
+        }
+        return tileEntities.get(getLocalAddress((BlockPos) key));
+    }
+
+    @Nullable
+    @Override public TileEntity put(BlockPos key, TileEntity value) {
+        if (!isInCube(key)) {
+            throw new IllegalArgumentException("Tile entity position " + key + " is outside of the cube at block "
+                    + new BlockPos(minBlockX, minBlockY, minBlockZ));
+        }
+        if (tileEntities == null) {
+            tileEntities = new Short2ObjectOpenHashMap<>(4);
+        }
+        return tileEntities.put(getLocalAddress(key), value);
+    }
+
+    @Nullable
+    @Override public TileEntity remove(Object key) {
+        if (tileEntities == null || !(key instanceof BlockPos) || !isInCube((BlockPos) key)) {
+            return null;
+        }
+        return tileEntities.remove(getLocalAddress((BlockPos) key));
+    }
+
+    @Override public void clear() {
+        if (tileEntities != null) {
+            tileEntities.clear();
+        }
+    }
+
+    @Override public ObjectCollection<TileEntity> values() {
+        return tileEntities == null ? ObjectLists.emptyList() : tileEntities.values();
+    }
+
+    @Override public Set<Entry<BlockPos, TileEntity>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<BlockPos, TileEntity>>() {
+                @Override public int size() {
+                    return CubeTileEntityMap.this.size();
+                }
+
+                @Override public void clear() {
+                    CubeTileEntityMap.this.clear();
+                }
+
+                @Override public Iterator<Entry<BlockPos, TileEntity>> iterator() {
+                    if (tileEntities == null) {
+                        return Collections.emptyIterator();
+                    }
+                    Short2ObjectOpenHashMap<TileEntity> tileEntities = CubeTileEntityMap.this.tileEntities;
+                    return new Iterator<Entry<BlockPos, TileEntity>>() {
+                        private final ObjectIterator<Short2ObjectMap.Entry<TileEntity>> it = tileEntities.short2ObjectEntrySet().fastIterator();
+
+                        @Override public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override public Entry<BlockPos, TileEntity> next() {
+                            Short2ObjectMap.Entry<TileEntity> entry = it.next();
+                            short localAddress = entry.getShortKey();
+                            return new SimpleEntry<BlockPos, TileEntity>(toBlockPos(localAddress), entry.getValue()) {
+                                @Override public TileEntity setValue(TileEntity value) {
+                                    super.setValue(value);
+                                    return tileEntities.put(localAddress, value);
+                                }
+                            };
+                        }
+
+                        @Override public void remove() {
+                            it.remove();
+                        }
+                    };
+                }
+            };
+        }
+        return entrySet;
+    }
+}
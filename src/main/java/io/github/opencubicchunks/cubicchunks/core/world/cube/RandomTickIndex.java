@@ -0,0 +1,193 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IExtendedBlockStorage;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.HeapSize;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Index of block positions within a cube that contain randomly ticking blocks.
+ * <p>
+ * Random ticks pick one of the 4096 positions in a cube, and most of them end up on stone or air. With this index, a random
+ * 12-bit value is drawn exactly as before, but it's used as an index into the list of ticking positions. Values beyond
+ * the end of the list are misses. This keeps the same probability distribution (each tick hits a given ticking block with
+ * probability 1/4096) without looking up the block state for misses.
+ * <p>
+ * The index is built lazily on first random tick and then kept up to date by {@link #onBlockSet(int, int, int, IBlockState)}.
+ * If the storage is replaced, or modified in a way that bypasses it, it's invalidated and rebuilt.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class RandomTickIndex {
+
+    private static final short[] EMPTY = new short[0];
+
+    /**
+     * Local addresses of randomly ticking blocks, in no particular order. Only the first {@link #size} entries are used.
+     */
+    private short[] positions = EMPTY;
+    private int size;
+    /**
+     * Bitset of all local addresses present in {@link #positions}, to avoid duplicates and searching for positions that
+     * aren't there.
+     */
+    private long[] present;
+    private boolean valid;
+
+    /**
+     * Make this index rebuild itself before next use. Called when the whole block storage is replaced.
+     */
+    public void invalidate() {
+        this.valid = false;
+    }
+
+    /**
+     * Update the index after a block has been changed. Does nothing if the index hasn't been built yet.
+     *
+     * @param localX local x coordinate
+     * @param localY local y coordinate
+     * @param localZ local z coordinate
+     * @param newState the new block state
+     */
+    public void onBlockSet(int localX, int localY, int localZ, IBlockState newState) {
+        if (!valid) {
+            return;
+        }
+        int address = AddressTools.getLocalAddress(localX, localY, localZ);
+        if (newState.getBlock().getTickRandomly()) {
+            add(address);
+        } else {
+            remove(address);
+        }
+    }
+
+    /**
+     * Rebuild this index if it has been invalidated, or if the number of ticking blocks doesn't match the count tracked by
+     * the storage, which happens when blocks are set directly in the storage.
+     *
+     * @param ebs block storage of the cube
+     */
+    public void ensureValid(ExtendedBlockStorage ebs) {
+        if (valid && size == ((IExtendedBlockStorage) ebs).getTickRefCount()) {
+            return;
+        }
+        rebuild(ebs);
+    }
+
+    /**
+     * @return amount of randomly ticking blocks in the cube
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index index in range [0, {@link #size()})
+     * @return local address of a randomly ticking block
+     */
+    public int getLocalAddress(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Picks a block to random tick, using the same random bits vanilla uses as local x, z and y coordinates.
+     *
+     * @param rand random value
+     * @return local address of the picked randomly ticking block, or -1 if the random value doesn't pick any
+     */
+    public int pick(int rand) {
+        int slot = (rand & 15) | (rand >> 4 & 0xF0) | (rand >> 8 & 0xF00);
+        return slot < size ? positions[slot] : -1;
+    }
+
+    /**
+     * @return estimated amount of heap memory used by this index, in bytes
+     */
+    public long estimateMemoryUsage() {
+        long size = HeapSize.object(HeapSize.REFERENCE * 2 + 5);
+        if (positions != EMPTY) {
+            size += HeapSize.array(positions.length, 2);
+        }
+        if (present != null) {
+            size += HeapSize.array(present.length, 8);
+        }
+        return size;
+    }
+
+    private void rebuild(ExtendedBlockStorage ebs) {
+        this.size = 0;
+        if (present == null) {
+            present = new long[4096 / Long.SIZE];
+        } else {
+            Arrays.fill(present, 0);
+        }
+        for (int address = 0; address < 4096; address++) {
+            IBlockState state = ebs.get(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address));
+            if (state.getBlock().getTickRandomly()) {
+                add(address);
+            }
+        }
+        this.valid = true;
+    }
+
+    private void add(int address) {
+        long bit = 1L << address;
+        int word = address >>> 6;
+        if ((present[word] & bit) != 0) {
+            return;
+        }
+        present[word] |= bit;
+        if (size == positions.length) {
+            short[] newPositions = new short[Math.max(16, size * 2)];
+            System.arraycopy(positions, 0, newPositions, 0, size);
+            positions = newPositions;
+        }
+        positions[size++] = (short) address;
+    }
+
+    private void remove(int address) {
+        long bit = 1L << address;
+        int word = address >>> 6;
+        if ((present[word] & bit) == 0) {
+            return;
+        }
+        present[word] &= ~bit;
+        for (int i = 0; i < size; i++) {
+            if (positions[i] == address) {
+                positions[i] = positions[--size];
+                return;
+            }
+        }
+        throw new IllegalStateException("Position " + address + " marked as present but not found in random tick index");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlockStorageCodec;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestBlockStorageCodec {
+
+    private static final int BLOCKS = 4096;
+
+    @BeforeClass
+    public static void setUp() {
+        Bootstrap.register();
+    }
+
+    @Test
+    public void testFewStates() {
+        testRoundTrip(getStates(3), new Random(1));
+    }
+
+    @Test
+    public void testLinearPalette() {
+        testRoundTrip(getStates(16), new Random(2));
+    }
+
+    @Test
+    public void testHashMapPalette() {
+        testRoundTrip(getStates(200), new Random(3));
+    }
+
+    @Test
+    public void testRegistryPalette() {
+        testRoundTrip(getStates(1000), new Random(4));
+    }
+
+    @Test
+    public void testAllAir() {
+        @SuppressWarnings("deprecation")
+        int airId = Block.BLOCK_STATE_IDS.get(Blocks.AIR.getDefaultState());
+        ExtendedBlockStorage storage = BlockStorageCodec.createFromIds(i -> airId, 0, true);
+        assertTrue(storage.isEmpty());
+        assertNull(BlockStorageCodec.createFromPrimer(new CubePrimer(), 0, true));
+    }
+
+    @Test
+    public void testUnknownIdIsAir() {
+        ExtendedBlockStorage storage = BlockStorageCodec.createFromIds(i -> Integer.MAX_VALUE - i, 0, true);
+        assertTrue(storage.isEmpty());
+        assertEquals(Blocks.AIR.getDefaultState(), BlockStorageCodec.getUniformState(storage));
+    }
+
+    @Test
+    public void testPrimer() {
+        List<IBlockState> states = getStates(20);
+        Random rand = new Random(5);
+        CubePrimer primer = new CubePrimer();
+        ExtendedBlockStorage expected = new ExtendedBlockStorage(16, true);
+        for (int i = 0; i < BLOCKS; i++) {
+            IBlockState state = states.get(rand.nextInt(states.size()));
+            primer.setBlockState(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+            expected.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+        }
+        ExtendedBlockStorage storage = BlockStorageCodec.createFromPrimer(primer, 16, true);
+        assertNotNull(storage);
+        assertEquals(16, storage.getYLocation());
+        assertSameBlocks(expected, storage);
+    }
+
+    @Test
+    public void testFill() {
+        ExtendedBlockStorage storage = BlockStorageCodec.createFromIds(idsOf(getStates(10), new Random(6)), 0, true);
+        IBlockState stone = Blocks.STONE.getDefaultState();
+        BlockStorageCodec.fill(storage, stone);
+        assertEquals(stone, BlockStorageCodec.getUniformState(storage));
+        assertFalse(storage.isEmpty());
+        assertFalse(storage.needsRandomTick());
+        BlockStorageCodec.fill(storage, Blocks.AIR.getDefaultState());
+        assertTrue(storage.isEmpty());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void testRoundTrip(List<IBlockState> states, Random rand) {
+        IntUnaryOperator ids = idsOf(states, rand);
+        ExtendedBlockStorage storage = BlockStorageCodec.createFromIds(ids, 0, true);
+
+        ExtendedBlockStorage expected = new ExtendedBlockStorage(0, true);
+        for (int i = 0; i < BLOCKS; i++) {
+            expected.set(i & 0xF, i >> 8, (i >> 4) & 0xF, Block.BLOCK_STATE_IDS.getByValue(ids.applyAsInt(i)));
+        }
+        assertSameBlocks(expected, storage);
+
+        IntUnaryOperator decoded = BlockStorageCodec.getIds(storage);
+        for (int i = 0; i < BLOCKS; i++) {
+            assertEquals(ids.applyAsInt(i), decoded.applyAsInt(i));
+        }
+        assertNull(BlockStorageCodec.getUniformState(storage));
+    }
+
+    private static void assertSameBlocks(ExtendedBlockStorage expected, ExtendedBlockStorage actual) {
+        for (int i = 0; i < BLOCKS; i++) {
+            assertEquals(expected.get(i & 0xF, i >> 8, (i >> 4) & 0xF), actual.get(i & 0xF, i >> 8, (i >> 4) & 0xF));
+        }
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertEquals(expected.needsRandomTick(), actual.needsRandomTick());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static IntUnaryOperator idsOf(List<IBlockState> states, Random rand) {
+        int[] ids = new int[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            ids[i] = Block.BLOCK_STATE_IDS.get(states.get(rand.nextInt(states.size())));
+        }
+        return i -> ids[i];
+    }
+
+    // the first count distinct block states, air first
+    @SuppressWarnings("deprecation")
+    private static List<IBlockState> getStates(int count) {
+        List<IBlockState> states = new ArrayList<>();
+        for (IBlockState state : Block.BLOCK_STATE_IDS) {
+            if (!states.contains(state)) {
+                states.add(state);
+                if (states.size() == count) {
+                    break;
+                }
+            }
+        }
+        assertEquals(count, states.size());
+        return states;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestConcurrentXYZMap {
+
+    @Test
+    public void testPutGet() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Entry a = new Entry(1, 2, 3);
+        assertNull(map.put(a));
+        assertSame(a, map.get(1, 2, 3));
+        assertTrue(map.contains(1, 2, 3));
+        assertTrue(map.contains(new Entry(1, 2, 3)));
+        assertNull(map.get(3, 2, 1));
+        assertFalse(map.contains(3, 2, 1));
+        assertEquals(1, map.getSize());
+    }
+
+    @Test
+    public void testReplace() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Entry a = new Entry(-5, 0, 5);
+        Entry b = new Entry(-5, 0, 5);
+        map.put(a);
+        assertSame(a, map.put(b));
+        assertSame(b, map.get(-5, 0, 5));
+        assertEquals(1, map.getSize());
+    }
+
+    @Test
+    public void testRemove() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Entry a = new Entry(7, 8, 9);
+        map.put(a);
+        assertNull(map.remove(9, 8, 7));
+        assertSame(a, map.remove(7, 8, 9));
+        assertNull(map.remove(7, 8, 9));
+        assertNull(map.get(7, 8, 9));
+        assertEquals(0, map.getSize());
+        map.put(a);
+        assertSame(a, map.remove(new Entry(7, 8, 9)));
+    }
+
+    @Test
+    public void testResize() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 2);
+        List<Entry> entries = new ArrayList<>();
+        for (int x = -10; x < 10; x++) {
+            for (int y = -10; y < 10; y++) {
+                for (int z = -10; z < 10; z++) {
+                    Entry e = new Entry(x, y, z);
+                    entries.add(e);
+                    assertNull(map.put(e));
+                }
+            }
+        }
+        assertEquals(entries.size(), map.getSize());
+        for (Entry e : entries) {
+            assertSame(e, map.get(e.x, e.y, e.z));
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // compares with a HashMap, small coordinate range so that removals leave many tombstones and rebuilds happen often
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 4);
+        Map<Long, Entry> expected = new HashMap<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int x = rand.nextInt(16), y = rand.nextInt(16), z = rand.nextInt(16);
+            long key = key(x, y, z);
+            switch (rand.nextInt(3)) {
+                case 0: {
+                    Entry e = new Entry(x, y, z);
+                    assertSame(expected.put(key, e), map.put(e));
+                    break;
+                }
+                case 1:
+                    assertSame(expected.remove(key), map.remove(x, y, z));
+                    break;
+                default:
+                    assertSame(expected.get(key), map.get(x, y, z));
+            }
+            assertEquals(expected.size(), map.getSize());
+        }
+        Set<Entry> iterated = new HashSet<>();
+        for (Entry e : map) {
+            assertTrue(iterated.add(e));
+        }
+        assertEquals(new HashSet<>(expected.values()), iterated);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        for (int i = 0; i < 100; i++) {
+            map.put(new Entry(i, -i, i * 31));
+        }
+        Iterator<Entry> it = map.iterator();
+        int removed = 0;
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.x % 2 == 0) {
+                it.remove();
+                removed++;
+            }
+        }
+        assertEquals(50, removed);
+        assertEquals(50, map.getSize());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 != 0, map.contains(i, -i, i * 31));
+        }
+    }
+
+    @Test
+    public void testIteratorRemoveKeepsReplacement() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        map.put(new Entry(0, 0, 0));
+        Iterator<Entry> it = map.iterator();
+        it.next();
+        Entry replacement = new Entry(0, 0, 0);
+        map.put(replacement);
+        it.remove();
+        assertSame(replacement, map.get(0, 0, 0));
+    }
+
+    @Test
+    public void testClear() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        for (int i = 0; i < 100; i++) {
+            map.put(new Entry(i, i, i));
+        }
+        map.clear();
+        assertEquals(0, map.getSize());
+        assertFalse(map.iterator().hasNext());
+        assertNull(map.get(5, 5, 5));
+        map.put(new Entry(5, 5, 5));
+        assertNotNull(map.get(5, 5, 5));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 4);
+        // these are never removed, readers must always find them
+        List<Entry> stable = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Entry e = new Entry(i, 1000, -i);
+            stable.add(e);
+            map.put(e);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int readerCount = 4;
+        CountDownLatch finished = new CountDownLatch(readerCount);
+        for (int t = 0; t < readerCount; t++) {
+            int seed = t;
+            Thread reader = new Thread(() -> {
+                try {
+                    Random rand = new Random(seed);
+                    while (!done.get()) {
+                        Entry e = stable.get(rand.nextInt(stable.size()));
+                        assertSame(e, map.get(e.x, e.y, e.z));
+                        int x = rand.nextInt(64), y = rand.nextInt(64), z = rand.nextInt(64);
+                        Entry found = map.get(x, y, z);
+                        if (found != null) {
+                            assertEquals(key(x, y, z), key(found.x, found.y, found.z));
+                        }
+                        for (Entry it : map) {
+                            assertNotNull(it);
+                        }
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    finished.countDown();
+                }
+            }, "ConcurrentXYZMap reader " + t);
+            reader.start();
+        }
+
+        // the writer adds and removes other entries, causing rebuilds and tombstones
+        Random rand = new Random(1234);
+        for (int i = 0; i < 200000 && failure.get() == null; i++) {
+            int x = rand.nextInt(64), y = rand.nextInt(64), z = rand.nextInt(64);
+            if (rand.nextBoolean()) {
+                map.put(new Entry(x, y, z));
+            } else {
+                map.remove(x, y, z);
+            }
+        }
+        done.set(true);
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (Entry e : stable) {
+            assertSame(e, map.get(e.x, e.y, e.z));
+        }
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((long) x & 0x1FFFFF) | ((long) y & 0x1FFFFF) << 21 | ((long) z & 0x1FFFFF) << 42;
+    }
+
+    private static final class Entry implements XYZAddressable {
+
+        final int x, y, z;
+
+        Entry(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeChangeJournal;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.World;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeChangeJournal {
+
+    private World world;
+    private CubeChangeJournal journal;
+
+    @Before
+    public void setUp() {
+        world = mock(World.class);
+        setTick(100);
+        journal = new CubeChangeJournal(world);
+    }
+
+    @Test
+    public void testVersionsIncrease() {
+        long first = journal.nextVersion();
+        long second = journal.nextVersion();
+        assertTrue(second > first);
+        assertEquals(second, journal.getVersion());
+    }
+
+    @Test
+    public void testForEachChangedSince() {
+        CubePos a = new CubePos(0, 0, 0);
+        CubePos b = new CubePos(1, -2, 3);
+        CubePos c = new CubePos(-5, 6, 7);
+        journal.record(a, journal.nextVersion());
+        setTick(101);
+        journal.record(b, journal.nextVersion());
+        setTick(102);
+        long versionC = journal.nextVersion();
+        journal.record(c, versionC);
+
+        List<CubePos> changed = new ArrayList<>();
+        journal.forEachChangedSince(101, (pos, version) -> changed.add(pos));
+        assertEquals(2, changed.size());
+        // most recently changed first
+        assertEquals(c, changed.get(0));
+        assertEquals(b, changed.get(1));
+
+        journal.forEachChangedSince(102, (pos, version) -> assertEquals(versionC, version));
+    }
+
+    @Test
+    public void testRecordAgainMovesToEnd() {
+        CubePos a = new CubePos(0, 0, 0);
+        CubePos b = new CubePos(0, 1, 0);
+        journal.record(a, journal.nextVersion());
+        journal.record(b, journal.nextVersion());
+        setTick(105);
+        long version = journal.nextVersion();
+        journal.record(a, version);
+
+        List<CubePos> changed = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        journal.forEachChangedSince(0, (pos, v) -> {
+            changed.add(pos);
+            versions.add(v);
+        });
+        assertEquals(2, changed.size());
+        assertEquals(a, changed.get(0));
+        assertEquals(version, (long) versions.get(0));
+        assertEquals(b, changed.get(1));
+
+        List<CubePos> recent = new ArrayList<>();
+        journal.forEachChangedSince(101, (pos, v) -> recent.add(pos));
+        assertEquals(1, recent.size());
+        assertEquals(a, recent.get(0));
+    }
+
+    @Test
+    public void testTrimAndCovers() {
+        CubePos old = new CubePos(0, 0, 0);
+        CubePos recent = new CubePos(1, 1, 1);
+        journal.record(old, journal.nextVersion());
+        assertTrue(journal.covers(0));
+
+        long tick = 100 + CubeChangeJournal.RETENTION_TICKS + 10;
+        setTick(tick);
+        journal.record(recent, journal.nextVersion());
+
+        // the old change is forgotten, so queries reaching back to it can't be answered
+        assertFalse(journal.covers(100));
+        assertTrue(journal.covers(tick - CubeChangeJournal.RETENTION_TICKS));
+        List<CubePos> changed = new ArrayList<>();
+        journal.forEachChangedSince(0, (pos, v) -> changed.add(pos));
+        assertEquals(1, changed.size());
+        assertEquals(recent, changed.get(0));
+    }
+
+    private void setTick(long tick) {
+        when(world.getTotalWorldTime()).thenReturn(tick);
+    }
+}
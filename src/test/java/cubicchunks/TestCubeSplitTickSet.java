@@ -0,0 +1,191 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.NextTickListEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeSplitTickSet {
+
+    private static Block[] blocks;
+
+    @BeforeClass
+    public static void setUp() {
+        Bootstrap.register();
+        blocks = new Block[]{Blocks.STONE, Blocks.DIRT, Blocks.WATER};
+    }
+
+    @Test
+    public void testAddRemove() {
+        CubeSplitTickSet set = new CubeSplitTickSet();
+        NextTickListEntry entry = new NextTickListEntry(new BlockPos(-1, 2, 40), Blocks.STONE);
+        assertTrue(set.add(entry));
+        assertFalse(set.add(new NextTickListEntry(new BlockPos(-1, 2, 40), Blocks.STONE)));
+        // same position, different block
+        assertTrue(set.add(new NextTickListEntry(new BlockPos(-1, 2, 40), Blocks.DIRT)));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(entry));
+        assertEquals(2, set.getForCube(new CubePos(-1, 0, 2)).size());
+
+        assertTrue(set.remove(entry));
+        assertFalse(set.remove(entry));
+        assertFalse(set.contains(entry));
+        assertTrue(set.remove(new NextTickListEntry(new BlockPos(-1, 2, 40), Blocks.DIRT)));
+        assertTrue(set.isEmpty());
+        assertTrue(set.getForCube(new CubePos(-1, 0, 2)).isEmpty());
+    }
+
+    @Test
+    public void testForCubeIsReadOnly() {
+        CubeSplitTickSet set = new CubeSplitTickSet();
+        NextTickListEntry entry = new NextTickListEntry(new BlockPos(1, 2, 3), Blocks.STONE);
+        set.add(entry);
+        Set<NextTickListEntry> forCube = set.getForCube(new CubePos(0, 0, 0));
+        try {
+            forCube.remove(entry);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ignored) {
+        }
+        Iterator<NextTickListEntry> it = forCube.iterator();
+        it.next();
+        try {
+            it.remove();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ignored) {
+        }
+        assertEquals(1, set.size());
+        assertTrue(set.contains(entry));
+    }
+
+    @Test
+    public void testRandomOperationsInOneCube() {
+        // many entries in a single cube, so that probe runs are long and removal has to shift entries back
+        testRandomOperations(new Random(42), 16, 100000);
+    }
+
+    @Test
+    public void testRandomOperationsInManyCubes() {
+        testRandomOperations(new Random(1337), 64, 100000);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        CubeSplitTickSet set = new CubeSplitTickSet();
+        Set<NextTickListEntry> expected = new HashSet<>();
+        Random rand = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            NextTickListEntry entry = randomEntry(rand, 48);
+            set.add(entry);
+            expected.add(entry);
+        }
+        Iterator<NextTickListEntry> it = set.iterator();
+        while (it.hasNext()) {
+            NextTickListEntry entry = it.next();
+            if (entry.position.getY() % 2 == 0) {
+                it.remove();
+                expected.remove(entry);
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, toSet(set));
+        for (NextTickListEntry entry : expected) {
+            assertTrue(set.contains(entry));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        CubeSplitTickSet set = new CubeSplitTickSet();
+        Random rand = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            set.add(randomEntry(rand, 64));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+    }
+
+    private static void testRandomOperations(Random rand, int range, int count) {
+        CubeSplitTickSet set = new CubeSplitTickSet();
+        Set<NextTickListEntry> expected = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            NextTickListEntry entry = randomEntry(rand, range);
+            if (rand.nextInt(3) != 0) {
+                assertEquals(expected.add(entry), set.add(entry));
+            } else {
+                assertEquals(expected.remove(entry), set.remove(entry));
+            }
+            assertEquals(expected.size(), set.size());
+            assertTrue(set.contains(entry) == expected.contains(entry));
+        }
+        assertEquals(expected, toSet(set));
+        for (NextTickListEntry entry : expected) {
+            assertTrue(set.contains(entry));
+            CubePos cube = CubePos.fromBlockCoords(entry.position);
+            assertTrue(set.getForCube(cube).contains(entry));
+        }
+        // removing everything has to leave no empty cubes behind
+        for (NextTickListEntry entry : expected) {
+            assertTrue(set.remove(entry));
+        }
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+        for (NextTickListEntry entry : expected) {
+            assertTrue(set.getForCube(CubePos.fromBlockCoords(entry.position)).isEmpty());
+        }
+    }
+
+    private static NextTickListEntry randomEntry(Random rand, int range) {
+        BlockPos pos = new BlockPos(rand.nextInt(range), rand.nextInt(range), rand.nextInt(range));
+        return new NextTickListEntry(pos, blocks[rand.nextInt(blocks.length)]);
+    }
+
+    private static Set<NextTickListEntry> toSet(CubeSplitTickSet set) {
+        Set<NextTickListEntry> out = new HashSet<>();
+        for (NextTickListEntry entry : set) {
+            assertTrue(out.add(entry));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.BlockColored;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.item.EnumDyeColor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketCubeBlockChange {
+
+    private static final int ENCODING_BYTE = 3 * Integer.BYTES;
+
+    @BeforeClass
+    public static void setUp() {
+        Bootstrap.register();
+    }
+
+    @Test
+    public void testEmpty() {
+        PacketCubeBlockChange received = testRoundTrip(new short[0], new IBlockState[0], new int[0]);
+        assertEquals(0, received.getLocalAddresses().length);
+    }
+
+    @Test
+    public void testSparseEncoding() {
+        short[] addresses = {0, 1337, 4095};
+        IBlockState[] states = {Blocks.STONE.getDefaultState(), Blocks.AIR.getDefaultState(), wool(EnumDyeColor.RED)};
+        int[] heights = {0x1F | (-70 << 8), 0xE2 | (30000 << 8)};
+        ByteBuf buf = encode(new PacketCubeBlockChange(new CubePos(5, -6, 7), addresses, states, heights));
+        assertEquals(0, buf.getUnsignedByte(ENCODING_BYTE));
+        testRoundTrip(addresses, states, heights);
+    }
+
+    @Test
+    public void testMaskEncoding() {
+        Random rand = new Random(42);
+        IBlockState[] palette = {Blocks.AIR.getDefaultState(), Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState()};
+        // every 3rd block
+        short[] addresses = new short[1366];
+        IBlockState[] states = new IBlockState[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = (short) (i * 3);
+            states[i] = palette[rand.nextInt(palette.length)];
+        }
+        ByteBuf buf = encode(new PacketCubeBlockChange(new CubePos(0, 0, 0), addresses, states, new int[0]));
+        assertEquals(1, buf.getUnsignedByte(ENCODING_BYTE));
+        testRoundTrip(addresses, states, new int[0]);
+    }
+
+    @Test
+    public void testMaskEncodingAllBlocks() {
+        // 16 states need a palette index of more than one long per 64 blocks
+        EnumDyeColor[] colors = EnumDyeColor.values();
+        short[] addresses = new short[4096];
+        IBlockState[] states = new IBlockState[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = (short) i;
+            states[i] = wool(colors[(i * 7) % colors.length]);
+        }
+        testRoundTrip(addresses, states, new int[0]);
+    }
+
+    @Test
+    public void testRandomChanges() {
+        Random rand = new Random(123);
+        EnumDyeColor[] colors = EnumDyeColor.values();
+        for (int n = 0; n < 50; n++) {
+            boolean[] changed = new boolean[4096];
+            int count = rand.nextInt(600) + 1;
+            for (int i = 0; i < count; i++) {
+                changed[rand.nextInt(changed.length)] = true;
+            }
+            int distinct = 0;
+            for (boolean b : changed) {
+                distinct += b ? 1 : 0;
+            }
+            short[] addresses = new short[distinct];
+            IBlockState[] states = new IBlockState[distinct];
+            int stateCount = rand.nextInt(colors.length) + 1;
+            for (int address = 0, i = 0; address < changed.length; address++) {
+                if (changed[address]) {
+                    addresses[i] = (short) address;
+                    states[i] = wool(colors[rand.nextInt(stateCount)]);
+                    i++;
+                }
+            }
+            testRoundTrip(addresses, states, new int[0]);
+        }
+    }
+
+    private static PacketCubeBlockChange testRoundTrip(short[] addresses, IBlockState[] states, int[] heights) {
+        CubePos pos = new CubePos(-1, 2, -3);
+        ByteBuf buf = encode(new PacketCubeBlockChange(pos, addresses, states, heights));
+        PacketCubeBlockChange received = new PacketCubeBlockChange();
+        received.fromBytes(buf);
+        assertEquals(0, buf.readableBytes());
+        assertEquals(pos, received.getCubePos());
+        assertArrayEquals(addresses, received.getLocalAddresses());
+        assertArrayEquals(states, received.getBlockStates());
+        assertArrayEquals(heights, received.getHeightValues());
+        return received;
+    }
+
+    private static ByteBuf encode(PacketCubeBlockChange packet) {
+        ByteBuf buf = Unpooled.buffer();
+        packet.toBytes(buf);
+        return buf;
+    }
+
+    private static IBlockState wool(EnumDyeColor color) {
+        return Blocks.WOOL.getDefaultState().withProperty(BlockColored.COLOR, color);
+    }
+}
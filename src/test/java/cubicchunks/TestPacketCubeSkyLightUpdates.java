@@ -0,0 +1,122 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketCubeSkyLightUpdates {
+
+    private static final int BLOCKS = 4096;
+
+    @Test
+    public void testSingleChange() {
+        testRoundTrip(new Random(1), new int[]{1234});
+    }
+
+    @Test
+    public void testRunsWithGaps() {
+        // first and last block, a run at a byte boundary and a run with a small gap
+        testRoundTrip(new Random(2), new int[]{0, 3, 4, 5, 100, 101, 103, 104, 2000, 4095});
+    }
+
+    @Test
+    public void testRandomChanges() {
+        Random rand = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            int[] changed = new int[rand.nextInt(200) + 1];
+            for (int j = 0; j < changed.length; j++) {
+                changed[j] = rand.nextInt(BLOCKS);
+            }
+            testRoundTrip(rand, changed);
+        }
+    }
+
+    @Test
+    public void testFullArray() {
+        int[] changed = new int[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            changed[i] = i;
+        }
+        testRoundTrip(new Random(4), changed);
+    }
+
+    @Test
+    public void testNoStorage() {
+        PacketCubeSkyLightUpdates.CubeUpdates updates = PacketCubeSkyLightUpdates.encode(new CubePos(0, 0, 0), null, new long[BLOCKS / 64]);
+        assertFalse(sendAndReceive(updates).hasStorage());
+    }
+
+    private static void testRoundTrip(Random rand, int[] changedAddresses) {
+        NibbleArray oldLight = randomLight(rand);
+        NibbleArray newLight = new NibbleArray(oldLight.getData().clone());
+        long[] changed = new long[BLOCKS / 64];
+        for (int address : changedAddresses) {
+            changed[address >>> 6] |= 1L << address;
+            newLight.setIndex(address, rand.nextInt(16));
+        }
+
+        PacketCubeSkyLightUpdates.CubeUpdates updates = sendAndReceive(
+                PacketCubeSkyLightUpdates.encode(new CubePos(1, -2, 3), newLight, changed));
+        assertTrue(updates.hasStorage());
+        NibbleArray decoded = new NibbleArray(oldLight.getData().clone());
+        updates.decodeInto(decoded);
+        assertArrayEquals(newLight.getData(), decoded.getData());
+    }
+
+    private static PacketCubeSkyLightUpdates.CubeUpdates sendAndReceive(PacketCubeSkyLightUpdates.CubeUpdates updates) {
+        PacketCubeSkyLightUpdates packet = new PacketCubeSkyLightUpdates();
+        packet.add(updates);
+        ByteBuf buf = Unpooled.buffer();
+        packet.toBytes(buf);
+
+        PacketCubeSkyLightUpdates received = new PacketCubeSkyLightUpdates();
+        received.fromBytes(buf);
+        assertEquals(0, buf.readableBytes());
+        List<PacketCubeSkyLightUpdates.CubeUpdates> cubes = received.getCubes();
+        assertEquals(1, cubes.size());
+        return cubes.get(0);
+    }
+
+    private static NibbleArray randomLight(Random rand) {
+        byte[] data = new byte[BLOCKS / 2];
+        rand.nextBytes(data);
+        return new NibbleArray(data);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.RandomTickIndex;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestRandomTickIndex {
+
+    @BeforeClass
+    public static void setUp() {
+        Bootstrap.register();
+    }
+
+    @Test
+    public void testBuild() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        Set<Integer> expected = fill(ebs, new Random(42));
+
+        RandomTickIndex index = new RandomTickIndex();
+        index.ensureValid(ebs);
+        assertEquals(expected, positions(index));
+    }
+
+    @Test
+    public void testOnBlockSet() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        Set<Integer> expected = fill(ebs, new Random(1));
+        RandomTickIndex index = new RandomTickIndex();
+        index.ensureValid(ebs);
+
+        Random rand = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            int address = rand.nextInt(4096);
+            IBlockState state = rand.nextBoolean() ? Blocks.GRASS.getDefaultState() : Blocks.STONE.getDefaultState();
+            set(ebs, address, state);
+            index.onBlockSet(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address), state);
+            if (state.getBlock().getTickRandomly()) {
+                expected.add(address);
+            } else {
+                expected.remove(address);
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        assertEquals(expected, positions(index));
+        // consistent with the storage, so this must not change anything
+        index.ensureValid(ebs);
+        assertEquals(expected, positions(index));
+    }
+
+    @Test
+    public void testRebuildAfterDirectSet() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        RandomTickIndex index = new RandomTickIndex();
+        index.ensureValid(ebs);
+        assertEquals(0, index.size());
+
+        // bypasses onBlockSet, the tick ref count in the storage no longer matches
+        set(ebs, 100, Blocks.GRASS.getDefaultState());
+        set(ebs, 200, Blocks.GRASS.getDefaultState());
+        index.ensureValid(ebs);
+        assertEquals(setOf(100, 200), positions(index));
+    }
+
+    @Test
+    public void testInvalidate() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        set(ebs, 5, Blocks.GRASS.getDefaultState());
+        RandomTickIndex index = new RandomTickIndex();
+        index.ensureValid(ebs);
+
+        // same ticking block count, only invalidate() can tell that the positions changed
+        set(ebs, 5, Blocks.STONE.getDefaultState());
+        set(ebs, 6, Blocks.GRASS.getDefaultState());
+        index.invalidate();
+        index.ensureValid(ebs);
+        assertEquals(setOf(6), positions(index));
+    }
+
+    @Test
+    public void testPickHitsEachPositionOnce() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        Set<Integer> expected = fill(ebs, new Random(3));
+        RandomTickIndex index = new RandomTickIndex();
+        index.ensureValid(ebs);
+
+        // random values with all 12 bits used by vanilla random ticks, each one maps to a different slot
+        Set<Integer> picked = new HashSet<>();
+        int misses = 0;
+        for (int slot = 0; slot < 4096; slot++) {
+            int rand = (slot & 15) | (slot >> 4 & 15) << 8 | (slot >> 8 & 15) << 16;
+            int address = index.pick(rand);
+            if (address < 0) {
+                misses++;
+            } else {
+                assertTrue(picked.add(address));
+            }
+        }
+        assertEquals(expected, picked);
+        assertEquals(4096 - expected.size(), misses);
+    }
+
+    private static Set<Integer> fill(ExtendedBlockStorage ebs, Random rand) {
+        Set<Integer> ticking = new HashSet<>();
+        for (int address = 0; address < 4096; address++) {
+            int r = rand.nextInt(4);
+            IBlockState state = r == 0 ? Blocks.GRASS.getDefaultState() : r == 1 ? Blocks.AIR.getDefaultState() : Blocks.STONE.getDefaultState();
+            set(ebs, address, state);
+            if (state.getBlock().getTickRandomly()) {
+                ticking.add(address);
+            }
+        }
+        return ticking;
+    }
+
+    private static void set(ExtendedBlockStorage ebs, int address, IBlockState state) {
+        ebs.set(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address), state);
+    }
+
+    private static Set<Integer> positions(RandomTickIndex index) {
+        Set<Integer> positions = new HashSet<>();
+        for (int i = 0; i < index.size(); i++) {
+            assertTrue(positions.add(index.getLocalAddress(i)));
+        }
+        return positions;
+    }
+
+    private static Set<Integer> setOf(Integer... values) {
+        Set<Integer> set = new HashSet<>();
+        for (Integer value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}